@@ -0,0 +1,97 @@
+package us.deathmarine.luyten;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times TreeBuilder on synthetic jars of growing entry counts, for both
+ * tree layouts. Not part of the build, run it from the project directory
+ * with:
+ *
+ * <pre>
+ * javac -d target/benchmark -sourcepath src benchmark/us/deathmarine/luyten/TreeBuilderBenchmark.java
+ * java -cp target/benchmark us.deathmarine.luyten.TreeBuilderBenchmark [entry counts...]
+ * </pre>
+ */
+public class TreeBuilderBenchmark {
+
+	private static final int[] DEFAULT_ENTRY_COUNTS = { 1000, 5000, 20000, 50000, 150000, 500000 };
+	private static final int WARM_UP_RUNS = 3;
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) {
+		int[] entryCounts = DEFAULT_ENTRY_COUNTS;
+		if (args.length > 0) {
+			entryCounts = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				entryCounts[i] = Integer.parseInt(args[i]);
+			}
+		}
+		System.out.println(String.format("%10s %10s %10s %10s %10s", "entries", "nodes", "dir ms", "flat ms",
+				"dir ns/entry"));
+		for (int entryCount : entryCounts) {
+			List<String> mass = createEntries(entryCount, new Random(entryCount));
+			int nodeCount = TreeBuilder.buildDirectoryTree(new TreeNodeUserObject("bench.jar"),
+					new ArrayList<>(mass)).getNodeCount();
+			long directoryNanos = time(mass, false);
+			long flatNanos = time(mass, true);
+			System.out.println(String.format("%10d %10d %10d %10d %10d", entryCount, nodeCount,
+					directoryNanos / 1000000, flatNanos / 1000000, directoryNanos / entryCount));
+		}
+	}
+
+	// best of RUNS, after WARM_UP_RUNS
+	private static long time(List<String> mass, boolean isFlat) {
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < WARM_UP_RUNS + RUNS; run++) {
+			// the builders sort the list they are given
+			List<String> copy = new ArrayList<>(mass);
+			long start = System.nanoTime();
+			EntryTreeModel model = isFlat ? TreeBuilder.buildFlatTree(new TreeNodeUserObject("bench.jar"), copy)
+					: TreeBuilder.buildDirectoryTree(new TreeNodeUserObject("bench.jar"), copy);
+			long nanos = System.nanoTime() - start;
+			if (model.getNodeCount() == 0)
+				throw new IllegalStateException("Empty tree");
+			if (run >= WARM_UP_RUNS)
+				best = Math.min(best, nanos);
+		}
+		return best;
+	}
+
+	/**
+	 * Names shaped like a fat jar: a few vendors with nested packages,
+	 * classes with inner classes, some resources, META-INF and root entries
+	 */
+	static List<String> createEntries(int entryCount, Random random) {
+		List<String> mass = new ArrayList<>(entryCount);
+		mass.add("META-INF/MANIFEST.MF");
+		mass.add("META-INF/maven/bench/pom.xml");
+		mass.add("module-info.class");
+		int packageCount = Math.max(1, entryCount / 40);
+		List<String> packages = new ArrayList<>(packageCount);
+		for (int i = 0; i < packageCount; i++) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(i % 3 == 0 ? "org/" : "com/").append("vendor").append(i % 17).append('/');
+			int depth = 1 + random.nextInt(4);
+			for (int d = 0; d < depth; d++) {
+				sb.append("pkg").append(random.nextInt(12)).append('/');
+			}
+			packages.add(sb.toString());
+		}
+		for (int i = 0; mass.size() < entryCount; i++) {
+			String pack = packages.get(random.nextInt(packages.size()));
+			int kind = random.nextInt(10);
+			if (kind < 6) {
+				mass.add(pack + "Class" + i + ".class");
+			} else if (kind < 9) {
+				mass.add(pack + "Class" + (i - 1) + "$" + (1 + random.nextInt(5)) + ".class");
+			} else {
+				mass.add(pack + "resource" + i + (random.nextBoolean() ? ".properties" : ".png"));
+			}
+		}
+		Collections.shuffle(mass, random);
+		return mass;
+	}
+}
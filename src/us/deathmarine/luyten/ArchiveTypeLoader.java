@@ -0,0 +1,57 @@
+package us.deathmarine.luyten;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+/**
+ * Loads classes from the entries of a shared zip archive, like Procyon's
+ * JarTypeLoader: a class stored under another path (e.g. WEB-INF/classes/)
+ * is found by its declared name once it was loaded by its path.
+ */
+public class ArchiveTypeLoader implements ITypeLoader {
+
+	private final ZipArchive archive;
+	// declared name -> entry of a class stored under another path
+	private final Map<String, Integer> movedClasses = new ConcurrentHashMap<>();
+
+	public ArchiveTypeLoader(ZipArchive archive) {
+		this.archive = archive;
+	}
+
+	public ZipArchive getArchive() {
+		return archive;
+	}
+
+	@Override
+	public boolean tryLoadType(String internalName, Buffer buffer) {
+		int entry = archive.findEntry(internalName + ".class");
+		if (entry < 0) {
+			Integer movedEntry = movedClasses.get(internalName);
+			if (movedEntry == null)
+				return false;
+			entry = movedEntry;
+		}
+		byte[] bytes;
+		try {
+			bytes = archive.readBytes(entry);
+		} catch (IOException e) {
+			System.out.println("[ArchiveTypeLoader]: Cannot read " + internalName + ": " + e);
+			return false;
+		}
+		buffer.reset(bytes.length);
+		System.arraycopy(bytes, 0, buffer.array(), 0, bytes.length);
+		buffer.position(0);
+		try {
+			String declaredName = new ClassFileScanner(bytes, bytes.length).getClassName();
+			if (declaredName != null && !declaredName.equals(internalName))
+				movedClasses.put(declaredName, entry);
+		} catch (Exception e) {
+			// loaded by its path only
+		}
+		return true;
+	}
+}
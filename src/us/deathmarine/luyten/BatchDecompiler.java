@@ -0,0 +1,258 @@
+package us.deathmarine.luyten;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.strobel.decompiler.DecompilerSettings;
+import com.strobel.decompiler.languages.Language;
+import com.strobel.decompiler.languages.Languages;
+import com.strobel.decompiler.languages.java.JavaFormattingOptions;
+
+/**
+ * Headless command line mode: decompiles jars to a directory or zip without
+ * starting the GUI (no AWT, no dialogs, no single-instance socket)
+ */
+public class BatchDecompiler {
+
+	public static final String BATCH_OPTION = "--batch";
+
+	private static final int EXIT_OK = 0;
+	private static final int EXIT_FAILURES = 1;
+	private static final int EXIT_USAGE = 2;
+
+	private final List<File> inFiles = new ArrayList<>();
+	private File outFile;
+	private int threadCount = 0;
+	private String jdkHome;
+	private JrtTypeLoader jrtTypeLoader;
+	private Language language = Languages.java();
+	private boolean isFilterOutInnerClassEntries = true;
+	private boolean isUnicodeOutputEnabled = false;
+	private boolean isHelp = false;
+
+	private final List<String> failures = new ArrayList<>();
+	private int decompiledCount;
+
+	public static boolean isBatchCommandLine(String[] args) {
+		return args.length > 0 && BATCH_OPTION.equals(args[0]);
+	}
+
+	/**
+	 * @return process exit code: 0 all classes decompiled, 1 some classes
+	 *         or jars failed, 2 wrong arguments
+	 */
+	public static int run(String[] args) {
+		BatchDecompiler batch = new BatchDecompiler();
+		String error = batch.parseArgs(args);
+		if (batch.isHelp) {
+			printUsage();
+			return EXIT_OK;
+		}
+		if (error != null) {
+			System.err.println("[Batch]: " + error);
+			printUsage();
+			return EXIT_USAGE;
+		}
+		return batch.decompileAll();
+	}
+
+	private String parseArgs(String[] args) {
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i];
+			if ("--out".equals(arg) || "-o".equals(arg)) {
+				if (++i >= args.length)
+					return "Missing value for " + arg;
+				outFile = new File(args[i]);
+			} else if ("--threads".equals(arg) || "-t".equals(arg)) {
+				if (++i >= args.length)
+					return "Missing value for " + arg;
+				try {
+					threadCount = Integer.parseInt(args[i]);
+				} catch (NumberFormatException e) {
+					return "Invalid thread count: " + args[i];
+				}
+			} else if ("--jdk-home".equals(arg)) {
+				if (++i >= args.length)
+					return "Missing value for " + arg;
+				jdkHome = args[i];
+			} else if ("--language".equals(arg) || "-l".equals(arg)) {
+				if (++i >= args.length)
+					return "Missing value for " + arg;
+				language = findLanguage(args[i]);
+				if (language == null)
+					return "Unknown language: " + args[i] + " (java, bytecode, bytecode-ast)";
+			} else if ("--all-entries".equals(arg)) {
+				isFilterOutInnerClassEntries = false;
+			} else if ("--unicode".equals(arg)) {
+				isUnicodeOutputEnabled = true;
+			} else if ("--help".equals(arg) || "-h".equals(arg)) {
+				isHelp = true;
+				return null;
+			} else if (arg.startsWith("-")) {
+				return "Unknown option: " + arg;
+			} else {
+				File inFile = new File(arg);
+				if (!inFile.isFile())
+					return "Input file not found: " + arg;
+				String name = inFile.getName().toLowerCase();
+				if (!name.endsWith(".jar") && !name.endsWith(".zip") && !name.endsWith(".war")
+						&& !name.endsWith(".ear"))
+					return "Input is not a jar or zip: " + arg;
+				inFiles.add(inFile);
+			}
+		}
+		if (inFiles.isEmpty())
+			return "No input jar given";
+		if (outFile == null)
+			return "No output given (--out <dir|file.zip>)";
+		if (isZipOutput() && inFiles.size() > 1)
+			return "Several inputs need a directory output";
+		// JDK classes from the given or the running JDK, none from the GUI
+		// preferences
+		jrtTypeLoader = JrtTypeLoader.create(jdkHome);
+		if (jdkHome != null && jrtTypeLoader == null)
+			return "No JDK runtime image in " + jdkHome;
+		return null;
+	}
+
+	private static Language findLanguage(String name) {
+		if ("java".equalsIgnoreCase(name) || Languages.java().getName().equalsIgnoreCase(name))
+			return Languages.java();
+		if ("bytecode".equalsIgnoreCase(name) || Languages.bytecode().getName().equalsIgnoreCase(name))
+			return Languages.bytecode();
+		if ("bytecode-ast".equalsIgnoreCase(name) || Languages.bytecodeAst().getName().equalsIgnoreCase(name))
+			return Languages.bytecodeAst();
+		return null;
+	}
+
+	private boolean isZipOutput() {
+		return outFile.getName().toLowerCase().endsWith(".zip");
+	}
+
+	private int decompileAll() {
+		long time = System.currentTimeMillis();
+		for (File inFile : inFiles) {
+			File target = outFile;
+			if (!isZipOutput() && inFiles.size() > 1) {
+				target = new File(outFile, inFile.getName().replaceAll("\\.[^\\.]*$", ""));
+			}
+			System.out.println("[Batch]: " + inFile.getPath() + " -> " + target.getPath());
+			try {
+				decompile(inFile, target);
+			} catch (Exception e) {
+				failures.add(inFile.getPath() + ": " + e);
+			}
+		}
+
+		System.out.println("[Batch]: Decompiled: " + decompiledCount + ", failed: " + failures.size() + " - "
+				+ FileSaver.getTime(time));
+		for (String failure : failures) {
+			System.out.println("[Batch]: FAILED " + failure);
+		}
+		return failures.isEmpty() ? EXIT_OK : EXIT_FAILURES;
+	}
+
+	private void decompile(final File inFile, File target) throws Exception {
+		JarDecompiler decompiler = new JarDecompiler(inFile, createSettings(), isFilterOutInnerClassEntries,
+				threadCount, jrtTypeLoader);
+		decompiler.setListener(new JarDecompiler.Listener() {
+			@Override
+			public void onStart(int entryCount) {
+			}
+
+			@Override
+			public void onEntry(String entryName, int tick) {
+			}
+
+			@Override
+			public void onDecompileFailed(String entryName, Exception e) {
+				String failure = inFile.getName() + "!" + entryName + ": " + e;
+				failures.add(failure);
+				System.err.println("[Batch]: Cannot decompile " + failure);
+			}
+		});
+		if (isZipOutput()) {
+			File parent = target.getAbsoluteFile().getParentFile();
+			if (parent != null)
+				parent.mkdirs();
+			try (FileOutputStream dest = new FileOutputStream(target);
+					BufferedOutputStream buffDest = new BufferedOutputStream(dest);
+					ZipOutputStream out = new ZipOutputStream(buffDest);) {
+				decompiler.decompileTo(out);
+			}
+		} else {
+			try (DirectorySink out = new DirectorySink(target);) {
+				decompiler.decompileTo(out);
+			}
+		}
+		decompiledCount += decompiler.getDecompiledCount();
+	}
+
+	private DecompilerSettings createSettings() {
+		DecompilerSettings settings = new DecompilerSettings();
+		if (settings.getJavaFormattingOptions() == null) {
+			settings.setJavaFormattingOptions(JavaFormattingOptions.createDefault());
+		}
+		settings.setLanguage(language);
+		settings.setUnicodeOutputEnabled(isUnicodeOutputEnabled);
+		return settings;
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: java -jar luyten.jar " + BATCH_OPTION + " <in.jar>... --out <dir|file.zip>");
+		System.err.println("    [--threads N]         decompiler threads (default: one per processor)");
+		System.err.println("    [--jdk-home DIR]      JDK of the referenced classes (default: the running one)");
+		System.err.println("    [--language L]        java, bytecode or bytecode-ast (default: java)");
+		System.err.println("    [--all-entries]       keep inner class entries as separate files");
+		System.err.println("    [--unicode]           write sources as UTF-8");
+	}
+
+	/**
+	 * Writes every entry as a file under the root directory
+	 */
+	private static class DirectorySink implements JarDecompiler.Sink, AutoCloseable {
+		private final File root;
+		private final String rootPath;
+		private OutputStream current;
+
+		DirectorySink(File root) throws IOException {
+			this.root = root;
+			this.rootPath = root.getCanonicalPath() + File.separator;
+			root.mkdirs();
+		}
+
+		@Override
+		public OutputStream putNextEntry(JarEntry entry) throws IOException {
+			File file = new File(root, entry.getName());
+			// do not let "../" entries escape the output directory
+			if (!file.getCanonicalPath().startsWith(rootPath))
+				throw new IOException("Entry is outside of the output directory: " + entry.getName());
+			File parent = file.getParentFile();
+			if (parent != null)
+				parent.mkdirs();
+			current = new BufferedOutputStream(new FileOutputStream(file));
+			return current;
+		}
+
+		@Override
+		public void closeEntry() throws IOException {
+			if (current != null) {
+				OutputStream out = current;
+				current = null;
+				out.close();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			closeEntry();
+		}
+	}
+}
@@ -0,0 +1,487 @@
+package us.deathmarine.luyten;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the constant pool, the fields and methods and the constant pool
+ * operands of the bytecode of a class file, without building a type model.
+ * Only offsets into the class bytes are kept, strings are decoded when asked
+ * for.
+ */
+public class ClassFileScanner {
+	public static final int CONSTANT_UTF8 = 1;
+	public static final int CONSTANT_INTEGER = 3;
+	public static final int CONSTANT_FLOAT = 4;
+	public static final int CONSTANT_LONG = 5;
+	public static final int CONSTANT_DOUBLE = 6;
+	public static final int CONSTANT_CLASS = 7;
+	public static final int CONSTANT_STRING = 8;
+	public static final int CONSTANT_FIELDREF = 9;
+	public static final int CONSTANT_METHODREF = 10;
+	public static final int CONSTANT_INTERFACE_METHODREF = 11;
+	public static final int CONSTANT_NAME_AND_TYPE = 12;
+	public static final int CONSTANT_METHOD_HANDLE = 15;
+	public static final int CONSTANT_METHOD_TYPE = 16;
+	public static final int CONSTANT_DYNAMIC = 17;
+	public static final int CONSTANT_INVOKE_DYNAMIC = 18;
+	public static final int CONSTANT_MODULE = 19;
+	public static final int CONSTANT_PACKAGE = 20;
+
+	public static final int GETSTATIC = 0xB2;
+	public static final int PUTSTATIC = 0xB3;
+	public static final int GETFIELD = 0xB4;
+	public static final int PUTFIELD = 0xB5;
+	public static final int INVOKEVIRTUAL = 0xB6;
+	public static final int INVOKESPECIAL = 0xB7;
+	public static final int INVOKESTATIC = 0xB8;
+	public static final int INVOKEINTERFACE = 0xB9;
+	public static final int INVOKEDYNAMIC = 0xBA;
+	public static final int NEW = 0xBB;
+	public static final int ANEWARRAY = 0xBD;
+	public static final int CHECKCAST = 0xC0;
+	public static final int INSTANCEOF = 0xC1;
+	public static final int MULTIANEWARRAY = 0xC5;
+	public static final int LDC = 0x12;
+	public static final int LDC_W = 0x13;
+	public static final int LDC2_W = 0x14;
+
+	// length of the instructions without operands in the constant pool,
+	// 0: variable length
+	private static final int[] INSTRUCTION_LENGTHS = new int[256];
+	static {
+		for (int opcode = 0; opcode < 256; opcode++) {
+			INSTRUCTION_LENGTHS[opcode] = 1;
+		}
+		INSTRUCTION_LENGTHS[0x10] = 2; // bipush
+		INSTRUCTION_LENGTHS[0x11] = 3; // sipush
+		for (int opcode = 0x15; opcode <= 0x19; opcode++) {
+			INSTRUCTION_LENGTHS[opcode] = 2; // xload
+		}
+		for (int opcode = 0x36; opcode <= 0x3A; opcode++) {
+			INSTRUCTION_LENGTHS[opcode] = 2; // xstore
+		}
+		INSTRUCTION_LENGTHS[0x84] = 3; // iinc
+		for (int opcode = 0x99; opcode <= 0xA8; opcode++) {
+			INSTRUCTION_LENGTHS[opcode] = 3; // if<cond>, goto, jsr
+		}
+		INSTRUCTION_LENGTHS[0xA9] = 2; // ret
+		INSTRUCTION_LENGTHS[0xAA] = 0; // tableswitch
+		INSTRUCTION_LENGTHS[0xAB] = 0; // lookupswitch
+		INSTRUCTION_LENGTHS[0xBC] = 2; // newarray
+		INSTRUCTION_LENGTHS[0xC4] = 0; // wide
+		INSTRUCTION_LENGTHS[0xC6] = 3; // ifnull
+		INSTRUCTION_LENGTHS[0xC7] = 3; // ifnonnull
+		INSTRUCTION_LENGTHS[0xC8] = 5; // goto_w
+		INSTRUCTION_LENGTHS[0xC9] = 5; // jsr_w
+	}
+
+	/**
+	 * Field or method declared by the class
+	 */
+	public static final class Member {
+		private final boolean isMethod;
+		private final int access;
+		private final int nameIndex;
+		private final int descriptorIndex;
+		private int codeOffset = -1;
+		private int codeLength;
+
+		Member(boolean isMethod, int access, int nameIndex, int descriptorIndex) {
+			this.isMethod = isMethod;
+			this.access = access;
+			this.nameIndex = nameIndex;
+			this.descriptorIndex = descriptorIndex;
+		}
+
+		public boolean isMethod() {
+			return isMethod;
+		}
+
+		public int getAccess() {
+			return access;
+		}
+
+		public int getNameIndex() {
+			return nameIndex;
+		}
+
+		public int getDescriptorIndex() {
+			return descriptorIndex;
+		}
+
+		public boolean hasCode() {
+			return codeOffset >= 0;
+		}
+	}
+
+	/**
+	 * Instructions of a method which take a constant pool index
+	 */
+	public interface CodeVisitor {
+
+		public void visitConstant(int opcode, int index);
+	}
+
+	private final byte[] data;
+	private final int length;
+	private final int[] offsets;
+	private final int thisClass;
+	private final int superClass;
+	private final int[] interfaces;
+	private final List<Member> fields = new ArrayList<>();
+	private final List<Member> methods = new ArrayList<>();
+	// constants used as attribute names
+	private final BitSet attributeNames = new BitSet();
+
+	/**
+	 * @throws IOException
+	 *             the bytes are no class file or are truncated
+	 */
+	public ClassFileScanner(byte[] data, int length) throws IOException {
+		this.data = data;
+		this.length = length;
+		try {
+			if (length < 10 || readU2(0) != 0xCAFE || readU2(2) != 0xBABE)
+				throw new IOException("Not a class file");
+			int count = readU2(8);
+			offsets = new int[count];
+			int pos = 10;
+			for (int i = 1; i < count; i++) {
+				offsets[i] = pos;
+				switch (readU1(pos)) {
+				case CONSTANT_UTF8:
+					pos += 3 + readU2(pos + 1);
+					break;
+				case CONSTANT_LONG:
+				case CONSTANT_DOUBLE:
+					pos += 9;
+					i++;
+					break;
+				case CONSTANT_INTEGER:
+				case CONSTANT_FLOAT:
+				case CONSTANT_FIELDREF:
+				case CONSTANT_METHODREF:
+				case CONSTANT_INTERFACE_METHODREF:
+				case CONSTANT_NAME_AND_TYPE:
+				case CONSTANT_DYNAMIC:
+				case CONSTANT_INVOKE_DYNAMIC:
+					pos += 5;
+					break;
+				case CONSTANT_METHOD_HANDLE:
+					pos += 4;
+					break;
+				case CONSTANT_CLASS:
+				case CONSTANT_STRING:
+				case CONSTANT_METHOD_TYPE:
+				case CONSTANT_MODULE:
+				case CONSTANT_PACKAGE:
+					pos += 3;
+					break;
+				default:
+					throw new IOException("Unknown constant pool tag " + readU1(pos));
+				}
+			}
+			thisClass = readU2(pos + 2);
+			superClass = readU2(pos + 4);
+			interfaces = new int[readU2(pos + 6)];
+			pos += 8;
+			for (int i = 0; i < interfaces.length; i++) {
+				interfaces[i] = readU2(pos);
+				pos += 2;
+			}
+			pos = readMembers(pos, false, fields);
+			pos = readMembers(pos, true, methods);
+			pos = readAttributes(pos, null);
+			if (pos > length)
+				throw new IOException("Truncated class file");
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Truncated class file");
+		}
+	}
+
+	/**
+	 * Reads the class file of an archive entry
+	 */
+	public static ClassFileScanner read(ZipArchive archive, int entry) throws IOException {
+		byte[] data = archive.readBytes(entry);
+		return new ClassFileScanner(data, data.length);
+	}
+
+	private int readMembers(int pos, boolean isMethod, List<Member> members) throws IOException {
+		int count = readU2(pos);
+		pos += 2;
+		for (int i = 0; i < count; i++) {
+			Member member = new Member(isMethod, readU2(pos), readU2(pos + 2), readU2(pos + 4));
+			pos = readAttributes(pos + 6, member);
+			members.add(member);
+		}
+		return pos;
+	}
+
+	private int readAttributes(int pos, Member member) throws IOException {
+		int count = readU2(pos);
+		pos += 2;
+		for (int i = 0; i < count; i++) {
+			int nameIndex = readU2(pos);
+			attributeNames.set(nameIndex);
+			int attributeLength = readS4(pos + 2);
+			pos += 6;
+			if (member != null && member.isMethod && "Code".equals(getUtf8(nameIndex))) {
+				member.codeLength = readS4(pos + 4);
+				member.codeOffset = pos + 8;
+				int exceptionTable = member.codeOffset + member.codeLength;
+				readAttributes(exceptionTable + 2 + readU2(exceptionTable) * 8, null);
+			}
+			pos += attributeLength;
+		}
+		return pos;
+	}
+
+	/**
+	 * Calls the visitor for every instruction of the method with a constant
+	 * pool operand, in code order
+	 */
+	public void scanCode(Member method, CodeVisitor visitor) throws IOException {
+		if (!method.hasCode())
+			return;
+		int base = method.codeOffset;
+		int pc = 0;
+		try {
+			while (pc < method.codeLength) {
+				int opcode = readU1(base + pc);
+				switch (opcode) {
+				case LDC:
+					visitor.visitConstant(opcode, readU1(base + pc + 1));
+					pc += 2;
+					break;
+				case LDC_W:
+				case LDC2_W:
+				case GETSTATIC:
+				case PUTSTATIC:
+				case GETFIELD:
+				case PUTFIELD:
+				case INVOKEVIRTUAL:
+				case INVOKESPECIAL:
+				case INVOKESTATIC:
+				case NEW:
+				case ANEWARRAY:
+				case CHECKCAST:
+				case INSTANCEOF:
+					visitor.visitConstant(opcode, readU2(base + pc + 1));
+					pc += 3;
+					break;
+				case INVOKEINTERFACE:
+				case INVOKEDYNAMIC:
+					visitor.visitConstant(opcode, readU2(base + pc + 1));
+					pc += 5;
+					break;
+				case MULTIANEWARRAY:
+					visitor.visitConstant(opcode, readU2(base + pc + 1));
+					pc += 4;
+					break;
+				case 0xAA: { // tableswitch
+					int operands = pc + 4 - (pc & 3);
+					int low = readS4(base + operands + 4);
+					int high = readS4(base + operands + 8);
+					pc = operands + 12 + (high - low + 1) * 4;
+					break;
+				}
+				case 0xAB: { // lookupswitch
+					int operands = pc + 4 - (pc & 3);
+					pc = operands + 8 + readS4(base + operands + 4) * 8;
+					break;
+				}
+				case 0xC4: // wide
+					pc += readU1(base + pc + 1) == 0x84 ? 6 : 4;
+					break;
+				default:
+					pc += INSTRUCTION_LENGTHS[opcode];
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Truncated code");
+		}
+	}
+
+	/**
+	 * Internal name of the class
+	 */
+	public String getClassName() {
+		return getClassName(thisClass);
+	}
+
+	/**
+	 * @return internal name, null for java/lang/Object
+	 */
+	public String getSuperClassName() {
+		return superClass != 0 ? getClassName(superClass) : null;
+	}
+
+	public List<String> getInterfaceNames() {
+		List<String> names = new ArrayList<>();
+		for (int index : interfaces) {
+			names.add(getClassName(index));
+		}
+		return names;
+	}
+
+	public List<Member> getFields() {
+		return Collections.unmodifiableList(fields);
+	}
+
+	public List<Member> getMethods() {
+		return Collections.unmodifiableList(methods);
+	}
+
+	/**
+	 * Constants are numbered from 1 to getConstantCount() - 1
+	 */
+	public int getConstantCount() {
+		return offsets.length;
+	}
+
+	/**
+	 * @return 0 for the unusable index after a long or double
+	 */
+	public int getTag(int index) {
+		if (index <= 0 || index >= offsets.length || offsets[index] == 0)
+			return 0;
+		return readU1(offsets[index]);
+	}
+
+	public boolean isAttributeName(int index) {
+		return attributeNames.get(index);
+	}
+
+	public String getUtf8(int index) {
+		if (getTag(index) != CONSTANT_UTF8)
+			return null;
+		int pos = offsets[index];
+		return decodeUtf8(pos + 3, readU2(pos + 1));
+	}
+
+	/**
+	 * Index of the first constant referenced by a constant: the name of a
+	 * class, the value of a string, the class of a member reference, the
+	 * name of a name and type...
+	 */
+	public int getFirstReference(int index) {
+		return readU2(offsets[index] + 1);
+	}
+
+	/**
+	 * Index of the second constant referenced by a constant: the name and
+	 * type of a member reference or invokedynamic, the descriptor of a name
+	 * and type
+	 */
+	public int getSecondReference(int index) {
+		return readU2(offsets[index] + 3);
+	}
+
+	/**
+	 * Index of the field or method reference of a method handle constant
+	 */
+	public int getMethodHandleReference(int index) {
+		return readU2(offsets[index] + 2);
+	}
+
+	/**
+	 * Internal name of a class, module or package constant
+	 */
+	public String getClassName(int index) {
+		return getUtf8(getFirstReference(index));
+	}
+
+	public String getStringValue(int index) {
+		return getUtf8(getFirstReference(index));
+	}
+
+	/**
+	 * Internal name of the class of a field or method reference
+	 */
+	public String getReferenceOwner(int index) {
+		return getClassName(getFirstReference(index));
+	}
+
+	/**
+	 * Name of a field or method reference, an invokedynamic or a name and
+	 * type
+	 */
+	public String getReferenceName(int index) {
+		int nameAndType = getTag(index) == CONSTANT_NAME_AND_TYPE ? index : getSecondReference(index);
+		return getUtf8(getFirstReference(nameAndType));
+	}
+
+	public String getReferenceDescriptor(int index) {
+		int nameAndType = getTag(index) == CONSTANT_NAME_AND_TYPE ? index : getSecondReference(index);
+		return getUtf8(getSecondReference(nameAndType));
+	}
+
+	public String getName(Member member) {
+		return getUtf8(member.nameIndex);
+	}
+
+	public String getDescriptor(Member member) {
+		return getUtf8(member.descriptorIndex);
+	}
+
+	private String decodeUtf8(int pos, int utf8Length) {
+		// modified UTF-8: plain UTF-8 for everything but \0 and supplementary
+		// characters, which javac rarely emits
+		boolean isAscii = true;
+		for (int i = pos; i < pos + utf8Length; i++) {
+			if (data[i] <= 0) {
+				isAscii = false;
+				break;
+			}
+		}
+		if (isAscii) {
+			char[] chars = new char[utf8Length];
+			for (int i = 0; i < utf8Length; i++) {
+				chars[i] = (char) data[pos + i];
+			}
+			return new String(chars);
+		}
+		char[] chars = new char[utf8Length];
+		int count = 0;
+		int i = pos;
+		int end = pos + utf8Length;
+		while (i < end) {
+			int b = data[i++] & 0xFF;
+			if (b < 0x80) {
+				chars[count++] = (char) b;
+			} else if ((b & 0xE0) == 0xC0 && i < end) {
+				chars[count++] = (char) (((b & 0x1F) << 6) | (data[i++] & 0x3F));
+			} else if (i + 1 < end) {
+				chars[count++] = (char) (((b & 0x0F) << 12) | ((data[i] & 0x3F) << 6) | (data[i + 1] & 0x3F));
+				i += 2;
+			} else {
+				break;
+			}
+		}
+		return new String(chars, 0, count);
+	}
+
+	private int readU1(int pos) {
+		if (pos >= length)
+			throw new IndexOutOfBoundsException();
+		return data[pos] & 0xFF;
+	}
+
+	private int readU2(int pos) {
+		if (pos + 1 >= length)
+			throw new IndexOutOfBoundsException();
+		return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+	}
+
+	private int readS4(int pos) {
+		if (pos + 3 >= length)
+			throw new IndexOutOfBoundsException();
+		return ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16) | ((data[pos + 2] & 0xFF) << 8)
+				| (data[pos + 3] & 0xFF);
+	}
+}
@@ -1,5 +1,6 @@
 package us.deathmarine.luyten;
 
+import java.io.File;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.prefs.Preferences;
@@ -29,6 +30,8 @@ public class ConfigSaver {
 	private static final String WINDOW_Y_ID = "WindowY";
 
 	private DecompilerSettings decompilerSettings;
+	// copy of decompilerSettings as of the last change, never modified
+	private volatile DecompilerSettings decompilerSettingsSnapshot;
 	private WindowPosition mainWindowPosition;
 	private WindowPosition findWindowPosition;
 	private LuytenPreferences luytenPreferences;
@@ -94,6 +97,7 @@ public class ConfigSaver {
 		} catch (Exception e) {
 			Luyten.showExceptionDialog("Exception!", e);
 		}
+		publishDecompilerSettings();
 	}
 
 	private WindowPosition loadWindowPosition(Preferences prefs, String windowIdPrefix) {
@@ -185,6 +189,44 @@ public class ConfigSaver {
 		}
 	}
 
+	/**
+	 * Copy of the given settings, safe to use on another thread
+	 */
+	public static DecompilerSettings copyDecompilerSettings(DecompilerSettings settings) {
+		DecompilerSettings newSettings = new DecompilerSettings();
+		if (newSettings.getJavaFormattingOptions() == null) {
+			newSettings.setJavaFormattingOptions(JavaFormattingOptions.createDefault());
+		}
+		// synchronized: against main menu changes
+		synchronized (settings) {
+			newSettings.setExcludeNestedTypes(settings.getExcludeNestedTypes());
+			newSettings.setFlattenSwitchBlocks(settings.getFlattenSwitchBlocks());
+			newSettings.setForceExplicitImports(settings.getForceExplicitImports());
+			newSettings.setForceExplicitTypeArguments(settings.getForceExplicitTypeArguments());
+			newSettings.setOutputFileHeaderText(settings.getOutputFileHeaderText());
+			newSettings.setLanguage(settings.getLanguage());
+			newSettings.setShowSyntheticMembers(settings.getShowSyntheticMembers());
+			newSettings.setAlwaysGenerateExceptionVariableForCatchBlocks(
+					settings.getAlwaysGenerateExceptionVariableForCatchBlocks());
+			newSettings.setOutputDirectory(settings.getOutputDirectory());
+			newSettings.setRetainRedundantCasts(settings.getRetainRedundantCasts());
+			newSettings.setIncludeErrorDiagnostics(settings.getIncludeErrorDiagnostics());
+			newSettings.setIncludeLineNumbersInBytecode(settings.getIncludeLineNumbersInBytecode());
+			newSettings.setRetainPointlessSwitches(settings.getRetainPointlessSwitches());
+			newSettings.setUnicodeOutputEnabled(settings.isUnicodeOutputEnabled());
+			newSettings.setMergeVariables(settings.getMergeVariables());
+			newSettings.setShowDebugLineNumbers(settings.getShowDebugLineNumbers());
+		}
+		return newSettings;
+	}
+
+	/**
+	 * Directory of the files Luyten keeps between runs (caches, indexes)
+	 */
+	public static File getConfigDirectory() {
+		return new File(System.getProperty("user.home"), ".luyten");
+	}
+
 	private Language findLanguageByName(String languageName) {
 		if (languageName != null) {
 
@@ -205,10 +247,31 @@ public class ConfigSaver {
 		return Languages.java();
 	}
 
+	/**
+	 * The settings the Settings menu edits. Decompile with
+	 * getDecompilerSettingsSnapshot() instead.
+	 */
 	public DecompilerSettings getDecompilerSettings() {
 		return decompilerSettings;
 	}
 
+	/**
+	 * Settings as of the last publishDecompilerSettings(). The snapshot is
+	 * never modified: a decompile task takes it once when it starts and any
+	 * number of tasks can use it at the same time.
+	 */
+	public DecompilerSettings getDecompilerSettingsSnapshot() {
+		return decompilerSettingsSnapshot;
+	}
+
+	/**
+	 * Makes the current decompiler settings the snapshot of the following
+	 * decompile tasks
+	 */
+	public void publishDecompilerSettings() {
+		decompilerSettingsSnapshot = copyDecompilerSettings(decompilerSettings);
+	}
+
 	public WindowPosition getMainWindowPosition() {
 		return mainWindowPosition;
 	}
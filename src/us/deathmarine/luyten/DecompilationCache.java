@@ -0,0 +1,365 @@
+package us.deathmarine.luyten;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.strobel.Procyon;
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+import com.strobel.assembler.metadata.TypeDefinition;
+import com.strobel.decompiler.DecompilerSettings;
+
+/**
+ * Decompiled sources stored on disk, keyed by a hash of the class bytes and
+ * the decompiler settings: the same class decompiled with the same settings
+ * is read back instead of decompiled again. Least recently used entries are
+ * deleted when the cache grows over its size limit.
+ */
+public class DecompilationCache {
+
+	// change when the entry format or the link keys change
+	private static final int FORMAT_VERSION = 3;
+	private static final String ENTRY_SUFFIX = ".cache";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * Decompiled text with the links built by DecompilerLinkProvider (empty
+	 * for languages without links)
+	 */
+	public static class Entry {
+		private final String textContent;
+		private final LinkIndex linkIndex;
+
+		public Entry(String textContent) {
+			this(textContent, new LinkIndex());
+			linkIndex.build();
+		}
+
+		/**
+		 * @param linkIndex
+		 *            built already
+		 */
+		public Entry(String textContent, LinkIndex linkIndex) {
+			this.textContent = textContent;
+			this.linkIndex = linkIndex;
+		}
+
+		public String getTextContent() {
+			return textContent;
+		}
+
+		public LinkIndex getLinkIndex() {
+			return linkIndex;
+		}
+	}
+
+	private static DecompilationCache theInstance;
+
+	private final File directory;
+	// entry key -> file size, least recently used first
+	private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+	private boolean isIndexLoaded = false;
+	private long totalSize;
+	private volatile long maxSize;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	public DecompilationCache(File directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return the cache of the user config directory, or null if it is
+	 *         disabled in the preferences
+	 */
+	public static DecompilationCache getDefault() {
+		LuytenPreferences luytenPrefs = ConfigSaver.getLoadedInstance().getLuytenPreferences();
+		if (!luytenPrefs.isDecompilationCacheEnabled())
+			return null;
+		if (theInstance == null) {
+			synchronized (DecompilationCache.class) {
+				if (theInstance == null) {
+					theInstance = new DecompilationCache(new File(ConfigSaver.getConfigDirectory(), "cache"), 0);
+				}
+			}
+		}
+		theInstance.setMaxSize(Math.max(luytenPrefs.getDecompilationCacheSizeMb(), 1) * 1024L * 1024L);
+		return theInstance;
+	}
+
+	/**
+	 * @return key of the type's decompiled source, or null if the class bytes
+	 *         of the type or one of its nested types cannot be loaded
+	 */
+	public static String createKey(ITypeLoader typeLoader, TypeDefinition type, DecompilerSettings settings) {
+		if (typeLoader == null || type == null)
+			return null;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(getSettingsFingerprint(settings).getBytes("UTF-8"));
+			if (!updateDigest(digest, typeLoader, type, new Buffer()))
+				return null;
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest.digest()) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	// nested types are decompiled into the outer type's source
+	private static boolean updateDigest(MessageDigest digest, ITypeLoader typeLoader, TypeDefinition type,
+			Buffer buffer) throws IOException {
+		String internalName = type.getInternalName();
+		if (internalName == null || !typeLoader.tryLoadType(internalName, buffer))
+			return false;
+		digest.update(internalName.getBytes("UTF-8"));
+		digest.update(buffer.array(), 0, buffer.size());
+		for (TypeDefinition nestedType : type.getDeclaredTypes()) {
+			if (!updateDigest(digest, typeLoader, nestedType, buffer))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Every setting copied by ConfigSaver.copyDecompilerSettings, the Procyon
+	 * version and the cache format
+	 */
+	static String getSettingsFingerprint(DecompilerSettings settings) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("luyten-cache:").append(FORMAT_VERSION);
+		sb.append(";procyon:").append(Procyon.version());
+		// synchronized: against main menu changes
+		synchronized (settings) {
+			sb.append(";language:").append(settings.getLanguage().getName());
+			sb.append(";excludeNestedTypes:").append(settings.getExcludeNestedTypes());
+			sb.append(";flattenSwitchBlocks:").append(settings.getFlattenSwitchBlocks());
+			sb.append(";forceExplicitImports:").append(settings.getForceExplicitImports());
+			sb.append(";forceExplicitTypeArguments:").append(settings.getForceExplicitTypeArguments());
+			sb.append(";outputFileHeaderText:").append(settings.getOutputFileHeaderText());
+			sb.append(";showSyntheticMembers:").append(settings.getShowSyntheticMembers());
+			sb.append(";alwaysGenerateExceptionVariableForCatchBlocks:")
+					.append(settings.getAlwaysGenerateExceptionVariableForCatchBlocks());
+			sb.append(";outputDirectory:").append(settings.getOutputDirectory());
+			sb.append(";retainRedundantCasts:").append(settings.getRetainRedundantCasts());
+			sb.append(";includeErrorDiagnostics:").append(settings.getIncludeErrorDiagnostics());
+			sb.append(";includeLineNumbersInBytecode:").append(settings.getIncludeLineNumbersInBytecode());
+			sb.append(";retainPointlessSwitches:").append(settings.getRetainPointlessSwitches());
+			sb.append(";unicodeOutputEnabled:").append(settings.isUnicodeOutputEnabled());
+			sb.append(";mergeVariables:").append(settings.getMergeVariables());
+			sb.append(";showDebugLineNumbers:").append(settings.getShowDebugLineNumbers());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the cached entry, or null on a miss (or a null key)
+	 */
+	public Entry get(String key) {
+		if (key == null)
+			return null;
+		synchronized (index) {
+			loadIndex();
+			if (index.get(key) == null) {
+				missCount.incrementAndGet();
+				return null;
+			}
+		}
+		File file = getEntryFile(key);
+		try {
+			Entry entry = readEntry(file);
+			// keeps the recently used order over restarts
+			file.setLastModified(System.currentTimeMillis());
+			hitCount.incrementAndGet();
+			return entry;
+		} catch (IOException e) {
+			// deleted by another instance or broken: decompile again
+			synchronized (index) {
+				removeEntry(key);
+			}
+			missCount.incrementAndGet();
+			return null;
+		}
+	}
+
+	public void put(String key, Entry entry) {
+		if (key == null || entry == null || entry.getTextContent() == null)
+			return;
+		File file = getEntryFile(key);
+		File tempFile = new File(file.getPath() + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+		try {
+			file.getParentFile().mkdirs();
+			writeEntry(tempFile, entry);
+			synchronized (index) {
+				loadIndex();
+				removeEntry(key);
+				if (!tempFile.renameTo(file))
+					return;
+				index.put(key, file.length());
+				totalSize += file.length();
+				evict();
+			}
+		} catch (IOException e) {
+			// a read-only or full disk only costs the cache
+			System.out.println("[Cache]: Cannot write " + file + ": " + e);
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Deletes every entry and resets the counters
+	 */
+	public void clear() {
+		synchronized (index) {
+			loadIndex();
+			for (String key : new ArrayList<>(index.keySet())) {
+				removeEntry(key);
+			}
+			totalSize = 0;
+		}
+		hitCount.set(0);
+		missCount.set(0);
+	}
+
+	public void setMaxSize(long maxSize) {
+		if (this.maxSize != maxSize) {
+			this.maxSize = maxSize;
+			synchronized (index) {
+				if (isIndexLoaded)
+					evict();
+			}
+		}
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public int getEntryCount() {
+		synchronized (index) {
+			loadIndex();
+			return index.size();
+		}
+	}
+
+	public long getSize() {
+		synchronized (index) {
+			loadIndex();
+			return totalSize;
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	private File getEntryFile(String key) {
+		// two-char subdirectories: keeps directory listings short
+		return new File(new File(directory, key.substring(0, 2)), key + ENTRY_SUFFIX);
+	}
+
+	// call in synchronized (index)
+	private void loadIndex() {
+		if (isIndexLoaded)
+			return;
+		isIndexLoaded = true;
+		List<File> files = new ArrayList<>();
+		File[] subDirectories = directory.listFiles();
+		if (subDirectories != null) {
+			for (File subDirectory : subDirectories) {
+				File[] entryFiles = subDirectory.listFiles();
+				if (entryFiles == null)
+					continue;
+				for (File entryFile : entryFiles) {
+					if (entryFile.getName().endsWith(ENTRY_SUFFIX)) {
+						files.add(entryFile);
+					} else if (entryFile.getName().endsWith(TEMP_SUFFIX)) {
+						// left behind by a killed instance
+						entryFile.delete();
+					}
+				}
+			}
+		}
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		for (File file : files) {
+			String name = file.getName();
+			index.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()), file.length());
+			totalSize += file.length();
+		}
+		evict();
+	}
+
+	// call in synchronized (index)
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+		while (totalSize > maxSize && iterator.hasNext()) {
+			Map.Entry<String, Long> eldest = iterator.next();
+			iterator.remove();
+			totalSize -= eldest.getValue();
+			getEntryFile(eldest.getKey()).delete();
+		}
+	}
+
+	// call in synchronized (index)
+	private void removeEntry(String key) {
+		Long size = index.remove(key);
+		if (size != null)
+			totalSize -= size;
+		getEntryFile(key).delete();
+	}
+
+	private static void writeEntry(File file, Entry entry) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));) {
+			out.writeInt(FORMAT_VERSION);
+			byte[] text = entry.getTextContent().getBytes("UTF-8");
+			out.writeInt(text.length);
+			out.write(text);
+			entry.getLinkIndex().write(out);
+		}
+	}
+
+	private static Entry readEntry(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));) {
+			if (in.readInt() != FORMAT_VERSION)
+				throw new IOException("Unknown cache format");
+			byte[] text = new byte[in.readInt()];
+			in.readFully(text);
+			LinkIndex linkIndex = LinkIndex.read(in);
+			return new Entry(new String(text, "UTF-8"), linkIndex);
+		}
+	}
+}
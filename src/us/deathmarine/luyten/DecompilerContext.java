@@ -0,0 +1,104 @@
+package us.deathmarine.luyten;
+
+import java.io.StringWriter;
+
+import com.strobel.assembler.metadata.ITypeLoader;
+import com.strobel.assembler.metadata.MetadataSystem;
+import com.strobel.assembler.metadata.TypeDefinition;
+import com.strobel.assembler.metadata.TypeReference;
+import com.strobel.decompiler.DecompilationOptions;
+import com.strobel.decompiler.DecompilerSettings;
+import com.strobel.decompiler.PlainTextOutput;
+import com.strobel.decompiler.languages.Languages;
+
+/**
+ * Type loader, metadata and settings of one decompiler worker. Not thread
+ * safe: every worker thread owns its own context.
+ */
+public class DecompilerContext {
+
+	private final LuytenTypeLoader typeLoader;
+	private final MetadataSystem metadataSystem;
+	private final DecompilerSettings settings;
+	private final DecompilationOptions decompilationOptions;
+	private DecompilationCache cache;
+
+	/**
+	 * @param jrtTypeLoader
+	 *            JDK classes, null: from the class path
+	 */
+	public DecompilerContext(ZipArchive archive, DecompilerSettings settings, JrtTypeLoader jrtTypeLoader) {
+		this.settings = settings;
+		typeLoader = new LuytenTypeLoader(jrtTypeLoader);
+		typeLoader.addTypeLoader(new ArchiveTypeLoader(archive), archive);
+		metadataSystem = new LuytenMetadataSystem(typeLoader);
+		decompilationOptions = new DecompilationOptions();
+		decompilationOptions.setSettings(settings);
+		decompilationOptions.setFullDecompilation(true);
+	}
+
+	public String decompile(String internalName) throws Exception {
+		TypeReference type = metadataSystem.lookupType(internalName);
+		TypeDefinition resolvedType = null;
+		if ((type == null) || ((resolvedType = type.resolve()) == null)) {
+			throw new Exception("Unable to resolve type.");
+		}
+		return decompile(resolvedType, metadataSystem, typeLoader, decompilationOptions, cache);
+	}
+
+	/**
+	 * Source of the type, read from the cache when it is there. Java sources
+	 * are stored with their navigation links, so the entry can be reused by
+	 * an editor tab.
+	 *
+	 * @param cache
+	 *            null: always decompile
+	 */
+	public static String decompile(TypeDefinition resolvedType, MetadataSystem metadataSystem,
+			ITypeLoader typeLoader, DecompilationOptions decompilationOptions, DecompilationCache cache) {
+		DecompilerSettings settings = decompilationOptions.getSettings();
+		if (cache != null && Languages.java().getName().equals(settings.getLanguage().getName())) {
+			DecompilerLinkProvider linkProvider = new DecompilerLinkProvider();
+			linkProvider.setDecompilerReferences(metadataSystem, typeLoader, settings, decompilationOptions);
+			linkProvider.setDecompilationCache(cache);
+			linkProvider.setType(resolvedType);
+			linkProvider.generateContent();
+			return linkProvider.getTextContent();
+		}
+		String cacheKey = null;
+		if (cache != null) {
+			cacheKey = DecompilationCache.createKey(typeLoader, resolvedType, settings);
+			DecompilationCache.Entry cached = cache.get(cacheKey);
+			if (cached != null)
+				return cached.getTextContent();
+		}
+		StringWriter stringwriter = new StringWriter();
+		PlainTextOutput plainTextOutput = new PlainTextOutput(stringwriter);
+		plainTextOutput.setUnicodeOutputEnabled(settings.isUnicodeOutputEnabled());
+		// the metadata is not thread safe, its users hold its lock
+		synchronized (metadataSystem) {
+			settings.getLanguage().decompileType(resolvedType, plainTextOutput, decompilationOptions);
+		}
+		String source = stringwriter.toString();
+		if (cache != null) {
+			cache.put(cacheKey, new DecompilationCache.Entry(source));
+		}
+		return source;
+	}
+
+	public LuytenTypeLoader getTypeLoader() {
+		return typeLoader;
+	}
+
+	public MetadataSystem getMetadataSystem() {
+		return metadataSystem;
+	}
+
+	public DecompilerSettings getSettings() {
+		return settings;
+	}
+
+	public void setDecompilationCache(DecompilationCache cache) {
+		this.cache = cache;
+	}
+}
@@ -1,13 +1,12 @@
 package us.deathmarine.luyten;
 
 import java.io.StringWriter;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import com.strobel.assembler.metadata.FieldDefinition;
 import com.strobel.assembler.metadata.FieldReference;
+import com.strobel.assembler.metadata.ITypeLoader;
 import com.strobel.assembler.metadata.MetadataSystem;
 import com.strobel.assembler.metadata.MethodDefinition;
 import com.strobel.assembler.metadata.MethodReference;
@@ -20,38 +19,58 @@ import com.strobel.decompiler.PlainTextOutput;
 
 public class DecompilerLinkProvider implements LinkProvider {
 
-	private Map<String, Selection> definitionToSelectionMap = new HashMap<>();
-	private Map<String, Set<Selection>> referenceToSelectionsMap = new HashMap<>();
-	private boolean isSelectionMapsPopulated = false;
+	private LinkIndex linkIndex = new LinkIndex();
+	private boolean isLinkIndexPopulated = false;
 
 	private MetadataSystem metadataSystem;
+	private ITypeLoader typeLoader;
+	private DecompilationCache cache;
+	private MemoryDecompilationCache memoryCache;
 	private DecompilerSettings settings;
 	private DecompilationOptions decompilationOptions;
 	private TypeDefinition type;
+	private StringWriter outputWriter;
 
 	private String currentTypeQualifiedName;
 	private String textContent = "";
+	private String cacheKey;
 
 	@Override
 	public void generateContent() {
-		definitionToSelectionMap = new HashMap<>();
-		referenceToSelectionsMap = new HashMap<>();
+		final LinkIndex newLinkIndex = new LinkIndex();
+		// Procyon writes the same reference objects again and again
+		final Map<Object, LinkKey> keysOfReferences = new IdentityHashMap<>();
+		linkIndex = newLinkIndex;
 		currentTypeQualifiedName = type.getPackageName() + "." + type.getName();
-		final StringWriter stringwriter = new StringWriter();
+		if (cache != null || memoryCache != null) {
+			// the caller may have hashed the class already
+			if (cacheKey == null)
+				cacheKey = DecompilationCache.createKey(typeLoader, type, settings);
+			DecompilationCache.Entry cached = memoryCache != null ? memoryCache.get(cacheKey) : null;
+			if (cached == null && cache != null) {
+				cached = cache.get(cacheKey);
+				if (cached != null && memoryCache != null)
+					memoryCache.put(cacheKey, cached);
+			}
+			if (cached != null) {
+				setCachedContent(cacheKey, cached);
+				return;
+			}
+		}
+		final StringWriter stringwriter = outputWriter != null ? outputWriter : new StringWriter();
 		PlainTextOutput plainTextOutput = new PlainTextOutput(stringwriter) {
 			@Override
 			public void writeDefinition(String text, Object definition, boolean isLocal) {
 				super.writeDefinition(text, definition, isLocal);
 				try {
 					if (text != null && definition != null) {
-						String uniqueStr = createUniqueStrForReference(definition);
-						if (uniqueStr != null) {
+						LinkKey linkKey = getLinkKey(keysOfReferences, definition);
+						if (linkKey != null) {
 							// fix link's underline length: _java.util.HashSet_
 							// -> _HashSet_
-							text = text.replaceAll("[^\\.]*\\.", "");
-							int from = stringwriter.getBuffer().length() - text.length();
 							int to = stringwriter.getBuffer().length();
-							definitionToSelectionMap.put(uniqueStr, new Selection(from, to));
+							int from = to - getSimpleNameLength(text);
+							newLinkIndex.addDefinition(linkKey, from, to);
 						}
 					}
 				} catch (Exception e) {
@@ -64,28 +83,18 @@ public class DecompilerLinkProvider implements LinkProvider {
 				super.writeReference(text, reference, isLocal);
 				try {
 					if (text != null && reference != null) {
-						String uniqueStr = createUniqueStrForReference(reference);
-						if (uniqueStr != null) {
-							text = text.replaceAll("[^\\.]*\\.", "");
-							int from = stringwriter.getBuffer().length() - text.length();
+						LinkKey linkKey = getLinkKey(keysOfReferences, reference);
+						if (linkKey != null) {
 							int to = stringwriter.getBuffer().length();
+							int from = to - getSimpleNameLength(text);
 							if (reference instanceof FieldReference) {
 								// fix enum definition links (note: could not fix enum reference links)
 								if (((FieldReference) reference).isDefinition()) {
-									definitionToSelectionMap.put(uniqueStr, new Selection(from, to));
+									newLinkIndex.addDefinition(linkKey, from, to);
 									return;
 								}
 							}
-							if (referenceToSelectionsMap.containsKey(uniqueStr)) {
-								Set<Selection> selectionsSet = referenceToSelectionsMap.get(uniqueStr);
-								if (selectionsSet != null) {
-									selectionsSet.add(new Selection(from, to));
-								}
-							} else {
-								Set<Selection> selectionsSet = new HashSet<>();
-								selectionsSet.add(new Selection(from, to));
-								referenceToSelectionsMap.put(uniqueStr, selectionsSet);
-							}
+							newLinkIndex.addReference(linkKey, from, to);
 						}
 					}
 				} catch (Exception e) {
@@ -94,45 +103,59 @@ public class DecompilerLinkProvider implements LinkProvider {
 			}
 		};
 		plainTextOutput.setUnicodeOutputEnabled(decompilationOptions.getSettings().isUnicodeOutputEnabled());
-		settings.getLanguage().decompileType(type, plainTextOutput, decompilationOptions);
+		// the metadata is not thread safe, its users hold its lock
+		synchronized (metadataSystem) {
+			settings.getLanguage().decompileType(type, plainTextOutput, decompilationOptions);
+		}
 		textContent = stringwriter.toString();
-		isSelectionMapsPopulated = true;
+		newLinkIndex.build();
+		isLinkIndexPopulated = true;
+		if (cache != null || memoryCache != null) {
+			DecompilationCache.Entry entry = new DecompilationCache.Entry(textContent, newLinkIndex);
+			if (cache != null)
+				cache.put(cacheKey, entry);
+			if (memoryCache != null)
+				memoryCache.put(cacheKey, entry);
+		}
+	}
+
+	// length of the text after its last '.'
+	private static int getSimpleNameLength(String text) {
+		return text.length() - text.lastIndexOf('.') - 1;
+	}
+
+	private LinkKey getLinkKey(Map<Object, LinkKey> keysOfReferences, Object reference) {
+		if (keysOfReferences.containsKey(reference))
+			return keysOfReferences.get(reference);
+		LinkKey linkKey = createLinkKey(reference);
+		keysOfReferences.put(reference, linkKey);
+		return linkKey;
 	}
 
-	private String createUniqueStrForReference(Object reference) {
-		String uniqueStr = null;
+	private LinkKey createLinkKey(Object reference) {
 		if (reference instanceof TypeReference) {
-			TypeReference type = (TypeReference) reference;
-			String pathAndTypeStr = getPathAndTypeStr(type);
-			if (pathAndTypeStr != null) {
-				uniqueStr = "type|" + pathAndTypeStr;
-			}
+			return createLinkKey(LinkKey.Kind.TYPE, (TypeReference) reference, null, null);
 		} else if (reference instanceof MethodReference) {
 			MethodReference method = (MethodReference) reference;
-			String pathAndTypeStr = getPathAndTypeStr(method.getDeclaringType());
-			if (pathAndTypeStr != null) {
-				uniqueStr = "method|" + pathAndTypeStr + "|" + method.getName() + "|" + method.getErasedSignature();
-			}
+			return createLinkKey(LinkKey.Kind.METHOD, method.getDeclaringType(), method.getName(),
+					method.getErasedSignature());
 		} else if (reference instanceof FieldReference) {
 			FieldReference field = (FieldReference) reference;
-			String pathAndTypeStr = getPathAndTypeStr(field.getDeclaringType());
-			if (pathAndTypeStr != null) {
-				uniqueStr = "field|" + pathAndTypeStr + "|" + field.getName();
-			}
+			return createLinkKey(LinkKey.Kind.FIELD, field.getDeclaringType(), field.getName(), null);
 		}
-		return uniqueStr;
+		return null;
 	}
 
-	private String getPathAndTypeStr(TypeReference typeRef) {
+	private LinkKey createLinkKey(LinkKey.Kind kind, TypeReference typeRef, String memberName, String signature) {
 		String name = typeRef.getName();
 		String packageStr = typeRef.getPackageName();
 		TypeReference mostOuterTypeRef = getMostOuterTypeRef(typeRef);
 		String mostOuterTypeName = mostOuterTypeRef.getName();
 		if (name != null && packageStr != null && mostOuterTypeName != null && name.trim().length() > 0
 				&& mostOuterTypeName.trim().length() > 0) {
-			String pathStr = packageStr.replaceAll("\\.", "/") + "/" + mostOuterTypeName;
+			String pathStr = packageStr.replace('.', '/') + "/" + mostOuterTypeName;
 			String typeStr = packageStr + "." + name.replace(".", "$");
-			return pathStr + "|" + typeStr;
+			return LinkKey.create(kind, pathStr, typeStr, memberName, signature);
 		}
 		return null;
 	}
@@ -178,6 +201,34 @@ public class DecompilerLinkProvider implements LinkProvider {
 		return typeRef;
 	}
 
+	/**
+	 * Takes the content from a cache entry instead of generating it
+	 */
+	public void setCachedContent(String cacheKey, DecompilationCache.Entry cached) {
+		currentTypeQualifiedName = type.getPackageName() + "." + type.getName();
+		linkIndex = cached.getLinkIndex();
+		textContent = cached.getTextContent();
+		isLinkIndexPopulated = true;
+		this.cacheKey = cacheKey;
+	}
+
+	/**
+	 * @param cacheKey
+	 *            key of the type with the settings, when the caller hashed
+	 *            the class already
+	 */
+	public void setCacheKey(String cacheKey) {
+		this.cacheKey = cacheKey;
+	}
+
+	/**
+	 * @return key of the generated content in the caches, null if no cache
+	 *         was used
+	 */
+	public String getCacheKey() {
+		return cacheKey;
+	}
+
 	@Override
 	public String getTextContent() {
 		return textContent;
@@ -188,28 +239,27 @@ public class DecompilerLinkProvider implements LinkProvider {
 	}
 
 	@Override
-	public Map<String, Selection> getDefinitionToSelectionMap() {
-		return definitionToSelectionMap;
+	public LinkIndex getLinkIndex() {
+		return linkIndex;
 	}
 
 	@Override
-	public Map<String, Set<Selection>> getReferenceToSelectionsMap() {
-		return referenceToSelectionsMap;
-	}
-
-	@Override
-	public boolean isLinkNavigable(String uniqueStr) {
-		if (isSelectionMapsPopulated && definitionToSelectionMap.containsKey(uniqueStr))
+	public boolean isLinkNavigable(LinkKey linkKey) {
+		if (isLinkIndexPopulated && linkIndex.isDefined(linkKey))
 			return true;
-		if (uniqueStr == null)
-			return false;
-		String[] linkParts = uniqueStr.split("\\|");
-		if (linkParts.length < 3)
+		if (linkKey == null)
 			return false;
-		String typeStr = linkParts[2];
+		String typeStr = linkKey.getTypeName();
 		if (typeStr.trim().length() <= 0)
 			return false;
-		TypeReference typeRef = metadataSystem.lookupType(typeStr.replaceAll("\\.", "/"));
+		synchronized (metadataSystem) {
+			return isMemberNavigable(linkKey, typeStr);
+		}
+	}
+
+	// call in synchronized (metadataSystem)
+	private boolean isMemberNavigable(LinkKey linkKey, String typeStr) {
+		TypeReference typeRef = metadataSystem.lookupType(typeStr.replace('.', '/'));
 		if (typeRef == null)
 			return false;
 		TypeDefinition typeDef = typeRef.resolve();
@@ -218,7 +268,7 @@ public class DecompilerLinkProvider implements LinkProvider {
 		if (typeDef.isSynthetic())
 			return false;
 
-		if (isSelectionMapsPopulated) {
+		if (isLinkIndexPopulated) {
 			// current type's navigable definitions checked already, now it's erroneous
 			if (currentTypeQualifiedName == null || currentTypeQualifiedName.trim().length() <= 0)
 				return false;
@@ -228,25 +278,23 @@ public class DecompilerLinkProvider implements LinkProvider {
 		}
 
 		// check linked field/method exists
-		if (uniqueStr.startsWith("method")) {
-			if (findMethodInType(typeDef, uniqueStr) == null) {
+		if (linkKey.getKind() == LinkKey.Kind.METHOD) {
+			if (findMethodInType(typeDef, linkKey) == null) {
 				return false;
 			}
-		} else if (uniqueStr.startsWith("field")) {
-			if (findFieldInType(typeDef, uniqueStr) == null) {
+		} else if (linkKey.getKind() == LinkKey.Kind.FIELD) {
+			if (findFieldInType(typeDef, linkKey) == null) {
 				return false;
 			}
 		}
 		return true;
 	}
 
-	private MethodDefinition findMethodInType(TypeDefinition typeDef, String uniqueStr) {
-		String[] linkParts = uniqueStr.split("\\|");
-		if (linkParts.length != 5)
-			return null;
-		String methodName = linkParts[3];
-		String methodErasedSignature = linkParts[4];
-		if (methodName.trim().length() <= 0 || methodErasedSignature.trim().length() <= 0)
+	private MethodDefinition findMethodInType(TypeDefinition typeDef, LinkKey linkKey) {
+		String methodName = linkKey.getName();
+		String methodErasedSignature = linkKey.getSignature();
+		if (methodName == null || methodErasedSignature == null || methodName.trim().length() <= 0
+				|| methodErasedSignature.trim().length() <= 0)
 			return null;
 		List<MethodDefinition> declaredMethods = typeDef.getDeclaredMethods();
 		if (declaredMethods == null)
@@ -266,12 +314,9 @@ public class DecompilerLinkProvider implements LinkProvider {
 		return null;
 	}
 
-	private FieldDefinition findFieldInType(TypeDefinition typeDef, String uniqueStr) {
-		String[] linkParts = uniqueStr.split("\\|");
-		if (linkParts.length != 4)
-			return null;
-		String fieldName = linkParts[3];
-		if (fieldName.trim().length() <= 0)
+	private FieldDefinition findFieldInType(TypeDefinition typeDef, LinkKey linkKey) {
+		String fieldName = linkKey.getName();
+		if (fieldName == null || fieldName.trim().length() <= 0)
 			return null;
 		List<FieldDefinition> declaredFields = typeDef.getDeclaredFields();
 		if (declaredFields == null)
@@ -291,16 +336,20 @@ public class DecompilerLinkProvider implements LinkProvider {
 	}
 
 	@Override
-	public String getLinkDescription(String uniqueStr) {
+	public String getLinkDescription(LinkKey linkKey) {
+		synchronized (metadataSystem) {
+			return createLinkDescription(linkKey);
+		}
+	}
+
+	// call in synchronized (metadataSystem)
+	private String createLinkDescription(LinkKey linkKey) {
 		String readableLink = null;
 		try {
-			if (uniqueStr == null)
+			if (linkKey == null)
 				return null;
-			String[] linkParts = uniqueStr.split("\\|");
-			if (linkParts.length < 3)
-				return null;
-			String typeStr = linkParts[2];
-			TypeReference typeRef = metadataSystem.lookupType(typeStr.replaceAll("\\.", "/"));
+			String typeStr = linkKey.getTypeName();
+			TypeReference typeRef = metadataSystem.lookupType(typeStr.replace('.', '/'));
 			if (typeRef == null)
 				return null;
 			TypeDefinition typeDef = typeRef.resolve();
@@ -308,19 +357,19 @@ public class DecompilerLinkProvider implements LinkProvider {
 				return null;
 
 			String declaredSuffix = "";
-			String mostOuterTypeStr = linkParts[1].replaceAll("/", ".");
+			String mostOuterTypeStr = linkKey.getOuterPath().replace('/', '.');
 			boolean isOwnFile = mostOuterTypeStr.equals(currentTypeQualifiedName);
 			if (!isOwnFile) {
 				declaredSuffix = " - Declared: " + mostOuterTypeStr;
 			}
 
-			if (uniqueStr.startsWith("type")) {
+			if (linkKey.getKind() == LinkKey.Kind.TYPE) {
 				String desc = typeDef.getBriefDescription();
 				if (desc != null && desc.trim().length() > 0) {
 					readableLink = desc;
 				}
-			} else if (uniqueStr.startsWith("method")) {
-				MethodDefinition methodDef = findMethodInType(typeDef, uniqueStr);
+			} else if (linkKey.getKind() == LinkKey.Kind.METHOD) {
+				MethodDefinition methodDef = findMethodInType(typeDef, linkKey);
 				if (methodDef == null)
 					return null;
 				String desc = methodDef.getBriefDescription();
@@ -345,8 +394,8 @@ public class DecompilerLinkProvider implements LinkProvider {
 						readableLink = erasePackageInfoFromDesc(desc) + declaredSuffix;
 					}
 				}
-			} else if (uniqueStr.startsWith("field")) {
-				FieldDefinition fieldDef = findFieldInType(typeDef, uniqueStr);
+			} else if (linkKey.getKind() == LinkKey.Kind.FIELD) {
+				FieldDefinition fieldDef = findFieldInType(typeDef, linkKey);
 				if (fieldDef == null)
 					return null;
 				String desc = fieldDef.getBriefDescription();
@@ -359,8 +408,9 @@ public class DecompilerLinkProvider implements LinkProvider {
 				readableLink = readableLink.replace("$", ".");
 			}
 		} catch (Exception e) {
+			// asked on a worker, no dialog for a link
 			readableLink = null;
-			Luyten.showExceptionDialog("Exception!", e);
+			System.out.println("[Links]: Cannot describe " + linkKey + ": " + e);
 		}
 		return readableLink;
 	}
@@ -371,13 +421,40 @@ public class DecompilerLinkProvider implements LinkProvider {
 		return desc;
 	}
 
-	public void setDecompilerReferences(MetadataSystem metadataSystem, DecompilerSettings settings,
-			DecompilationOptions decompilationOptions) {
+	public void setDecompilerReferences(MetadataSystem metadataSystem, ITypeLoader typeLoader,
+			DecompilerSettings settings, DecompilationOptions decompilationOptions) {
 		this.metadataSystem = metadataSystem;
+		this.typeLoader = typeLoader;
 		this.settings = settings;
 		this.decompilationOptions = decompilationOptions;
 	}
 
+	/**
+	 * @param cache
+	 *            where generated content is looked up and stored, null: no
+	 *            caching
+	 */
+	public void setDecompilationCache(DecompilationCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @param memoryCache
+	 *            looked up before the cache on disk, null: not used
+	 */
+	public void setMemoryCache(MemoryDecompilationCache memoryCache) {
+		this.memoryCache = memoryCache;
+	}
+
+	/**
+	 * @param outputWriter
+	 *            where the source is written while it is generated, it must
+	 *            be empty; null: a new StringWriter
+	 */
+	public void setOutputWriter(StringWriter outputWriter) {
+		this.outputWriter = outputWriter;
+	}
+
 	public void setType(TypeDefinition type) {
 		this.type = type;
 	}
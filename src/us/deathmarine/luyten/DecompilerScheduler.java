@@ -0,0 +1,366 @@
+package us.deathmarine.luyten;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the decompiler work of the GUI on a bounded pool of worker threads.
+ * Queued jobs run by priority, then in the order they were submitted. A job
+ * belongs to a tag (a tab, a model...) and is cancelled with it: a queued job
+ * is dropped, a running job keeps running but can see that it was cancelled
+ * with isCurrentJobCancelled() and should then not show its result.
+ */
+public class DecompilerScheduler {
+
+	public enum Priority {
+		/** what the user is waiting for: the selected tab, navigation */
+		FOREGROUND,
+		/** hyperlinks of a decompiled tab */
+		LINKS,
+		PREFETCH,
+		WARMUP
+	}
+
+	private static final int MIN_THREAD_COUNT = 2;
+
+	private static volatile DecompilerScheduler theInstance;
+	private static final ThreadLocal<Job> currentJob = new ThreadLocal<>();
+
+	private final class Job extends FutureTask<Void> implements Comparable<Job> {
+		final Priority priority;
+		final Object tag;
+		final long sequence;
+		final long epoch;
+		final boolean isSettingsDependent;
+		final long submitTime = System.nanoTime();
+		// a started job is counted until its run() ends, also when cancelled
+		volatile boolean isStarted;
+		private final AtomicBoolean isFinished = new AtomicBoolean();
+
+		Job(Priority priority, Object tag, long sequence, long epoch, boolean isSettingsDependent, Runnable runnable) {
+			super(runnable, null);
+			this.priority = priority;
+			this.tag = tag;
+			this.sequence = sequence;
+			this.epoch = epoch;
+			this.isSettingsDependent = isSettingsDependent;
+		}
+
+		@Override
+		public void run() {
+			if (isDone())
+				return;
+			int ordinal = priority.ordinal();
+			long startTime = System.nanoTime();
+			addLatency(waitNanos, maxWaitNanos, ordinal, startTime - submitTime);
+			isStarted = true;
+			currentJob.set(this);
+			try {
+				super.run();
+			} finally {
+				currentJob.remove();
+				addLatency(runNanos, maxRunNanos, ordinal, System.nanoTime() - startTime);
+				completedCount[ordinal].incrementAndGet();
+				finish();
+			}
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled())
+				cancelledCount[priority.ordinal()].incrementAndGet();
+			// cancelled before it ran, else run() finishes it
+			if (!isStarted)
+				finish();
+		}
+
+		// once per job, by done() or by run()
+		private void finish() {
+			if (!isFinished.compareAndSet(false, true))
+				return;
+			synchronized (jobs) {
+				jobs.remove(this);
+			}
+			activeCount[priority.ordinal()].decrementAndGet();
+			executeIdleJobs();
+		}
+
+		@Override
+		protected void setException(Throwable t) {
+			super.setException(t);
+			Luyten.showExceptionDialog("Exception!", t instanceof Exception ? (Exception) t : new Exception(t));
+		}
+
+		@Override
+		public int compareTo(Job other) {
+			if (priority != other.priority)
+				return priority.compareTo(other.priority);
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+	private final ThreadPoolExecutor pool;
+	// queued and running jobs, in submit order
+	private final Set<Job> jobs = new LinkedHashSet<>();
+	// jobs waiting for the more urgent work to be done, see submitWhenIdle
+	private final List<Job> idleJobs = new ArrayList<>();
+	private final AtomicLong sequence = new AtomicLong();
+	private final AtomicLong epoch = new AtomicLong();
+
+	private final AtomicLong[] submittedCount = newCounters();
+	// queued, or running until the job's run() ends
+	private final AtomicLong[] activeCount = newCounters();
+	private final AtomicLong[] completedCount = newCounters();
+	private final AtomicLong[] cancelledCount = newCounters();
+	private final AtomicLong[] waitNanos = newCounters();
+	private final AtomicLong[] maxWaitNanos = newCounters();
+	private final AtomicLong[] runNanos = newCounters();
+	private final AtomicLong[] maxRunNanos = newCounters();
+
+	public DecompilerScheduler(int threadCount) {
+		threadCount = getPoolSize(threadCount);
+		pool = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), new WorkerThreadFactory("Decompiler"));
+	}
+
+	public static DecompilerScheduler getDefault() {
+		if (theInstance == null) {
+			synchronized (DecompilerScheduler.class) {
+				if (theInstance == null) {
+					theInstance = new DecompilerScheduler(
+							ConfigSaver.getLoadedInstance().getLuytenPreferences().getDecompilerThreadCount());
+				}
+			}
+		}
+		return theInstance;
+	}
+
+	/**
+	 * Submits a job whose work does not depend on the decompiler settings
+	 *
+	 * @param tag
+	 *            cancels the job together with the other jobs of the tag, may
+	 *            be null
+	 */
+	public void submit(Priority priority, Object tag, Runnable runnable) {
+		submit(priority, tag, false, runnable);
+	}
+
+	/**
+	 * @param isSettingsDependent
+	 *            the job decompiles with the current settings and is cancelled
+	 *            when they change, see cancelSettingsDependent
+	 */
+	public void submit(Priority priority, Object tag, boolean isSettingsDependent, Runnable runnable) {
+		Job job = new Job(priority, tag, sequence.incrementAndGet(), epoch.get(), isSettingsDependent, runnable);
+		synchronized (jobs) {
+			jobs.add(job);
+		}
+		submittedCount[priority.ordinal()].incrementAndGet();
+		activeCount[priority.ordinal()].incrementAndGet();
+		// prefetching is only worth it while the user waits for nothing
+		if (priority == Priority.FOREGROUND)
+			cancel(Priority.PREFETCH);
+		pool.execute(job);
+	}
+
+	/**
+	 * Like submit, but the job is only queued once no jobs of a more urgent
+	 * priority are queued or running, instead of polling for it
+	 */
+	public void submitWhenIdle(Priority priority, Object tag, boolean isSettingsDependent, Runnable runnable) {
+		Job job = new Job(priority, tag, sequence.incrementAndGet(), epoch.get(), isSettingsDependent, runnable);
+		synchronized (jobs) {
+			jobs.add(job);
+		}
+		submittedCount[priority.ordinal()].incrementAndGet();
+		activeCount[priority.ordinal()].incrementAndGet();
+		synchronized (idleJobs) {
+			idleJobs.add(job);
+		}
+		executeIdleJobs();
+	}
+
+	// called whenever a job is done
+	private void executeIdleJobs() {
+		List<Job> idle = new ArrayList<>();
+		synchronized (idleJobs) {
+			for (Iterator<Job> it = idleJobs.iterator(); it.hasNext();) {
+				Job job = it.next();
+				if (job.priority.ordinal() == 0 || !hasActiveJobs(Priority.values()[job.priority.ordinal() - 1])) {
+					it.remove();
+					idle.add(job);
+				}
+			}
+		}
+		for (Job job : idle) {
+			pool.execute(job);
+		}
+	}
+
+	/**
+	 * Cancels the queued and running jobs of the tag
+	 */
+	public void cancel(Object tag) {
+		cancel(tag, null);
+	}
+
+	/**
+	 * @param priority
+	 *            only the jobs of this priority, null: all of them
+	 */
+	public void cancel(Object tag, Priority priority) {
+		for (Job job : getJobs()) {
+			if (job.tag != null && job.tag == tag && (priority == null || job.priority == priority))
+				cancel(job);
+		}
+	}
+
+	/**
+	 * Cancels the queued and running jobs of the priority
+	 */
+	public void cancel(Priority priority) {
+		for (Job job : getJobs()) {
+			if (job.priority == priority)
+				cancel(job);
+		}
+	}
+
+	/**
+	 * Cancels the settings dependent jobs submitted until now, for when the
+	 * settings have changed. Opening the tree, resources and hex views goes
+	 * on. The job calling this is not cancelled.
+	 */
+	public void cancelSettingsDependent() {
+		long oldEpoch = epoch.getAndIncrement();
+		for (Job job : getJobs()) {
+			if (job.isSettingsDependent && job.epoch <= oldEpoch && job != currentJob.get())
+				cancel(job);
+		}
+	}
+
+	private void cancel(Job job) {
+		synchronized (idleJobs) {
+			idleJobs.remove(job);
+		}
+		job.cancel(false);
+		pool.remove(job);
+	}
+
+	private List<Job> getJobs() {
+		synchronized (jobs) {
+			return new ArrayList<>(jobs);
+		}
+	}
+
+	/**
+	 * @return true when the job running on this thread was cancelled
+	 */
+	public static boolean isCurrentJobCancelled() {
+		Job job = currentJob.get();
+		return job != null && job.isCancelled();
+	}
+
+	/**
+	 * @return true while jobs of the priority or of a more urgent one are
+	 *         queued or running
+	 */
+	public boolean hasActiveJobs(Priority priority) {
+		for (int i = 0; i <= priority.ordinal(); i++) {
+			if (activeCount[i].get() > 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true while jobs of the tag are queued or running, a cancelled
+	 *         job until its run() ends
+	 */
+	public boolean hasJobs(Object tag) {
+		for (Job job : getJobs()) {
+			if (job.tag != null && job.tag == tag)
+				return true;
+		}
+		return false;
+	}
+
+	public void setThreadCount(int threadCount) {
+		threadCount = getPoolSize(threadCount);
+		if (threadCount > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(threadCount);
+			pool.setCorePoolSize(threadCount);
+		} else {
+			pool.setCorePoolSize(threadCount);
+			pool.setMaximumPoolSize(threadCount);
+		}
+	}
+
+	public int getThreadCount() {
+		return pool.getMaximumPoolSize();
+	}
+
+	public int getQueueDepth() {
+		return pool.getQueue().size();
+	}
+
+	public int getRunningCount() {
+		return pool.getActiveCount();
+	}
+
+	public String getStatistics() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Threads: " + getThreadCount() + "\n");
+		sb.append("Running: " + getRunningCount() + "\n");
+		sb.append("Queued: " + getQueueDepth() + "\n");
+		for (Priority priority : Priority.values()) {
+			int i = priority.ordinal();
+			long completed = completedCount[i].get();
+			sb.append("\n" + priority + "\n");
+			sb.append("  Submitted: " + submittedCount[i].get() + "\n");
+			sb.append("  Completed: " + completed + "\n");
+			sb.append("  Cancelled: " + cancelledCount[i].get() + "\n");
+			if (completed > 0) {
+				sb.append("  Wait: " + toMillis(waitNanos[i].get() / completed) + " ms average, "
+						+ toMillis(maxWaitNanos[i].get()) + " ms max\n");
+				sb.append("  Run: " + toMillis(runNanos[i].get() / completed) + " ms average, "
+						+ toMillis(maxRunNanos[i].get()) + " ms max\n");
+			}
+		}
+		return sb.toString();
+	}
+
+	private static int getPoolSize(int threadCount) {
+		if (threadCount <= 0)
+			threadCount = Runtime.getRuntime().availableProcessors();
+		return Math.max(threadCount, MIN_THREAD_COUNT);
+	}
+
+	private static void addLatency(AtomicLong[] total, AtomicLong[] max, int ordinal, long nanos) {
+		total[ordinal].addAndGet(nanos);
+		long oldMax;
+		while ((oldMax = max[ordinal].get()) < nanos && !max[ordinal].compareAndSet(oldMax, nanos)) {
+		}
+	}
+
+	private static long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	private static AtomicLong[] newCounters() {
+		AtomicLong[] counters = new AtomicLong[Priority.values().length];
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = new AtomicLong();
+		}
+		return counters;
+	}
+}
@@ -0,0 +1,135 @@
+package us.deathmarine.luyten;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
+
+/**
+ * A StringWriter which also shows what is written in a text area, so a long
+ * source can be read while the decompiler still writes it. The text is
+ * handed to the EDT in batches; the first batch replaces the text area's
+ * content, the others are appended.
+ */
+public class DocumentStreamWriter extends StringWriter {
+
+	private static final int BATCH_LENGTH = 16 * 1024;
+	private static final long BATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final RSyntaxTextArea textArea;
+	// writer thread only
+	private int streamedLength;
+	private long lastBatchTime = System.nanoTime();
+	private boolean isStreamed;
+	// EDT only
+	private boolean isFirstBatchShown;
+	private volatile boolean isCancelled;
+
+	public DocumentStreamWriter(RSyntaxTextArea textArea) {
+		this.textArea = textArea;
+	}
+
+	@Override
+	public void write(int c) {
+		super.write(c);
+		checkBatch();
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		super.write(cbuf, off, len);
+		checkBatch();
+	}
+
+	@Override
+	public void write(String str) {
+		super.write(str);
+		checkBatch();
+	}
+
+	@Override
+	public void write(String str, int off, int len) {
+		super.write(str, off, len);
+		checkBatch();
+	}
+
+	private void checkBatch() {
+		int pendingLength = getBuffer().length() - streamedLength;
+		if (pendingLength >= BATCH_LENGTH || (pendingLength > 0 && System.nanoTime() - lastBatchTime >= BATCH_NANOS))
+			showBatch();
+	}
+
+	private void showBatch() {
+		// a cancelled job's text would only be thrown away
+		if (isCancelled || DecompilerScheduler.isCurrentJobCancelled()) {
+			isCancelled = true;
+			return;
+		}
+		StringBuffer buffer = getBuffer();
+		int length = buffer.length();
+		if (length == streamedLength)
+			return;
+		final String batch = buffer.substring(streamedLength, length);
+		streamedLength = length;
+		lastBatchTime = System.nanoTime();
+		isStreamed = true;
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				append(batch);
+			}
+		});
+	}
+
+	private void append(String batch) {
+		if (isCancelled)
+			return;
+		if (!isFirstBatchShown) {
+			isFirstBatchShown = true;
+			textArea.setText(batch);
+			textArea.setCaretPosition(0);
+			return;
+		}
+		// text appended at the caret would move it, and the view with it
+		int caretPosition = textArea.getCaretPosition();
+		boolean isCaretAtEnd = caretPosition == textArea.getDocument().getLength();
+		textArea.append(batch);
+		if (isCaretAtEnd)
+			textArea.setCaretPosition(caretPosition);
+	}
+
+	/**
+	 * Shows the rest of the text, then runs whenShown on the EDT
+	 *
+	 * @param whenShown
+	 *            may be null
+	 */
+	public void finish(final Runnable whenShown) {
+		showBatch();
+		if (whenShown != null) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					if (!isCancelled)
+						whenShown.run();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Stops showing the text, the batches not yet shown are dropped
+	 */
+	public void cancel() {
+		isCancelled = true;
+	}
+
+	/**
+	 * @return true if some of the text was handed to the text area
+	 */
+	public boolean isStreamed() {
+		return isStreamed;
+	}
+}
@@ -0,0 +1,140 @@
+package us.deathmarine.luyten;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreeNode;
+import javax.swing.tree.TreePath;
+
+/**
+ * Structure tree of a jar kept as arrays: every node is an index, children
+ * of a node are stored next to each other. Tree nodes are only created for
+ * the children of expanded nodes and can be released again when their
+ * parent is collapsed.
+ */
+public class EntryTreeModel extends DefaultTreeModel {
+	private static final long serialVersionUID = 2811379316539574052L;
+
+	private final String[] names;
+	// null where the display name is the original name
+	private final String[] displayNames;
+	private final int[] firstChild;
+	private final int[] childCount;
+
+	/**
+	 * @param names
+	 *            original names by node index, node 0 is the root
+	 * @param firstChild
+	 *            index of the first child of each node, the children of a
+	 *            node have consecutive indexes
+	 */
+	EntryTreeModel(String[] names, String[] displayNames, int[] firstChild, int[] childCount) {
+		super(null);
+		this.names = names;
+		this.displayNames = displayNames;
+		this.firstChild = firstChild;
+		this.childCount = childCount;
+		setRoot(new EntryNode(null, 0));
+	}
+
+	public int getNodeCount() {
+		return names.length;
+	}
+
+	/**
+	 * Drops the tree nodes below a collapsed path, they are created again
+	 * when the path is expanded
+	 */
+	public void releaseChildren(TreePath path) {
+		Object node = path.getLastPathComponent();
+		if (node instanceof EntryNode && ((EntryNode) node).childNodes != null) {
+			((EntryNode) node).childNodes = null;
+			// the tree's layout cache holds the children until told
+			nodeStructureChanged((EntryNode) node);
+		}
+	}
+
+	/**
+	 * Tree node of one index. Nodes of the same index are equal, so paths
+	 * stay valid after their nodes were released and created again.
+	 */
+	private final class EntryNode extends DefaultMutableTreeNode {
+		private static final long serialVersionUID = -3102768563493452406L;
+
+		private final int index;
+		// not DefaultMutableTreeNode.children, which stays null
+		private EntryNode[] childNodes;
+
+		EntryNode(EntryNode parent, int index) {
+			super(new TreeNodeUserObject(names[index],
+					displayNames[index] != null ? displayNames[index] : names[index]));
+			this.index = index;
+			setParent(parent);
+		}
+
+		private EntryNode[] getChildren() {
+			if (childNodes == null) {
+				EntryNode[] newChildren = new EntryNode[childCount[index]];
+				for (int i = 0; i < newChildren.length; i++) {
+					newChildren[i] = new EntryNode(this, firstChild[index] + i);
+				}
+				childNodes = newChildren;
+			}
+			return childNodes;
+		}
+
+		@Override
+		public int getChildCount() {
+			return childCount[index];
+		}
+
+		@Override
+		public TreeNode getChildAt(int childIndex) {
+			if (childIndex < 0 || childIndex >= childCount[index])
+				throw new ArrayIndexOutOfBoundsException("node has no child at index " + childIndex);
+			return getChildren()[childIndex];
+		}
+
+		@Override
+		public int getIndex(TreeNode node) {
+			if (!(node instanceof EntryNode) || ((EntryNode) node).getModel() != getModel())
+				return -1;
+			int childIndex = ((EntryNode) node).index - firstChild[index];
+			return (childIndex >= 0 && childIndex < childCount[index]) ? childIndex : -1;
+		}
+
+		@Override
+		public boolean isLeaf() {
+			return childCount[index] == 0;
+		}
+
+		@Override
+		public Enumeration<TreeNode> children() {
+			if (childCount[index] == 0)
+				return Collections.enumeration(Collections.<TreeNode> emptyList());
+			return Collections.enumeration(Arrays.<TreeNode> asList(getChildren()));
+		}
+
+		private EntryTreeModel getModel() {
+			return EntryTreeModel.this;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof EntryNode))
+				return false;
+			EntryNode other = (EntryNode) obj;
+			return index == other.index && getModel() == other.getModel();
+		}
+
+		@Override
+		public int hashCode() {
+			return index;
+		}
+	}
+}
@@ -9,17 +9,7 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.InputStream;
 import java.io.OutputStreamWriter;
-import java.io.StringWriter;
-import java.io.Writer;
-import java.util.Enumeration;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.zip.ZipException;
 import java.util.zip.ZipOutputStream;
 
 import javax.swing.JLabel;
@@ -28,16 +18,11 @@ import javax.swing.JPopupMenu;
 import javax.swing.JProgressBar;
 import javax.swing.SwingUtilities;
 
-import com.strobel.assembler.metadata.ITypeLoader;
-import com.strobel.assembler.metadata.JarTypeLoader;
 import com.strobel.assembler.metadata.MetadataSystem;
 import com.strobel.assembler.metadata.TypeDefinition;
 import com.strobel.assembler.metadata.TypeReference;
-import com.strobel.core.StringUtilities;
 import com.strobel.decompiler.DecompilationOptions;
 import com.strobel.decompiler.DecompilerSettings;
-import com.strobel.decompiler.PlainTextOutput;
-import com.strobel.decompiler.languages.java.JavaFormattingOptions;
 
 /**
  * Performs Save and Save All
@@ -46,8 +31,9 @@ public class FileSaver {
 
 	private JProgressBar bar;
 	private JLabel label;
-	private boolean cancel;
+	private volatile boolean cancel;
 	private boolean extracting;
+	private volatile JarDecompiler jarDecompiler;
 
 	public FileSaver(JProgressBar bar, JLabel label) {
 		this.bar = bar;
@@ -73,7 +59,7 @@ public class FileSaver {
 		new Thread(new Runnable() {
 			@Override
 			public void run() {
-				DecompilerSettings settings = cloneSettings();
+				DecompilerSettings settings = ConfigSaver.getLoadedInstance().getDecompilerSettingsSnapshot();
 				boolean isUnicodeEnabled = settings.isUnicodeOutputEnabled();
 				long time = System.currentTimeMillis();
 				try (FileOutputStream fos = new FileOutputStream(file);
@@ -133,108 +119,51 @@ public class FileSaver {
 		}).start();
 	}
 
-	private void doSaveJarDecompiled(File inFile, File outFile) throws Exception {
-		try (JarFile jfile = new JarFile(inFile);
-				FileOutputStream dest = new FileOutputStream(outFile);
-				BufferedOutputStream buffDest = new BufferedOutputStream(dest);
-				ZipOutputStream out = new ZipOutputStream(buffDest);) {
-			bar.setMinimum(0);
-			bar.setMaximum(jfile.size());
-			byte data[] = new byte[1024];
-			DecompilerSettings settings = cloneSettings();
-			LuytenTypeLoader typeLoader = new LuytenTypeLoader();
-			MetadataSystem metadataSystem = new MetadataSystem(typeLoader);
-			ITypeLoader jarLoader = new JarTypeLoader(jfile);
-			typeLoader.getTypeLoaders().add(jarLoader);
-
-			DecompilationOptions decompilationOptions = new DecompilationOptions();
-			decompilationOptions.setSettings(settings);
-			decompilationOptions.setFullDecompilation(true);
-
-			List<String> mass = null;
-			JarEntryFilter jarEntryFilter = new JarEntryFilter(jfile);
-			LuytenPreferences luytenPrefs = ConfigSaver.getLoadedInstance().getLuytenPreferences();
-			if (luytenPrefs.isFilterOutInnerClassEntries()) {
-				mass = jarEntryFilter.getEntriesWithoutInnerClasses();
-			} else {
-				mass = jarEntryFilter.getAllEntriesFromJar();
+	private void doSaveJarDecompiled(File inFile, final File outFile) throws Exception {
+		ConfigSaver configSaver = ConfigSaver.getLoadedInstance();
+		LuytenPreferences luytenPrefs = configSaver.getLuytenPreferences();
+		JarDecompiler decompiler = new JarDecompiler(inFile, configSaver.getDecompilerSettingsSnapshot(),
+				luytenPrefs.isFilterOutInnerClassEntries(), luytenPrefs.getDecompilerThreadCount(),
+				JrtTypeLoader.getDefault());
+		decompiler.setListener(new JarDecompiler.Listener() {
+			@Override
+			public void onStart(int entryCount) {
+				bar.setMinimum(0);
+				bar.setMaximum(entryCount);
 			}
 
-			Enumeration<JarEntry> ent = jfile.entries();
-			Set<String> history = new HashSet<String>();
-			int tick = 0;
-			while (ent.hasMoreElements() && !cancel) {
-				bar.setValue(++tick);
-				JarEntry entry = ent.nextElement();
-				if (!mass.contains(entry.getName()))
-					continue;
-				label.setText("Extracting: " + entry.getName());
+			@Override
+			public void onEntry(String entryName, int tick) {
+				bar.setValue(tick);
+				label.setText("Extracting: " + entryName);
 				bar.setVisible(true);
-				if (entry.getName().endsWith(".class")) {
-					JarEntry etn = new JarEntry(entry.getName().replace(".class", ".java"));
-					label.setText("Extracting: " + etn.getName());
-					System.out.println("[SaveAll]: " + etn.getName() + " -> " + outFile.getName());
+				if (entryName.endsWith(".java"))
+					System.out.println("[SaveAll]: " + entryName + " -> " + outFile.getName());
+			}
 
-					if (history.add(etn.getName())) {
-						out.putNextEntry(etn);
-						try {
-							boolean isUnicodeEnabled = decompilationOptions.getSettings().isUnicodeOutputEnabled();
-							String internalName = StringUtilities.removeRight(entry.getName(), ".class");
-							TypeReference type = metadataSystem.lookupType(internalName);
-							TypeDefinition resolvedType = null;
-							if ((type == null) || ((resolvedType = type.resolve()) == null)) {
-								throw new Exception("Unable to resolve type.");
-							}
-							Writer writer = isUnicodeEnabled ? new OutputStreamWriter(out, "UTF-8")
-									: new OutputStreamWriter(out);
-							PlainTextOutput plainTextOutput = new PlainTextOutput(writer);
-							plainTextOutput.setUnicodeOutputEnabled(isUnicodeEnabled);
-							settings.getLanguage().decompileType(resolvedType, plainTextOutput, decompilationOptions);
-							writer.flush();
-						} catch (Exception e) {
-							label.setText("Cannot decompile file: " + entry.getName());
-							Luyten.showExceptionDialog("Unable to Decompile file!\nSkipping file...", e);
-						} finally {
-							out.closeEntry();
-						}
-					}
-				} else {
-					try {
-						JarEntry etn = new JarEntry(entry.getName());
-						if (entry.getName().endsWith(".java"))
-							etn = new JarEntry(entry.getName().replace(".java", ".src.java"));
-						if (history.add(etn.getName())) {
-							out.putNextEntry(etn);
-							try {
-								InputStream in = jfile.getInputStream(etn);
-								if (in != null) {
-									try {
-										int count;
-										while ((count = in.read(data, 0, 1024)) != -1) {
-											out.write(data, 0, count);
-										}
-									} finally {
-										in.close();
-									}
-								}
-							} finally {
-								out.closeEntry();
-							}
-						}
-					} catch (ZipException ze) {
-						if (!ze.getMessage().contains("duplicate")) {
-							throw ze;
-						}
-					}
-				}
+			@Override
+			public void onDecompileFailed(String entryName, Exception e) {
+				label.setText("Cannot decompile file: " + entryName);
+				Luyten.showExceptionDialog("Unable to Decompile file!\nSkipping file...", e);
 			}
+		});
+		decompiler.setDecompilationCache(DecompilationCache.getDefault());
+		jarDecompiler = decompiler;
+		try (FileOutputStream dest = new FileOutputStream(outFile);
+				BufferedOutputStream buffDest = new BufferedOutputStream(dest);
+				ZipOutputStream out = new ZipOutputStream(buffDest);) {
+			if (cancel)
+				decompiler.cancel();
+			decompiler.decompileTo(out);
+		} finally {
+			jarDecompiler = null;
 		}
 	}
 
 	private void doSaveClassDecompiled(File inFile, File outFile) throws Exception {
-		DecompilerSettings settings = cloneSettings();
-		LuytenTypeLoader typeLoader = new LuytenTypeLoader();
-		MetadataSystem metadataSystem = new MetadataSystem(typeLoader);
+		DecompilerSettings settings = ConfigSaver.getLoadedInstance().getDecompilerSettingsSnapshot();
+		LuytenTypeLoader typeLoader = new LuytenTypeLoader(JrtTypeLoader.getDefault());
+		MetadataSystem metadataSystem = new LuytenMetadataSystem(typeLoader);
 		TypeReference type = metadataSystem.lookupType(inFile.getCanonicalPath());
 
 		DecompilationOptions decompilationOptions = new DecompilationOptions();
@@ -246,11 +175,8 @@ public class FileSaver {
 		if (type == null || ((resolvedType = type.resolve()) == null)) {
 			throw new Exception("Unable to resolve type.");
 		}
-		StringWriter stringwriter = new StringWriter();
-		PlainTextOutput plainTextOutput = new PlainTextOutput(stringwriter);
-		plainTextOutput.setUnicodeOutputEnabled(isUnicodeEnabled);
-		settings.getLanguage().decompileType(resolvedType, plainTextOutput, decompilationOptions);
-		String decompiledSource = stringwriter.toString();
+		String decompiledSource = DecompilerContext.decompile(resolvedType, metadataSystem, typeLoader,
+				decompilationOptions, DecompilationCache.getDefault());
 
 		System.out.println("[SaveAll]: " + inFile.getName() + " -> " + outFile.getName());
 		try (FileOutputStream fos = new FileOutputStream(outFile);
@@ -274,41 +200,15 @@ public class FileSaver {
 		}
 	}
 
-	private DecompilerSettings cloneSettings() {
-		DecompilerSettings settings = ConfigSaver.getLoadedInstance().getDecompilerSettings();
-		DecompilerSettings newSettings = new DecompilerSettings();
-		if (newSettings.getJavaFormattingOptions() == null) {
-			newSettings.setJavaFormattingOptions(JavaFormattingOptions.createDefault());
-		}
-		// synchronized: against main menu changes
-		synchronized (settings) {
-			newSettings.setExcludeNestedTypes(settings.getExcludeNestedTypes());
-			newSettings.setFlattenSwitchBlocks(settings.getFlattenSwitchBlocks());
-			newSettings.setForceExplicitImports(settings.getForceExplicitImports());
-			newSettings.setForceExplicitTypeArguments(settings.getForceExplicitTypeArguments());
-			newSettings.setOutputFileHeaderText(settings.getOutputFileHeaderText());
-			newSettings.setLanguage(settings.getLanguage());
-			newSettings.setShowSyntheticMembers(settings.getShowSyntheticMembers());
-			newSettings.setAlwaysGenerateExceptionVariableForCatchBlocks(
-					settings.getAlwaysGenerateExceptionVariableForCatchBlocks());
-			newSettings.setOutputDirectory(settings.getOutputDirectory());
-			newSettings.setRetainRedundantCasts(settings.getRetainRedundantCasts());
-			newSettings.setIncludeErrorDiagnostics(settings.getIncludeErrorDiagnostics());
-			newSettings.setIncludeLineNumbersInBytecode(settings.getIncludeLineNumbersInBytecode());
-			newSettings.setRetainPointlessSwitches(settings.getRetainPointlessSwitches());
-			newSettings.setUnicodeOutputEnabled(settings.isUnicodeOutputEnabled());
-			newSettings.setMergeVariables(settings.getMergeVariables());
-			newSettings.setShowDebugLineNumbers(settings.getShowDebugLineNumbers());
-		}
-		return newSettings;
-	}
-
 	public boolean isCancel() {
 		return cancel;
 	}
 
 	public void setCancel(boolean cancel) {
 		this.cancel = cancel;
+		JarDecompiler decompiler = jarDecompiler;
+		if (cancel && decompiler != null)
+			decompiler.cancel();
 	}
 
 	public boolean isExtracting() {
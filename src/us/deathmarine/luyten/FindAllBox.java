@@ -1,11 +1,6 @@
 package us.deathmarine.luyten;
 
-import com.strobel.assembler.metadata.TypeDefinition;
-import com.strobel.assembler.metadata.TypeReference;
-import com.strobel.core.StringUtilities;
-import com.strobel.decompiler.DecompilationOptions;
 import com.strobel.decompiler.DecompilerSettings;
-import com.strobel.decompiler.PlainTextOutput;
 
 import us.deathmarine.luyten.ConfigSaver;
 import us.deathmarine.luyten.MainWindow;
@@ -14,21 +9,18 @@ import us.deathmarine.luyten.Model;
 import java.awt.Dimension;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.StringWriter;
 import java.util.Collections;
-import java.util.Enumeration;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.List;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import javax.swing.*;
 import javax.swing.GroupLayout.Alignment;
@@ -55,15 +47,16 @@ public class FindAllBox extends JDialog {
 	private JCheckBox regex;
 	private JCheckBox wholew;
 	private JCheckBox classname;
-	private JList<String> list;
+	private JCheckBox constantPool;
+	private JCheckBox indexed;
+	private JList<JarSearcher.Hit> list;
 	private JProgressBar progressBar;
-	boolean locked;
 
 	private JLabel statusLabel = new JLabel("");
 
-	private DefaultListModel<String> classesList = new DefaultListModel<String>();
+	private DefaultListModel<JarSearcher.Hit> classesList = new DefaultListModel<JarSearcher.Hit>();
 
-	private Thread tmp_thread;
+	private volatile JarSearcher searcher;
 
 	private MainWindow mainWindow;
 
@@ -83,38 +76,62 @@ public class FindAllBox extends JDialog {
 		regex = new JCheckBox("Regex");
 		wholew = new JCheckBox("Whole Words");
 		classname = new JCheckBox("Classnames");
+		constantPool = new JCheckBox("Constant Pool");
+		constantPool.setToolTipText("Search strings, class and member names in the class files without decompiling");
+		// one search mode at a time
+		classname.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (classname.isSelected())
+					constantPool.setSelected(false);
+			}
+		});
+		constantPool.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (constantPool.isSelected())
+					classname.setSelected(false);
+			}
+		});
+		indexed = new JCheckBox("Index");
+		indexed.setToolTipText("Keep an index of the searched text, later searches skip the entries without a match");
+		indexed.setSelected(ConfigSaver.getLoadedInstance().getLuytenPreferences().isSearchIndexEnabled());
+		indexed.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				ConfigSaver.getLoadedInstance().getLuytenPreferences().setSearchIndexEnabled(indexed.isSelected());
+			}
+		});
 
 		this.getRootPane().setDefaultButton(findButton);
 
-		list = new JList<String>(classesList);
+		list = new JList<JarSearcher.Hit>(classesList);
 		list.setSelectionMode(ListSelectionModel.SINGLE_INTERVAL_SELECTION);
 		list.setLayoutOrientation(JList.VERTICAL_WRAP);
 		list.setVisibleRowCount(-1);
 		list.addMouseListener(new MouseAdapter() {
 			public void mouseClicked(MouseEvent evt) {
 				@SuppressWarnings("unchecked")
-				JList<String> list = (JList<String>) evt.getSource();
+				JList<JarSearcher.Hit> list = (JList<JarSearcher.Hit>) evt.getSource();
 				if (evt.getClickCount() == 2) {
 					int index = list.locationToIndex(evt.getPoint());
-					String entryName = (String) list.getModel().getElementAt(index);
+					if (index < 0)
+						return;
+					JarSearcher.Hit hit = list.getModel().getElementAt(index);
+					String entryName = hit.getEntryName();
 					String[] array = entryName.split("/");
-					if (entryName.toLowerCase().endsWith(".class")) {
-						String internalName = StringUtilities.removeRight(entryName, ".class");
-						TypeReference type = Model.metadataSystem.lookupType(internalName);
-						try {
-							mainWindow.getSelectedModel().extractClassToTextPane(type, array[array.length - 1], entryName,
-									null);
-						} catch (Exception e) {
-							Luyten.showExceptionDialog("Exception!", e);
-						}
+					if (hit.getLinkKey() != null) {
+						mainWindow.getSelectedModel().navigateTo(hit.getLinkKey());
+					} else if (entryName.toLowerCase().endsWith(".class")) {
+						mainWindow.getSelectedModel().openClassEntryInBackground(entryName, array[array.length - 1]);
 
 					} else {
 						try {
-							JarFile jfile = new JarFile(mainWindow.getSelectedModel().getOpenedFile());
-							mainWindow.getSelectedModel().extractSimpleFileEntryToTextPane(
-									jfile.getInputStream(jfile.getEntry(entryName)), array[array.length - 1],
-									entryName);
-							jfile.close();
+							try (ZipArchive archive = ZipArchive.open(mainWindow.getSelectedModel().getOpenedFile());) {
+								mainWindow.getSelectedModel().extractSimpleFileEntryToTextPane(
+										archive.getInputStream(archive.findEntry(entryName)), array[array.length - 1],
+										entryName);
+							}
 						} catch (IOException e) {
 							e.printStackTrace();
 						} catch (Exception e) {
@@ -155,7 +172,9 @@ public class FindAllBox extends JDialog {
 														.addComponent(mcase))
 										.addGroup(layout.createParallelGroup(Alignment.LEADING).addComponent(wholew))
 										.addGroup(layout.createParallelGroup(Alignment.LEADING).addComponent(regex))
-										.addGroup(layout.createParallelGroup(Alignment.LEADING).addComponent(classname)))
+										.addGroup(layout.createParallelGroup(Alignment.LEADING).addComponent(classname))
+										.addGroup(layout.createParallelGroup(Alignment.LEADING).addComponent(constantPool))
+										.addGroup(layout.createParallelGroup(Alignment.LEADING).addComponent(indexed)))
 				.addGroup(layout.createSequentialGroup()
 						.addGroup(layout.createParallelGroup(Alignment.LEADING).addComponent(listScroller)
 								.addComponent(progressBar))))
@@ -168,7 +187,7 @@ public class FindAllBox extends JDialog {
 				.addGroup(layout.createParallelGroup(Alignment.BASELINE).addComponent(label).addComponent(textField)
 						.addComponent(findButton))
 				.addGroup(layout.createParallelGroup(Alignment.BASELINE).addComponent(mcase).addComponent(wholew)
-						.addComponent(regex).addComponent(classname))
+						.addComponent(regex).addComponent(classname).addComponent(constantPool).addComponent(indexed))
 				.addGroup(layout.createParallelGroup(Alignment.LEADING)
 						.addGroup(layout.createSequentialGroup()
 								.addGroup(layout.createParallelGroup(Alignment.BASELINE).addComponent(listScroller))))
@@ -186,118 +205,179 @@ public class FindAllBox extends JDialog {
 
 		@Override
 		public void actionPerformed(ActionEvent event) {
-			tmp_thread = new Thread() {
+			if (findButton.getText().equals("Stop")) {
+				if (searcher != null)
+					searcher.cancel();
+				searcher = null;
+				setSearching(false);
+				statusLabel.setText("Stopped.");
+				findButton.setText("Find");
+				return;
+			}
+			File inFile = mainWindow.getSelectedModel().getOpenedFile();
+			if (inFile == null)
+				return;
+			ConfigSaver configSaver = ConfigSaver.getLoadedInstance();
+			LuytenPreferences luytenPrefs = configSaver.getLuytenPreferences();
+			final File jarFile = inFile;
+			final DecompilerSettings settings = configSaver.getDecompilerSettingsSnapshot();
+			JarSearcher.Mode mode = JarSearcher.Mode.TEXT;
+			if (classname.isSelected())
+				mode = JarSearcher.Mode.CLASS_NAMES;
+			else if (constantPool.isSelected())
+				mode = JarSearcher.Mode.CONSTANT_POOL;
+			final boolean isIndexed = indexed.isSelected() && mode == JarSearcher.Mode.TEXT;
+			final JarSearcher jarSearcher = new JarSearcher(inFile, settings,
+					luytenPrefs.isFilterOutInnerClassEntries(), mode, luytenPrefs.getDecompilerThreadCount());
+			jarSearcher.setDecompilationCache(DecompilationCache.getDefault());
+			jarSearcher.setListener(new SearchListener(jarSearcher));
+			// the options are read once, the workers never touch the dialog
+			final Query query;
+			try {
+				query = new Query(textField.getText(), mcase.isSelected(), regex.isSelected(),
+						wholew.isSelected(), mode == JarSearcher.Mode.CONSTANT_POOL);
+			} catch (PatternSyntaxException e) {
+				Luyten.showExceptionDialog("Exception!", e);
+				return;
+			}
+			searcher = jarSearcher;
+			setSearching(true);
+			classesList.clear();
+			findButton.setText("Stop");
+			new Thread() {
 				public void run() {
-					if (findButton.getText().equals("Stop")) {
-						if (tmp_thread != null)
-							tmp_thread.interrupt();
-						setStatus("Stopped.");
-						findButton.setText("Find");
-						locked = false;
-					} else {
-						findButton.setText("Stop");
-						classesList.clear();
-						ConfigSaver configSaver = ConfigSaver.getLoadedInstance();
-						DecompilerSettings settings = configSaver.getDecompilerSettings();
-						File inFile = mainWindow.getSelectedModel().getOpenedFile();
-						boolean filter = ConfigSaver.getLoadedInstance().getLuytenPreferences()
-								.isFilterOutInnerClassEntries();
-						try {
-							JarFile jfile = new JarFile(inFile);
-							Enumeration<JarEntry> entLength = jfile.entries();
-							initProgressBar(Collections.list(entLength).size());
-							Enumeration<JarEntry> ent = jfile.entries();
-							while (ent.hasMoreElements() && findButton.getText().equals("Stop")) {
-								JarEntry entry = ent.nextElement();
-								String name = entry.getName();
-								setStatus(name);
-								if (filter && name.contains("$"))
-									continue;
-								if(locked || classname.isSelected()){
-									locked = true;
-									if(search(entry.getName()))
-										addClassName(entry.getName());
-								}else{
-									if (entry.getName().endsWith(".class")) {
-										synchronized (settings) {
-											String internalName = StringUtilities.removeRight(entry.getName(), ".class");
-											TypeReference type = Model.metadataSystem.lookupType(internalName);
-											TypeDefinition resolvedType = null;
-											if (type == null || ((resolvedType = type.resolve()) == null)) {
-												throw new Exception("Unable to resolve type.");
-											}
-											StringWriter stringwriter = new StringWriter();
-											DecompilationOptions decompilationOptions;
-											decompilationOptions = new DecompilationOptions();
-											decompilationOptions.setSettings(settings);
-											decompilationOptions.setFullDecompilation(true);
-											PlainTextOutput plainTextOutput = new PlainTextOutput(stringwriter);
-											plainTextOutput.setUnicodeOutputEnabled(
-													decompilationOptions.getSettings().isUnicodeOutputEnabled());
-											settings.getLanguage().decompileType(resolvedType, plainTextOutput,
-													decompilationOptions);
-											if (search(stringwriter.toString()))
-												addClassName(entry.getName());
-										}
-									} else {
-
-										StringBuilder sb = new StringBuilder();
-										long nonprintableCharactersCount = 0;
-										try (InputStreamReader inputStreamReader = new InputStreamReader(
-												jfile.getInputStream(entry));
-												BufferedReader reader = new BufferedReader(inputStreamReader);) {
-											String line;
-											while ((line = reader.readLine()) != null) {
-												sb.append(line).append("\n");
-
-												for (byte nextByte : line.getBytes()) {
-													if (nextByte <= 0) {
-														nonprintableCharactersCount++;
-													}
-												}
-
-											}
-										}
-										if (nonprintableCharactersCount < 5 && search(sb.toString()))
-											addClassName(entry.getName());
-									}
-								}
-							}
-							setSearching(false);
-							if (findButton.getText().equals("Stop")) {
-								setStatus("Done.");
+					try {
+						if (isIndexed)
+							jarSearcher.setSearchIndex(SearchIndex.open(jarFile, settings));
+						jarSearcher.search(query);
+						if (jarSearcher.isCancelled())
+							return;
+						final int failedCount = jarSearcher.getFailedCount();
+						final int skippedCount = jarSearcher.getSkippedCount();
+						SwingUtilities.invokeLater(new Runnable() {
+							@Override
+							public void run() {
+								if (searcher != jarSearcher)
+									return;
+								searcher = null;
+								setSearching(false);
+								String status = "Done.";
+								if (skippedCount > 0)
+									status += " (" + skippedCount + " entries skipped by the index)";
+								if (failedCount > 0)
+									status += " (" + failedCount + " entries could not be searched)";
+								statusLabel.setText(status);
 								findButton.setText("Find");
-								locked = false;
 							}
-							jfile.close();
-							locked = false;
-						} catch (Exception e) {
-							Luyten.showExceptionDialog("Exception!", e);
-						}
-
+						});
+					} catch (final Exception e) {
+						SwingUtilities.invokeLater(new Runnable() {
+							@Override
+							public void run() {
+								if (searcher == jarSearcher) {
+									searcher = null;
+									setSearching(false);
+									statusLabel.setText("");
+									findButton.setText("Find");
+								}
+								Luyten.showExceptionDialog("Exception!", e);
+							}
+						});
 					}
 				}
-			};
-			tmp_thread.start();
+			}.start();
+		}
+	}
+
+	/**
+	 * Moves the search results into the dialog, dropped once their search
+	 * was stopped or replaced
+	 */
+	private class SearchListener implements JarSearcher.Listener {
+		private final JarSearcher jarSearcher;
 
+		SearchListener(JarSearcher jarSearcher) {
+			this.jarSearcher = jarSearcher;
 		}
 
+		@Override
+		public void onStart(final int entryCount) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					if (searcher == jarSearcher)
+						initProgressBar(entryCount);
+				}
+			});
+		}
+
+		@Override
+		public void onProgress(final List<JarSearcher.Hit> hits, final int searchedCount,
+				final String lastEntryName) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					if (searcher != jarSearcher)
+						return;
+					for (JarSearcher.Hit hit : hits) {
+						classesList.addElement(hit);
+					}
+					setStatus(lastEntryName);
+					progressBar.setValue(searchedCount);
+				}
+			});
+		}
 	}
 
-	private boolean search(String bulk) {
-		String a = textField.getText();
-		String b = bulk;
-		if (regex.isSelected())
-			return Pattern.matches(a, b);
-		if (wholew.isSelected())
-			a = " " + a + " ";
-		if (!mcase.isSelected()) {
-			a = a.toLowerCase();
-			b = b.toLowerCase();
+	/**
+	 * The search options of one search
+	 */
+	private static final class Query implements JarSearcher.Matcher {
+		private final String text;
+		private final boolean isMatchCase;
+		private final Pattern pattern;
+		private final List<String> literals;
+		private final boolean isWholeIdentifiers;
+
+		/**
+		 * @param isIdentifiers
+		 *            the texts are bare constants and names, not source:
+		 *            whole words end where identifiers end, not at spaces
+		 */
+		Query(String text, boolean isMatchCase, boolean isRegex, boolean isWholeWords, boolean isIdentifiers) {
+			this.pattern = isRegex ? Pattern.compile(text) : null;
+			this.isWholeIdentifiers = isWholeWords && isIdentifiers;
+			if (isWholeWords && !isIdentifiers)
+				text = " " + text + " ";
+			if (!isMatchCase)
+				text = text.toLowerCase();
+			this.text = text;
+			this.isMatchCase = isMatchCase;
+			this.literals = isRegex ? SearchIndex.getRegexLiterals(pattern.pattern())
+					: Collections.singletonList(text);
+		}
+
+		@Override
+		public boolean matches(String bulk) {
+			if (pattern != null)
+				return pattern.matcher(bulk).matches();
+			if (!isMatchCase)
+				bulk = bulk.toLowerCase();
+			if (!isWholeIdentifiers || text.isEmpty())
+				return bulk.contains(text);
+			for (int i = bulk.indexOf(text); i >= 0; i = bulk.indexOf(text, i + 1)) {
+				int end = i + text.length();
+				if ((i == 0 || !Character.isJavaIdentifierPart(bulk.charAt(i - 1)))
+						&& (end == bulk.length() || !Character.isJavaIdentifierPart(bulk.charAt(end))))
+					return true;
+			}
+			return false;
+		}
+
+		@Override
+		public List<String> getLiterals() {
+			return literals;
 		}
-		if (b.contains(a))
-			return true;
-		return false;
 	}
 
 	private void setHideOnEscapeButton() {
@@ -348,12 +428,10 @@ public class FindAllBox extends JDialog {
 		} else {
 			this.statusLabel.setText("Searching in file: " + text);
 		}
-
-		progressBar.setValue(progressBar.getValue() + 1);
 	}
 
 	public void addClassName(String className) {
-		this.classesList.addElement(className);
+		this.classesList.addElement(new JarSearcher.Hit(className));
 	}
 
 	public void initProgressBar(Integer length) {
@@ -0,0 +1,171 @@
+package us.deathmarine.luyten;
+
+import java.awt.Dimension;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.util.List;
+
+import javax.swing.*;
+import javax.swing.GroupLayout.Alignment;
+
+/**
+ * Lists the members of the opened jar which refer to a type, method or
+ * field. The cross-reference index of the jar is built on the first request
+ * and kept until another jar is asked for or the jar changes.
+ */
+public class FindUsagesBox extends JDialog {
+	private static final long serialVersionUID = 3217609187327456291L;
+	private static final int MIN_WIDTH = 640;
+
+	private JLabel titleLabel = new JLabel("");
+	private JLabel statusLabel = new JLabel("");
+	private JProgressBar progressBar;
+	private DefaultListModel<JarSearcher.Hit> usagesList = new DefaultListModel<JarSearcher.Hit>();
+
+	// EDT only
+	private XrefIndex index;
+	private LinkKey linkKey;
+
+	public FindUsagesBox(final MainWindow mainWindow) {
+		this.setDefaultCloseOperation(HIDE_ON_CLOSE);
+		this.setHideOnEscapeButton();
+
+		progressBar = new JProgressBar(0, 100);
+
+		JList<JarSearcher.Hit> list = new JList<JarSearcher.Hit>(usagesList);
+		list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		list.addMouseListener(new MouseAdapter() {
+			public void mouseClicked(MouseEvent evt) {
+				@SuppressWarnings("unchecked")
+				JList<JarSearcher.Hit> list = (JList<JarSearcher.Hit>) evt.getSource();
+				if (evt.getClickCount() == 2) {
+					int index = list.locationToIndex(evt.getPoint());
+					if (index < 0)
+						return;
+					JarSearcher.Hit hit = list.getModel().getElementAt(index);
+					if (hit.getLinkKey() != null)
+						mainWindow.getSelectedModel().navigateTo(hit.getLinkKey());
+				}
+			}
+		});
+		JScrollPane listScroller = new JScrollPane(list, JScrollPane.VERTICAL_SCROLLBAR_ALWAYS,
+				JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+
+		Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
+		int width = (int) (screenSize.width * 0.35);
+		if (width < MIN_WIDTH) {
+			width = MIN_WIDTH;
+		}
+		final Dimension center = new Dimension(width, 500);
+		final int x = (int) (center.width * 0.2);
+		final int y = (int) (center.height * 0.2);
+		this.setBounds(x, y, center.width, center.height);
+
+		GroupLayout layout = new GroupLayout(getRootPane());
+		getRootPane().setLayout(layout);
+		layout.setAutoCreateGaps(true);
+		layout.setAutoCreateContainerGaps(true);
+		layout.setHorizontalGroup(layout.createParallelGroup(Alignment.LEADING).addComponent(titleLabel)
+				.addComponent(listScroller).addComponent(statusLabel).addComponent(progressBar));
+		layout.setVerticalGroup(layout.createSequentialGroup().addComponent(titleLabel).addComponent(listScroller)
+				.addComponent(statusLabel).addComponent(progressBar));
+
+		this.setName("Find Usages");
+		this.setTitle("Find Usages");
+	}
+
+	/**
+	 * Shows the usages of the type, method or field in the jar, after
+	 * building the jar's index if needed
+	 */
+	public void findUsages(File file, LinkKey linkKey, String description) {
+		this.linkKey = linkKey;
+		titleLabel.setText("Usages of " + (description != null ? description : linkKey));
+		usagesList.clear();
+		this.setVisible(true);
+
+		if (index != null && index.getFile().equals(file) && index.isUpToDate()) {
+			// a running build shows the usages when done
+			if (index.isBuilt())
+				showUsages();
+			return;
+		}
+		if (index != null)
+			index.cancel();
+		final XrefIndex newIndex = new XrefIndex(file,
+				ConfigSaver.getLoadedInstance().getLuytenPreferences().getDecompilerThreadCount());
+		index = newIndex;
+		statusLabel.setText("Indexing references...");
+		progressBar.setValue(0);
+		progressBar.setStringPainted(true);
+		new Thread() {
+			public void run() {
+				try {
+					newIndex.build(new XrefIndex.Listener() {
+						@Override
+						public void onProgress(final int scannedCount, final int classCount) {
+							SwingUtilities.invokeLater(new Runnable() {
+								@Override
+								public void run() {
+									if (index != newIndex)
+										return;
+									progressBar.setMaximum(classCount);
+									progressBar.setValue(scannedCount);
+								}
+							});
+						}
+					});
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							if (index == newIndex && newIndex.isBuilt())
+								showUsages();
+						}
+					});
+				} catch (final Exception e) {
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							if (index != newIndex)
+								return;
+							index = null;
+							statusLabel.setText("Cannot index " + newIndex.getFile().getName() + ": " + e.getMessage());
+						}
+					});
+				}
+			}
+		}.start();
+	}
+
+	private void showUsages() {
+		List<JarSearcher.Hit> usages = index.findUsages(linkKey);
+		usagesList.clear();
+		for (JarSearcher.Hit usage : usages) {
+			usagesList.addElement(usage);
+		}
+		String status = usages.size() + (usages.size() == 1 ? " usage" : " usages");
+		if (index.getFailedCount() > 0)
+			status += " (" + index.getFailedCount() + " class files could not be read)";
+		statusLabel.setText(status);
+		progressBar.setValue(progressBar.getMaximum());
+	}
+
+	private void setHideOnEscapeButton() {
+		Action escapeAction = new AbstractAction() {
+			private static final long serialVersionUID = -2953186040213893271L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				FindUsagesBox.this.setVisible(false);
+			}
+		};
+
+		KeyStroke escapeKeyStroke = KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0, false);
+		this.getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(escapeKeyStroke, "ESCAPE");
+		this.getRootPane().getActionMap().put("ESCAPE", escapeAction);
+	}
+}
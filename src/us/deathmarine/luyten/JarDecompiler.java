@@ -0,0 +1,251 @@
+package us.deathmarine.luyten;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import com.strobel.core.StringUtilities;
+import com.strobel.decompiler.DecompilerSettings;
+
+/**
+ * Decompiles every class of a jar on a pool of workers. Each worker owns its
+ * own type loader, metadata system and copy of the settings. Results are
+ * written by the calling thread in jar order, so the output does not depend
+ * on the number of workers.
+ */
+public class JarDecompiler {
+
+	/**
+	 * Destination of the extracted entries (zip file or directory)
+	 */
+	public interface Sink {
+
+		public OutputStream putNextEntry(JarEntry entry) throws IOException;
+
+		public void closeEntry() throws IOException;
+	}
+
+	public interface Listener {
+
+		public void onStart(int entryCount);
+
+		public void onEntry(String entryName, int tick);
+
+		public void onDecompileFailed(String entryName, Exception e);
+	}
+
+	private final File inFile;
+	private final DecompilerSettings settings;
+	private final boolean isFilterOutInnerClassEntries;
+	private final int threadCount;
+	private final JrtTypeLoader jrtTypeLoader;
+	private Listener listener;
+	private DecompilationCache cache;
+	private volatile boolean cancel;
+	private int decompiledCount;
+	private int failedCount;
+
+	/**
+	 * @param jrtTypeLoader
+	 *            JDK classes, null: from the class path
+	 */
+	public JarDecompiler(File inFile, DecompilerSettings settings, boolean isFilterOutInnerClassEntries,
+			int threadCount, JrtTypeLoader jrtTypeLoader) {
+		this.inFile = inFile;
+		this.jrtTypeLoader = jrtTypeLoader;
+		this.settings = settings;
+		this.isFilterOutInnerClassEntries = isFilterOutInnerClassEntries;
+		this.threadCount = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+	}
+
+	public void decompileTo(final ZipOutputStream out) throws Exception {
+		decompileTo(new Sink() {
+			@Override
+			public OutputStream putNextEntry(JarEntry entry) throws IOException {
+				out.putNextEntry(entry);
+				return out;
+			}
+
+			@Override
+			public void closeEntry() throws IOException {
+				out.closeEntry();
+			}
+		});
+	}
+
+	public void decompileTo(Sink out) throws Exception {
+		try (final ZipArchive archive = ZipArchive.open(inFile);) {
+			JarEntryFilter jarEntryFilter = new JarEntryFilter(archive);
+			Set<String> mass = new HashSet<String>(isFilterOutInnerClassEntries
+					? jarEntryFilter.getEntriesWithoutInnerClasses() : jarEntryFilter.getAllEntriesFromJar());
+			if (listener != null) {
+				listener.onStart(archive.size());
+			}
+
+			final ThreadLocal<DecompilerContext> contexts = new ThreadLocal<DecompilerContext>() {
+				@Override
+				protected DecompilerContext initialValue() {
+					DecompilerContext context = new DecompilerContext(archive,
+							ConfigSaver.copyDecompilerSettings(settings), jrtTypeLoader);
+					context.setDecompilationCache(cache);
+					return context;
+				}
+			};
+			ExecutorService pool = Executors.newFixedThreadPool(threadCount, new WorkerThreadFactory("SaveAll"));
+			try {
+				// bounded look-ahead: keeps every worker busy without holding
+				// the sources of the whole jar in memory
+				int window = threadCount * 4;
+				ArrayDeque<PendingEntry> pending = new ArrayDeque<>();
+				Set<String> history = new HashSet<String>();
+				int tick = 0;
+				for (int entry = 0; entry < archive.size() && !cancel; entry++) {
+					tick++;
+					String name = archive.getName(entry);
+					if (!mass.contains(name))
+						continue;
+					if (name.endsWith(".class")) {
+						JarEntry etn = new JarEntry(name.replace(".class", ".java"));
+						if (!history.add(etn.getName()))
+							continue;
+						final String internalName = StringUtilities.removeRight(name, ".class");
+						Future<String> source = pool.submit(new Callable<String>() {
+							@Override
+							public String call() throws Exception {
+								if (cancel)
+									return null;
+								return contexts.get().decompile(internalName);
+							}
+						});
+						pending.add(new PendingEntry(entry, etn, tick, source));
+					} else {
+						JarEntry etn = new JarEntry(name);
+						if (name.endsWith(".java"))
+							etn = new JarEntry(name.replace(".java", ".src.java"));
+						if (!history.add(etn.getName()))
+							continue;
+						pending.add(new PendingEntry(entry, etn, tick, null));
+					}
+					while (pending.size() > window && !cancel) {
+						writeEntry(archive, out, pending.poll());
+					}
+				}
+				while (!pending.isEmpty() && !cancel) {
+					writeEntry(archive, out, pending.poll());
+				}
+			} finally {
+				pool.shutdownNow();
+			}
+		}
+	}
+
+	private void writeEntry(ZipArchive archive, Sink out, PendingEntry pendingEntry) throws Exception {
+		int entry = pendingEntry.entry;
+		JarEntry etn = pendingEntry.outEntry;
+		// keep the original timestamps: same input, same output
+		etn.setTime(archive.getTime(entry));
+		if (listener != null) {
+			listener.onEntry(etn.getName(), pendingEntry.tick);
+		}
+		if (pendingEntry.source != null) {
+			OutputStream entryOut = out.putNextEntry(etn);
+			try {
+				String source = pendingEntry.source.get();
+				if (source != null) {
+					boolean isUnicodeEnabled = settings.isUnicodeOutputEnabled();
+					Writer writer = isUnicodeEnabled ? new OutputStreamWriter(entryOut, "UTF-8")
+							: new OutputStreamWriter(entryOut);
+					writer.write(source);
+					writer.flush();
+					decompiledCount++;
+				}
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				failedCount++;
+				if (listener != null) {
+					listener.onDecompileFailed(archive.getName(entry),
+							cause instanceof Exception ? (Exception) cause : e);
+				}
+			} finally {
+				out.closeEntry();
+			}
+		} else {
+			try {
+				OutputStream entryOut = out.putNextEntry(etn);
+				try (InputStream in = archive.getInputStream(entry);) {
+					byte data[] = new byte[1024];
+					int count;
+					while ((count = in.read(data, 0, 1024)) != -1) {
+						entryOut.write(data, 0, count);
+					}
+				} finally {
+					out.closeEntry();
+				}
+			} catch (ZipException ze) {
+				if (!ze.getMessage().contains("duplicate")) {
+					throw ze;
+				}
+			}
+		}
+	}
+
+	public void cancel() {
+		cancel = true;
+	}
+
+	public boolean isCancelled() {
+		return cancel;
+	}
+
+	public int getDecompiledCount() {
+		return decompiledCount;
+	}
+
+	public int getFailedCount() {
+		return failedCount;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @param cache
+	 *            null: decompile every class
+	 */
+	public void setDecompilationCache(DecompilationCache cache) {
+		this.cache = cache;
+	}
+
+	private static final class PendingEntry {
+		final int entry;
+		final JarEntry outEntry;
+		final int tick;
+		final Future<String> source;
+
+		PendingEntry(int entry, JarEntry outEntry, int tick, Future<String> source) {
+			this.entry = entry;
+			this.outEntry = outEntry;
+			this.tick = tick;
+			this.source = source;
+		}
+	}
+}
@@ -1,31 +1,26 @@
 package us.deathmarine.luyten;
 
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
 public class JarEntryFilter {
 
-	private JarFile jfile;
+	private ZipArchive archive;
 
 	public JarEntryFilter() {
 	}
 
-	public JarEntryFilter(JarFile jfile) {
-		this.jfile = jfile;
+	public JarEntryFilter(ZipArchive archive) {
+		this.archive = archive;
 	}
 
 	public List<String> getAllEntriesFromJar() {
 		List<String> mass = new ArrayList<>();
-		Enumeration<JarEntry> entries = jfile.entries();
-		while (entries.hasMoreElements()) {
-			JarEntry e = entries.nextElement();
-			if (!e.isDirectory()) {
-				mass.add(e.getName());
+		for (int entry = 0; entry < archive.size(); entry++) {
+			if (!archive.isDirectory(entry)) {
+				mass.add(archive.getName(entry));
 			}
 		}
 		return mass;
@@ -33,14 +28,12 @@ public class JarEntryFilter {
 
 	public List<String> getEntriesWithoutInnerClasses() {
 		List<String> mass = new ArrayList<>();
-		Enumeration<JarEntry> entries = jfile.entries();
 		Set<String> possibleInnerClasses = new HashSet<String>();
 		Set<String> baseClasses = new HashSet<String>();
 
-		while (entries.hasMoreElements()) {
-			JarEntry e = entries.nextElement();
-			if (!e.isDirectory()) {
-				String entryName = e.getName();
+		for (int entry = 0; entry < archive.size(); entry++) {
+			if (!archive.isDirectory(entry)) {
+				String entryName = archive.getName(entry);
 
 				if (entryName != null && entryName.trim().length() > 0) {
 					entryName = entryName.trim();
@@ -72,11 +65,11 @@ public class JarEntryFilter {
 		return mass;
 	}
 
-	public JarFile getJfile() {
-		return jfile;
+	public ZipArchive getArchive() {
+		return archive;
 	}
 
-	public void setJfile(JarFile jfile) {
-		this.jfile = jfile;
+	public void setArchive(ZipArchive archive) {
+		this.archive = archive;
 	}
 }
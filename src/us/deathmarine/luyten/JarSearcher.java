@@ -0,0 +1,472 @@
+package us.deathmarine.luyten;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.strobel.core.StringUtilities;
+import com.strobel.decompiler.DecompilerSettings;
+
+/**
+ * Searches the entries of a jar on a pool of workers: classes are decompiled
+ * and searched in their source, other entries in their text, or the constant
+ * pools of the class files are searched without decompiling. Each worker owns
+ * its own type loader, metadata system and copy of the settings. Matches are
+ * reported in batches, in the order they are found. With a search index only
+ * the entries which may contain the literals of the query are searched, the
+ * others are indexed while they are searched.
+ */
+public class JarSearcher {
+
+	public enum Mode {
+		/** decompiled sources and text entries */
+		TEXT,
+		/** entry names */
+		CLASS_NAMES,
+		/** constants, references and members read from the class files */
+		CONSTANT_POOL
+	}
+
+	/**
+	 * A matching entry, or a matching constant of a class file with the
+	 * member which uses it
+	 */
+	public static final class Hit {
+		private final String entryName;
+		private final String description;
+		private final LinkKey linkKey;
+
+		public Hit(String entryName) {
+			this(entryName, null, null);
+		}
+
+		/**
+		 * @param linkKey
+		 *            link key of the member or type to show, may be null
+		 */
+		public Hit(String entryName, String description, LinkKey linkKey) {
+			this.entryName = entryName;
+			this.description = description;
+			this.linkKey = linkKey;
+		}
+
+		public String getEntryName() {
+			return entryName;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		public LinkKey getLinkKey() {
+			return linkKey;
+		}
+
+		@Override
+		public String toString() {
+			return description == null ? entryName : entryName + "  " + description;
+		}
+	}
+
+	public interface Matcher {
+
+		public boolean matches(String text);
+
+		/**
+		 * Texts every match contains (case insensitive), empty when unknown
+		 */
+		public List<String> getLiterals();
+	}
+
+	public interface Listener {
+
+		public void onStart(int entryCount);
+
+		/**
+		 * @param hits
+		 *            hits found since the last call
+		 * @param searchedCount
+		 *            entries searched so far
+		 */
+		public void onProgress(List<Hit> hits, int searchedCount, String lastEntryName);
+	}
+
+	private static final long BATCH_MILLIS = 100;
+	private static final int MAX_CONSTANT_LENGTH = 80;
+
+	private final File inFile;
+	private final DecompilerSettings settings;
+	private final boolean isFilterOutInnerClassEntries;
+	private final Mode mode;
+	private final int threadCount;
+	private Listener listener;
+	private DecompilationCache cache;
+	private SearchIndex index;
+	private volatile boolean cancel;
+	private volatile ExecutorService pool;
+	private int failedCount;
+	private int skippedCount;
+
+	public JarSearcher(File inFile, DecompilerSettings settings, boolean isFilterOutInnerClassEntries,
+			Mode mode, int threadCount) {
+		this.inFile = inFile;
+		this.settings = settings;
+		this.isFilterOutInnerClassEntries = isFilterOutInnerClassEntries;
+		this.mode = mode;
+		this.threadCount = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Blocks until every entry was searched or the search was cancelled
+	 */
+	public void search(final Matcher matcher) throws Exception {
+		try (final ZipArchive archive = ZipArchive.open(inFile);) {
+			List<Integer> entries = new ArrayList<>();
+			TreeMap<String, Long> crcs = new TreeMap<>();
+			for (int entry = 0; entry < archive.size(); entry++) {
+				String name = archive.getName(entry);
+				crcs.put(name, archive.getCrc(entry));
+				if (archive.isDirectory(entry))
+					continue;
+				if (mode == Mode.CONSTANT_POOL) {
+					// nested classes are not part of the outer class file
+					if (!name.endsWith(".class"))
+						continue;
+				} else if (isFilterOutInnerClassEntries && name.contains("$")) {
+					continue;
+				}
+				entries.add(entry);
+			}
+			if (listener != null) {
+				listener.onStart(entries.size());
+			}
+
+			List<Hit> hits = new ArrayList<>();
+			long lastBatch = System.currentTimeMillis();
+			int searchedCount = 0;
+			String lastEntryName = null;
+			if (mode == Mode.CLASS_NAMES) {
+				for (int entry : entries) {
+					if (cancel)
+						return;
+					searchedCount++;
+					lastEntryName = archive.getName(entry);
+					if (matcher.matches(lastEntryName))
+						hits.add(new Hit(lastEntryName));
+				}
+				publish(hits, searchedCount, lastEntryName);
+				return;
+			}
+			final SearchIndex index = mode == Mode.TEXT ? this.index : null;
+
+			final ThreadLocal<DecompilerContext> contexts = new ThreadLocal<DecompilerContext>() {
+				@Override
+				protected DecompilerContext initialValue() {
+					DecompilerContext context = new DecompilerContext(archive,
+							ConfigSaver.copyDecompilerSettings(settings), JrtTypeLoader.getDefault());
+					context.setDecompilationCache(cache);
+					return context;
+				}
+			};
+			pool = Executors.newFixedThreadPool(threadCount, new WorkerThreadFactory("FindAll"));
+			try {
+				CompletionService<List<Hit>> results = new ExecutorCompletionService<>(pool);
+				Map<Future<List<Hit>>, String> entryNames = new HashMap<>();
+				int[] trigrams = index != null ? SearchIndex.getTrigrams(matcher.getLiterals()) : null;
+				for (final int entry : entries) {
+					if (cancel)
+						return;
+					final String entryName = archive.getName(entry);
+					final long stamp = index != null ? getStamp(entryName, crcs) : 0;
+					if (index != null && !index.mayContain(entryName, stamp, trigrams)) {
+						searchedCount++;
+						skippedCount++;
+						continue;
+					}
+					entryNames.put(results.submit(new Callable<List<Hit>>() {
+						@Override
+						public List<Hit> call() throws Exception {
+							if (cancel)
+								return Collections.emptyList();
+							if (mode == Mode.CONSTANT_POOL)
+								return searchConstantPool(archive, entry, matcher);
+							String text = getText(archive, entry, contexts.get());
+							if (index != null && !cancel)
+								index.put(entryName, stamp, text);
+							if (text != null && matcher.matches(text))
+								return Collections.singletonList(new Hit(entryName));
+							return Collections.emptyList();
+						}
+					}), entryName);
+				}
+				while (searchedCount < entries.size() && !cancel) {
+					Future<List<Hit>> result = results.poll(BATCH_MILLIS, TimeUnit.MILLISECONDS);
+					if (result != null) {
+						searchedCount++;
+						lastEntryName = entryNames.remove(result);
+						try {
+							hits.addAll(result.get());
+						} catch (ExecutionException e) {
+							failedCount++;
+						}
+					}
+					long now = System.currentTimeMillis();
+					if (now - lastBatch >= BATCH_MILLIS) {
+						publish(hits, searchedCount, lastEntryName);
+						hits = new ArrayList<>();
+						lastBatch = now;
+					}
+				}
+				if (!cancel) {
+					if (index != null)
+						index.retainAll(crcs.keySet());
+					publish(hits, searchedCount, lastEntryName);
+				}
+			} finally {
+				pool.shutdownNow();
+				if (index != null)
+					index.save();
+			}
+		}
+	}
+
+	/**
+	 * Matches strings, class names, member references and declarations of
+	 * the class file, with the members whose code uses them
+	 */
+	private List<Hit> searchConstantPool(ZipArchive archive, int entry, Matcher matcher) throws Exception {
+		ClassFileScanner classFile = ClassFileScanner.read(archive, entry);
+		String owner = classFile.getClassName();
+		String ownerName = owner.replace('/', '.');
+		String entryName = archive.getName(entry);
+		List<Hit> hits = new ArrayList<>();
+
+		// constants found through other constants or declarations
+		BitSet covered = new BitSet();
+		for (ClassFileScanner.Member member : classFile.getFields()) {
+			covered.set(member.getNameIndex());
+			covered.set(member.getDescriptorIndex());
+		}
+		for (ClassFileScanner.Member member : classFile.getMethods()) {
+			covered.set(member.getNameIndex());
+			covered.set(member.getDescriptorIndex());
+		}
+		Map<Integer, String> matchedConstants = new TreeMap<>();
+		int constantCount = classFile.getConstantCount();
+		for (int i = 1; i < constantCount; i++) {
+			String description = null;
+			switch (classFile.getTag(i)) {
+			case ClassFileScanner.CONSTANT_STRING: {
+				covered.set(classFile.getFirstReference(i));
+				String value = classFile.getStringValue(i);
+				if (matcher.matches(value))
+					description = "string " + quote(value);
+				break;
+			}
+			case ClassFileScanner.CONSTANT_CLASS: {
+				covered.set(classFile.getFirstReference(i));
+				String name = classFile.getClassName(i).replace('/', '.');
+				if (matcher.matches(name) || matcher.matches(name.substring(name.lastIndexOf('.') + 1)))
+					description = "class " + name;
+				break;
+			}
+			case ClassFileScanner.CONSTANT_FIELDREF:
+			case ClassFileScanner.CONSTANT_METHODREF:
+			case ClassFileScanner.CONSTANT_INTERFACE_METHODREF:
+			case ClassFileScanner.CONSTANT_INVOKE_DYNAMIC: {
+				String name = classFile.getReferenceName(i);
+				String descriptor = classFile.getReferenceDescriptor(i);
+				if (classFile.getTag(i) == ClassFileScanner.CONSTANT_INVOKE_DYNAMIC) {
+					if (matcher.matches(name))
+						description = "invokedynamic " + name + descriptor;
+					break;
+				}
+				String qualifiedName = classFile.getReferenceOwner(i).replace('/', '.') + "." + name;
+				if (matcher.matches(name) || matcher.matches(qualifiedName)) {
+					description = classFile.getTag(i) == ClassFileScanner.CONSTANT_FIELDREF
+							? "field " + qualifiedName : "method " + qualifiedName + descriptor;
+				}
+				break;
+			}
+			case ClassFileScanner.CONSTANT_NAME_AND_TYPE:
+				covered.set(classFile.getFirstReference(i));
+				covered.set(classFile.getSecondReference(i));
+				break;
+			case ClassFileScanner.CONSTANT_METHOD_TYPE:
+				covered.set(classFile.getFirstReference(i));
+				break;
+			}
+			if (description != null)
+				matchedConstants.put(i, description);
+		}
+		for (int i = 1; i < constantCount; i++) {
+			if (classFile.getTag(i) == ClassFileScanner.CONSTANT_UTF8 && !covered.get(i)
+					&& !classFile.isAttributeName(i)) {
+				String value = classFile.getUtf8(i);
+				if (matcher.matches(value))
+					hits.add(new Hit(entryName, ownerName + ": utf8 " + quote(value),
+							LinkKey.fromInternalName(LinkKey.Kind.TYPE, owner, null, null)));
+			}
+		}
+
+		for (ClassFileScanner.Member member : classFile.getFields()) {
+			String name = classFile.getName(member);
+			if (matcher.matches(name))
+				hits.add(new Hit(entryName, ownerName + ": declares field " + name,
+						LinkKey.fromInternalName(LinkKey.Kind.FIELD, owner, name, null)));
+		}
+		final BitSet used = new BitSet();
+		for (ClassFileScanner.Member member : classFile.getMethods()) {
+			String name = classFile.getName(member);
+			String descriptor = classFile.getDescriptor(member);
+			LinkKey linkKey = LinkKey.fromInternalName(LinkKey.Kind.METHOD, owner, name, descriptor);
+			if (matcher.matches(name))
+				hits.add(new Hit(entryName, ownerName + ": declares method " + name + descriptor, linkKey));
+			if (matchedConstants.isEmpty())
+				continue;
+			final Map<Integer, String> usedConstants = new TreeMap<>();
+			final Map<Integer, String> constants = matchedConstants;
+			classFile.scanCode(member, new ClassFileScanner.CodeVisitor() {
+				@Override
+				public void visitConstant(int opcode, int index) {
+					String description = constants.get(index);
+					if (description != null) {
+						usedConstants.put(index, description);
+						used.set(index);
+					}
+				}
+			});
+			for (String description : usedConstants.values()) {
+				hits.add(new Hit(entryName, ownerName + "." + name + descriptor + ": " + description, linkKey));
+			}
+		}
+		// constants of annotations, constant values, bootstrap arguments...
+		for (Map.Entry<Integer, String> constant : matchedConstants.entrySet()) {
+			if (!used.get(constant.getKey()))
+				hits.add(new Hit(entryName, ownerName + ": " + constant.getValue(),
+						LinkKey.fromInternalName(LinkKey.Kind.TYPE, owner, null, null)));
+		}
+		return hits;
+	}
+
+	private static String quote(String value) {
+		if (value.length() > MAX_CONSTANT_LENGTH)
+			value = value.substring(0, MAX_CONSTANT_LENGTH) + "...";
+		return "\"" + value.replace("\n", "\\n").replace("\r", "\\r") + "\"";
+	}
+
+	/**
+	 * @return the source of a class, the text of other entries, null for
+	 *         binary entries
+	 */
+	private String getText(ZipArchive archive, int entry, DecompilerContext context) throws Exception {
+		String entryName = archive.getName(entry);
+		if (entryName.endsWith(".class")) {
+			String internalName = StringUtilities.removeRight(entryName, ".class");
+			return context.decompile(internalName);
+		}
+		StringBuilder sb = new StringBuilder();
+		long nonprintableCharactersCount = 0;
+		try (InputStreamReader inputStreamReader = new InputStreamReader(archive.getInputStream(entry));
+				BufferedReader reader = new BufferedReader(inputStreamReader);) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				sb.append(line).append("\n");
+
+				for (byte nextByte : line.getBytes()) {
+					if (nextByte <= 0) {
+						nonprintableCharactersCount++;
+					}
+				}
+			}
+		}
+		return nonprintableCharactersCount < 5 ? sb.toString() : null;
+	}
+
+	/**
+	 * CRC of the entry, with the CRCs of its nested classes for a class: the
+	 * source of a class includes its nested classes
+	 */
+	private static long getStamp(String entryName, TreeMap<String, Long> crcs) {
+		long stamp = crcs.get(entryName);
+		if (entryName.endsWith(".class")) {
+			String prefix = StringUtilities.removeRight(entryName, ".class") + "$";
+			for (long crc : crcs.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+				stamp = stamp * 31 + crc;
+			}
+		}
+		return stamp;
+	}
+
+	private void publish(List<Hit> hits, int searchedCount, String lastEntryName) {
+		if (listener != null && lastEntryName != null) {
+			listener.onProgress(hits, searchedCount, lastEntryName);
+		}
+	}
+
+	/**
+	 * Stops the search at once: queued entries are dropped, workers are
+	 * interrupted and nothing is reported any more
+	 */
+	public void cancel() {
+		cancel = true;
+		ExecutorService pool = this.pool;
+		if (pool != null) {
+			pool.shutdownNow();
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancel;
+	}
+
+	public int getFailedCount() {
+		return failedCount;
+	}
+
+	/**
+	 * @return entries the search index ruled out
+	 */
+	public int getSkippedCount() {
+		return skippedCount;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @param cache
+	 *            null: decompile every class
+	 */
+	public void setDecompilationCache(DecompilationCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @param index
+	 *            null: search every entry
+	 */
+	public void setSearchIndex(SearchIndex index) {
+		this.index = index;
+	}
+}
@@ -0,0 +1,186 @@
+package us.deathmarine.luyten;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+
+import com.strobel.assembler.metadata.MetadataSystem;
+import com.strobel.assembler.metadata.TypeReference;
+
+/**
+ * Resolves every type of an opened jar through its model's metadata system
+ * on an idle decompiler worker, so that opening a class does not wait for
+ * its types to be read, then decompiles the classes opened most often into
+ * the memory cache. The work runs with WARMUP priority in one job at a
+ * time, holds the metadata lock for one type at a time and gives way as
+ * soon as more urgent work is queued or running.
+ */
+public class JarWarmUp {
+
+	private static final int BATCH_SIZE = 64;
+	private static final int MAX_DECOMPILED_COUNT = 8;
+
+	private final ZipArchive archive;
+	private final MetadataSystem metadataSystem;
+	private final Prefetcher prefetcher;
+	private final OpenCounts openCounts;
+	private final JLabel label;
+	private final Queue<String> pendingTypes = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger resolvedCount = new AtomicInteger();
+	private volatile int typeCount;
+	private volatile boolean isDecompileEnabled;
+	private volatile boolean isStopped;
+
+	/**
+	 * @param metadataSystem
+	 *            of the model, used under its lock
+	 * @param prefetcher
+	 *            decompiles the classes opened most often, null: none are
+	 * @param openCounts
+	 *            of the jar's classes, null: none are decompiled
+	 */
+	public JarWarmUp(ZipArchive archive, MetadataSystem metadataSystem, Prefetcher prefetcher, OpenCounts openCounts,
+			JLabel label) {
+		this.archive = archive;
+		this.metadataSystem = metadataSystem;
+		this.prefetcher = prefetcher;
+		this.openCounts = openCounts;
+		this.label = label;
+	}
+
+	public void start(boolean isDecompileEnabled) {
+		this.isDecompileEnabled = isDecompileEnabled;
+		for (int entry = 0; entry < archive.size(); entry++) {
+			String name = archive.getName(entry);
+			if (!name.endsWith(".class") || name.startsWith("META-INF/") || name.endsWith("-info.class"))
+				continue;
+			pendingTypes.add(name.substring(0, name.length() - ".class".length()));
+		}
+		typeCount = pendingTypes.size();
+		submitWhenIdle(new Runnable() {
+			@Override
+			public void run() {
+				resolveBatch(this);
+			}
+		});
+	}
+
+	/**
+	 * Continues with the types not resolved yet after the jobs were cancelled
+	 * with all the others (a settings change). The classes opened most often
+	 * are decompiled again, with the new settings.
+	 */
+	public void resume() {
+		if (isStopped)
+			return;
+		DecompilerScheduler.getDefault().cancel(this);
+		submitWhenIdle(new Runnable() {
+			@Override
+			public void run() {
+				resolveBatch(this);
+			}
+		});
+	}
+
+	public void stop() {
+		isStopped = true;
+		DecompilerScheduler.getDefault().cancel(this);
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				String current = label.getText();
+				if (current != null && current.startsWith("Warming up:"))
+					label.setText("Complete");
+			}
+		});
+	}
+
+	public ZipArchive getArchive() {
+		return archive;
+	}
+
+	// runs the work once no more urgent work is queued or running
+	private void submitWhenIdle(Runnable work) {
+		if (isStopped)
+			return;
+		DecompilerScheduler.getDefault().submitWhenIdle(DecompilerScheduler.Priority.WARMUP, this, true, work);
+	}
+
+	private void resolveBatch(Runnable lane) {
+		DecompilerScheduler scheduler = DecompilerScheduler.getDefault();
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			if (DecompilerScheduler.isCurrentJobCancelled())
+				return;
+			// more urgent work arrived: continue after it
+			if (scheduler.hasActiveJobs(DecompilerScheduler.Priority.PREFETCH))
+				break;
+			String internalName = pendingTypes.poll();
+			if (internalName == null) {
+				decompileMostOpened();
+				return;
+			}
+			resolve(internalName);
+			resolvedCount.incrementAndGet();
+		}
+		showStatus("Warming up: " + (100 * resolvedCount.get() / Math.max(1, typeCount)) + "%");
+		// behind the work queued meanwhile
+		submitWhenIdle(lane);
+	}
+
+	private void resolve(String internalName) {
+		try {
+			synchronized (metadataSystem) {
+				TypeReference type = metadataSystem.lookupType(internalName);
+				if (type != null)
+					type.resolve();
+			}
+		} catch (Exception e) {
+			// resolved again, and reported, when the class is opened
+		}
+	}
+
+	private void decompileMostOpened() {
+		if (!isDecompileEnabled || prefetcher == null || openCounts == null) {
+			showStatus("Complete");
+			return;
+		}
+		decompile(openCounts.getMostOpened(MAX_DECOMPILED_COUNT), 0);
+	}
+
+	// one after the other, the workers stay free for what is opened
+	private void decompile(final List<String> internalNames, final int index) {
+		if (index >= internalNames.size()) {
+			showStatus("Complete");
+			return;
+		}
+		submitWhenIdle(new Runnable() {
+			@Override
+			public void run() {
+				String internalName = internalNames.get(index);
+				showStatus("Warming up: " + internalName.substring(internalName.lastIndexOf('/') + 1));
+				prefetcher.prefetch(internalName);
+				if (!DecompilerScheduler.isCurrentJobCancelled())
+					decompile(internalNames, index + 1);
+			}
+		});
+	}
+
+	private void showStatus(final String text) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (isStopped)
+					return;
+				String current = label.getText();
+				// not over a link description or the progress of other work
+				if (current == null || !(current.equals("Complete") || current.startsWith("Warming up:")))
+					return;
+				label.setText(text);
+			}
+		});
+	}
+}
@@ -0,0 +1,156 @@
+package us.deathmarine.luyten;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+/**
+ * Loads the classes of a JDK 9+ runtime image through the jrt:/ file
+ * system: the image of the running JDK or of a configured JDK home. The
+ * modules of a package are read from the image's /packages directory the
+ * first time a class of the package is asked for. The bytes of recently
+ * loaded classes are cached.
+ */
+public class JrtTypeLoader implements ITypeLoader {
+
+	private static final long MAX_CACHED_BYTES = 8L * 1024 * 1024;
+
+	private static JrtTypeLoader theInstance;
+	private static boolean isDefaultCreated;
+
+	private final FileSystem fileSystem;
+	// package with '/' -> modules with classes in it, empty if none
+	private final Map<String, List<String>> packageModules = new ConcurrentHashMap<>();
+	// internal name -> class bytes, least recently loaded first
+	private final Map<String, byte[]> cachedBytes = new LinkedHashMap<>(16, 0.75f, true);
+	private long cachedSize;
+
+	private JrtTypeLoader(FileSystem fileSystem) {
+		this.fileSystem = fileSystem;
+	}
+
+	/**
+	 * GUI only, the JDK home is read from the preferences. The command line
+	 * creates its own loader.
+	 *
+	 * @return the loader of the JDK home in the preferences or else of the
+	 *         running JDK, null if neither has a jrt:/ image
+	 */
+	public static synchronized JrtTypeLoader getDefault() {
+		if (!isDefaultCreated) {
+			isDefaultCreated = true;
+			theInstance = create(ConfigSaver.getLoadedInstance().getLuytenPreferences().getJdkHome());
+		}
+		return theInstance;
+	}
+
+	/**
+	 * @param jdkHome
+	 *            null or empty: the running JDK
+	 * @return null if the JDK has no jrt:/ image (JDK 8 and older)
+	 */
+	public static JrtTypeLoader create(String jdkHome) {
+		URI jrtUri = URI.create("jrt:/");
+		try {
+			if (jdkHome == null || jdkHome.trim().isEmpty())
+				return new JrtTypeLoader(FileSystems.getFileSystem(jrtUri));
+			File jrtFs = new File(jdkHome, "lib" + File.separator + "jrt-fs.jar");
+			if (!jrtFs.isFile()) {
+				System.out.println("[JrtTypeLoader]: No runtime image in " + jdkHome);
+				return null;
+			}
+			// the image's own provider, the running JDK may be another version
+			ClassLoader loader = new URLClassLoader(new URL[] { jrtFs.toURI().toURL() });
+			Map<String, String> env = Collections.singletonMap("java.home", jdkHome);
+			return new JrtTypeLoader(FileSystems.newFileSystem(jrtUri, env, loader));
+		} catch (Exception e) {
+			System.out.println("[JrtTypeLoader]: No runtime image: " + e);
+			return null;
+		}
+	}
+
+	@Override
+	public boolean tryLoadType(String internalName, Buffer buffer) {
+		byte[] bytes = getClassBytes(internalName);
+		if (bytes == null)
+			return false;
+		buffer.reset(bytes.length);
+		System.arraycopy(bytes, 0, buffer.array(), 0, bytes.length);
+		buffer.position(0);
+		return true;
+	}
+
+	private byte[] getClassBytes(String internalName) {
+		synchronized (cachedBytes) {
+			byte[] bytes = cachedBytes.get(internalName);
+			if (bytes != null)
+				return bytes;
+		}
+		int lastSlash = internalName.lastIndexOf('/');
+		if (lastSlash <= 0)
+			return null;
+		String packageName = internalName.substring(0, lastSlash);
+		for (String module : getModules(packageName)) {
+			Path path = fileSystem.getPath("/modules", module, internalName + ".class");
+			try {
+				byte[] bytes = Files.readAllBytes(path);
+				putCachedBytes(internalName, bytes);
+				return bytes;
+			} catch (NoSuchFileException e) {
+				// a package split over modules
+			} catch (IOException e) {
+				System.out.println("[JrtTypeLoader]: Cannot read " + path + ": " + e);
+			}
+		}
+		return null;
+	}
+
+	private List<String> getModules(String packageName) {
+		List<String> modules = packageModules.get(packageName);
+		if (modules != null)
+			return modules;
+		modules = new ArrayList<>();
+		Path packageDirectory = fileSystem.getPath("/packages", packageName.replace('/', '.'));
+		if (Files.isDirectory(packageDirectory)) {
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(packageDirectory);) {
+				for (Path module : stream) {
+					modules.add(module.getFileName().toString());
+				}
+			} catch (IOException e) {
+				System.out.println("[JrtTypeLoader]: Cannot list " + packageDirectory + ": " + e);
+			}
+		}
+		packageModules.put(packageName, modules);
+		return modules;
+	}
+
+	private void putCachedBytes(String internalName, byte[] bytes) {
+		synchronized (cachedBytes) {
+			if (cachedBytes.put(internalName, bytes) == null)
+				cachedSize += bytes.length;
+			Iterator<byte[]> iterator = cachedBytes.values().iterator();
+			while (cachedSize > MAX_CACHED_BYTES && iterator.hasNext()) {
+				cachedSize -= iterator.next().length;
+				iterator.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package us.deathmarine.luyten;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Navigation links of a decompiled source: the text range and key of every
+ * definition and reference, kept in parallel int arrays sorted by offset.
+ * Each distinct key is stored once in a key table and referred to by its id.
+ * Links are added while the source is written, then build() sorts them;
+ * lookups need no allocation.
+ */
+public class LinkIndex {
+
+	private static final int INITIAL_CAPACITY = 64;
+	// estimated heap bytes per key besides its characters
+	private static final int KEY_BYTES = 96;
+
+	// id of a key is its index
+	private LinkKey[] keys = new LinkKey[INITIAL_CAPACITY];
+	private int keyCount;
+	private final Map<LinkKey, Integer> keyIds = new HashMap<>();
+	// range of the key's definition at its id, -1 if not defined in the source
+	private int[] definitionFroms = new int[INITIAL_CAPACITY];
+	private int[] definitionTos = new int[INITIAL_CAPACITY];
+	private int[] referenceCounts = new int[INITIAL_CAPACITY];
+
+	// all links, sorted by from once built
+	private int[] froms = new int[INITIAL_CAPACITY];
+	private int[] tos = new int[INITIAL_CAPACITY];
+	private int[] linkKeyIds = new int[INITIAL_CAPACITY];
+	private int linkCount;
+	private boolean isBuilt;
+
+	/**
+	 * Adds the link of a definition, a later definition of the key replaces
+	 * the earlier one
+	 */
+	public void addDefinition(LinkKey key, int from, int to) {
+		int keyId = getOrAddKeyId(key);
+		definitionFroms[keyId] = from;
+		definitionTos[keyId] = to;
+		addLink(keyId, from, to);
+	}
+
+	public void addReference(LinkKey key, int from, int to) {
+		int keyId = getOrAddKeyId(key);
+		referenceCounts[keyId]++;
+		addLink(keyId, from, to);
+	}
+
+	private int getOrAddKeyId(LinkKey key) {
+		Integer keyId = keyIds.get(key);
+		if (keyId != null)
+			return keyId;
+		if (keyCount == keys.length) {
+			int capacity = keyCount * 2;
+			keys = Arrays.copyOf(keys, capacity);
+			definitionFroms = Arrays.copyOf(definitionFroms, capacity);
+			definitionTos = Arrays.copyOf(definitionTos, capacity);
+			referenceCounts = Arrays.copyOf(referenceCounts, capacity);
+		}
+		keys[keyCount] = key;
+		definitionFroms[keyCount] = -1;
+		definitionTos[keyCount] = -1;
+		keyIds.put(key, keyCount);
+		return keyCount++;
+	}
+
+	private void addLink(int keyId, int from, int to) {
+		if (isBuilt)
+			throw new IllegalStateException("Links are built already");
+		if (linkCount == froms.length) {
+			int capacity = linkCount * 2;
+			froms = Arrays.copyOf(froms, capacity);
+			tos = Arrays.copyOf(tos, capacity);
+			linkKeyIds = Arrays.copyOf(linkKeyIds, capacity);
+		}
+		froms[linkCount] = from;
+		tos[linkCount] = to;
+		linkKeyIds[linkCount] = keyId;
+		linkCount++;
+	}
+
+	/**
+	 * Sorts the links by offset and trims the arrays. Of links starting at
+	 * the same offset the last added one is kept.
+	 */
+	public void build() {
+		if (isBuilt)
+			return;
+		// from in the high bits, the order of adding in the low bits
+		long[] order = new long[linkCount];
+		for (int i = 0; i < linkCount; i++) {
+			order[i] = ((long) froms[i] << 32) | i;
+		}
+		Arrays.sort(order);
+		int[] sortedFroms = new int[linkCount];
+		int[] sortedTos = new int[linkCount];
+		int[] sortedKeyIds = new int[linkCount];
+		int count = 0;
+		for (int i = 0; i < linkCount; i++) {
+			int link = (int) order[i];
+			if (count > 0 && sortedFroms[count - 1] == froms[link])
+				count--;
+			sortedFroms[count] = froms[link];
+			sortedTos[count] = tos[link];
+			sortedKeyIds[count] = linkKeyIds[link];
+			count++;
+		}
+		froms = count < linkCount ? Arrays.copyOf(sortedFroms, count) : sortedFroms;
+		tos = count < linkCount ? Arrays.copyOf(sortedTos, count) : sortedTos;
+		linkKeyIds = count < linkCount ? Arrays.copyOf(sortedKeyIds, count) : sortedKeyIds;
+		linkCount = count;
+		keys = Arrays.copyOf(keys, keyCount);
+		definitionFroms = Arrays.copyOf(definitionFroms, keyCount);
+		definitionTos = Arrays.copyOf(definitionTos, keyCount);
+		referenceCounts = Arrays.copyOf(referenceCounts, keyCount);
+		isBuilt = true;
+	}
+
+	/**
+	 * @return the link whose range holds the offset, -1 if none; call after
+	 *         build()
+	 */
+	public int findLink(int offset) {
+		int low = 0;
+		int high = linkCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (froms[middle] <= offset) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		// high is the last link starting at or before the offset
+		if (high >= 0 && tos[high] > offset)
+			return high;
+		return -1;
+	}
+
+	/**
+	 * @return the first link ending after the offset, -1 if none; call after
+	 *         build()
+	 */
+	public int findLinkFrom(int offset) {
+		int low = 0;
+		int high = linkCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (tos[middle] <= offset) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low < linkCount ? low : -1;
+	}
+
+	public int getLinkCount() {
+		return linkCount;
+	}
+
+	public int getFrom(int link) {
+		return froms[link];
+	}
+
+	public int getTo(int link) {
+		return tos[link];
+	}
+
+	public LinkKey getLinkKey(int link) {
+		return keys[linkKeyIds[link]];
+	}
+
+	/**
+	 * @return true if the key's definition is in the source
+	 */
+	public boolean isDefined(LinkKey key) {
+		Integer keyId = keyIds.get(key);
+		return keyId != null && definitionFroms[keyId] >= 0;
+	}
+
+	/**
+	 * @return range of the key's definition, null if it is not in the source
+	 */
+	public Selection getDefinition(LinkKey key) {
+		Integer keyId = keyIds.get(key);
+		if (keyId == null || definitionFroms[keyId] < 0)
+			return null;
+		return new Selection(definitionFroms[keyId], definitionTos[keyId]);
+	}
+
+	public int getKeyCount() {
+		return keyCount;
+	}
+
+	public LinkKey getKey(int keyId) {
+		return keys[keyId];
+	}
+
+	/**
+	 * @return how often the key is referenced, definitions not counted
+	 */
+	public int getReferenceCount(int keyId) {
+		return referenceCounts[keyId];
+	}
+
+	/**
+	 * @return estimated heap bytes
+	 */
+	public long estimateSize() {
+		long size = 12L * froms.length;
+		for (int i = 0; i < keyCount; i++) {
+			LinkKey key = keys[i];
+			size += 2L * (key.getOuterPath().length() + key.getTypeName().length()) + KEY_BYTES;
+			if (key.getName() != null)
+				size += 2L * key.getName().length();
+			if (key.getSignature() != null)
+				size += 2L * key.getSignature().length();
+		}
+		return size;
+	}
+
+	/**
+	 * Writes the key table and the links of a built index
+	 */
+	public void write(DataOutput out) throws IOException {
+		build();
+		out.writeInt(keyCount);
+		for (int i = 0; i < keyCount; i++) {
+			LinkKey key = keys[i];
+			out.writeByte(key.getKind().ordinal());
+			out.writeUTF(key.getOuterPath());
+			out.writeUTF(key.getTypeName());
+			out.writeUTF(key.getName() != null ? key.getName() : "");
+			out.writeUTF(key.getSignature() != null ? key.getSignature() : "");
+			out.writeInt(definitionFroms[i]);
+			out.writeInt(definitionTos[i]);
+			out.writeInt(referenceCounts[i]);
+		}
+		out.writeInt(linkCount);
+		for (int i = 0; i < linkCount; i++) {
+			out.writeInt(froms[i]);
+			out.writeInt(tos[i]);
+			out.writeInt(linkKeyIds[i]);
+		}
+	}
+
+	/**
+	 * Reads a built index as written by write(DataOutput)
+	 */
+	public static LinkIndex read(DataInput in) throws IOException {
+		LinkIndex index = new LinkIndex();
+		int keyCount = in.readInt();
+		index.keys = new LinkKey[keyCount];
+		index.definitionFroms = new int[keyCount];
+		index.definitionTos = new int[keyCount];
+		index.referenceCounts = new int[keyCount];
+		for (int i = 0; i < keyCount; i++) {
+			int kind = in.readByte();
+			if (kind < 0 || kind >= LinkKey.Kind.values().length)
+				throw new IOException("Unknown link kind");
+			index.keys[i] = LinkKey.create(LinkKey.Kind.values()[kind], in.readUTF(), in.readUTF(), in.readUTF(),
+					in.readUTF());
+			index.definitionFroms[i] = in.readInt();
+			index.definitionTos[i] = in.readInt();
+			index.referenceCounts[i] = in.readInt();
+			index.keyIds.put(index.keys[i], i);
+		}
+		index.keyCount = keyCount;
+		int linkCount = in.readInt();
+		index.froms = new int[linkCount];
+		index.tos = new int[linkCount];
+		index.linkKeyIds = new int[linkCount];
+		for (int i = 0; i < linkCount; i++) {
+			index.froms[i] = in.readInt();
+			index.tos[i] = in.readInt();
+			int keyId = in.readInt();
+			if (keyId < 0 || keyId >= keyCount)
+				throw new IOException("Link to an unknown key");
+			index.linkKeyIds[i] = keyId;
+		}
+		index.linkCount = linkCount;
+		index.isBuilt = true;
+		return index;
+	}
+}
@@ -0,0 +1,169 @@
+package us.deathmarine.luyten;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Key of a navigation link: the type, method or field a decompiled
+ * reference, a bytecode reference or a search hit points to. Keys are
+ * interned, so there is one instance per distinct reference; they compare
+ * by their fields and can be looked up without splitting or allocating.
+ * toString() gives the pipe-delimited form, e.g.
+ * "method|pkg/Outer|pkg.Outer$Inner|name|(I)V".
+ */
+public final class LinkKey {
+
+	public enum Kind {
+		TYPE("type"), METHOD("method"), FIELD("field");
+
+		private final String prefix;
+
+		private Kind(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public String toString() {
+			return prefix;
+		}
+	}
+
+	// interned keys live while a link index, cache or tab refers to them
+	private static final Map<LinkKey, WeakReference<LinkKey>> INTERNED = new WeakHashMap<>();
+
+	private final Kind kind;
+	private final String outerPath;
+	private final String typeName;
+	private final String name;
+	private final String signature;
+	private final int hashCode;
+
+	private LinkKey(Kind kind, String outerPath, String typeName, String name, String signature) {
+		this.kind = kind;
+		this.outerPath = outerPath;
+		this.typeName = typeName;
+		this.name = kind == Kind.TYPE ? null : name;
+		this.signature = kind == Kind.METHOD ? signature : null;
+		int result = kind.hashCode();
+		result = 31 * result + outerPath.hashCode();
+		result = 31 * result + typeName.hashCode();
+		result = 31 * result + (this.name == null ? 0 : this.name.hashCode());
+		result = 31 * result + (this.signature == null ? 0 : this.signature.hashCode());
+		this.hashCode = result;
+	}
+
+	/**
+	 * @param outerPath
+	 *            internal name of the most outer type, e.g. "pkg/Outer"
+	 * @param typeName
+	 *            package and name with '$' between nested types, e.g.
+	 *            "pkg.Outer$Inner"
+	 * @param name
+	 *            of a method or field, ignored for a type
+	 * @param signature
+	 *            erased signature of a method, ignored otherwise
+	 * @return the interned key
+	 */
+	public static LinkKey create(Kind kind, String outerPath, String typeName, String name, String signature) {
+		LinkKey key = new LinkKey(kind, outerPath, typeName, name, signature);
+		synchronized (INTERNED) {
+			WeakReference<LinkKey> interned = INTERNED.get(key);
+			LinkKey internedKey = interned != null ? interned.get() : null;
+			if (internedKey != null)
+				return internedKey;
+			INTERNED.put(key, new WeakReference<>(key));
+		}
+		return key;
+	}
+
+	/**
+	 * Key of a type, method or field named the way class files name them,
+	 * the same key as created for a decompiled reference to it
+	 *
+	 * @param internalTypeName
+	 *            e.g. "java/util/Map$Entry"; nested types are told by their
+	 *            '$', a top level type with '$' in its name is not found
+	 * @param descriptor
+	 *            erased signature of a method, ignored otherwise
+	 * @return null for array types
+	 */
+	public static LinkKey fromInternalName(Kind kind, String internalTypeName, String name, String descriptor) {
+		if (internalTypeName == null || internalTypeName.startsWith("["))
+			return null;
+		int lastSlash = internalTypeName.lastIndexOf('/');
+		String packageStr = lastSlash < 0 ? "" : internalTypeName.substring(0, lastSlash).replace('/', '.');
+		String simpleName = internalTypeName.substring(lastSlash + 1);
+		int firstDollar = simpleName.indexOf('$', 1);
+		String mostOuterTypeName = firstDollar < 0 ? simpleName : simpleName.substring(0, firstDollar);
+		return create(kind, packageStr.replace('.', '/') + "/" + mostOuterTypeName, packageStr + "." + simpleName,
+				name, descriptor);
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return internal name of the most outer type, the class file to open
+	 */
+	public String getOuterPath() {
+		return outerPath;
+	}
+
+	/**
+	 * @return package and name with '$' between nested types
+	 */
+	public String getTypeName() {
+		return typeName;
+	}
+
+	/**
+	 * @return name of the method or field, null for a type
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return erased signature of a method, null otherwise
+	 */
+	public String getSignature() {
+		return signature;
+	}
+
+	/**
+	 * @return the same member declared in another type
+	 */
+	public LinkKey withType(String internalTypeName) {
+		return fromInternalName(kind, internalTypeName, name, signature);
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		LinkKey other = (LinkKey) obj;
+		return hashCode == other.hashCode && kind == other.kind && outerPath.equals(other.outerPath)
+				&& typeName.equals(other.typeName) && (name == null ? other.name == null : name.equals(other.name))
+				&& (signature == null ? other.signature == null : signature.equals(other.signature));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(kind).append('|').append(outerPath).append('|').append(typeName);
+		if (kind != Kind.TYPE)
+			sb.append('|').append(name);
+		if (kind == Kind.METHOD)
+			sb.append('|').append(signature);
+		return sb.toString();
+	}
+}
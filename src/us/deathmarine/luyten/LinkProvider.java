@@ -1,8 +1,5 @@
 package us.deathmarine.luyten;
 
-import java.util.Map;
-import java.util.Set;
-
 public interface LinkProvider {
 
 	public void generateContent();
@@ -11,12 +8,10 @@ public interface LinkProvider {
 
 	public void processLinks();
 
-	public Map<String, Selection> getDefinitionToSelectionMap();
-
-	public Map<String, Set<Selection>> getReferenceToSelectionsMap();
+	public LinkIndex getLinkIndex();
 
-	public boolean isLinkNavigable(String uniqueStr);
+	public boolean isLinkNavigable(LinkKey linkKey);
 
-	public String getLinkDescription(String uniqueStr);
+	public String getLinkDescription(LinkKey linkKey);
 
 }
@@ -41,6 +41,11 @@ public class Luyten {
 	private static ServerSocket lockSocket = null;
 
 	public static void main(final String[] args) {
+		// headless batch mode: no GUI, no single instance socket
+		if (BatchDecompiler.isBatchCommandLine(args)) {
+			System.exit(BatchDecompiler.run(args));
+		}
+
 		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
 			@Override
 			public void run() {
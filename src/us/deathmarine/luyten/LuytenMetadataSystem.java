@@ -0,0 +1,178 @@
+package us.deathmarine.luyten;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ClassFileReader;
+import com.strobel.assembler.metadata.ITypeLoader;
+import com.strobel.assembler.metadata.MetadataSystem;
+import com.strobel.assembler.metadata.TypeDefinition;
+
+/**
+ * Metadata of one jar model. Resolved types are kept with a bound: the most
+ * recently resolved ones strongly, the others only while they are in use or
+ * the heap has room. JDK types are resolved by a metadata system shared by
+ * all models, which no model adds its own types to. Procyon's resolver is
+ * not thread safe: the users of a model's metadata synchronize on it, the
+ * JDK metadata reads its classes under its own lock.
+ */
+public class LuytenMetadataSystem extends MetadataSystem {
+
+	private static final int MAX_RETAINED_TYPES = 2000;
+	private static final int MAX_RETAINED_JDK_TYPES = 4000;
+	private static final String[] JDK_PACKAGE_PREFIXES = { "java/", "javax/", "jdk/", "sun/", "com/sun/",
+			"org/w3c/", "org/xml/", "org/ietf/", "org/omg/" };
+	private static final Set<String> PRIMITIVE_NAMES = new HashSet<>(
+			Arrays.asList("boolean", "byte", "char", "double", "float", "int", "long", "short", "void"));
+
+	// runtime image loader -> metadata of its JDK types, null key: no image
+	private static final Map<JrtTypeLoader, LuytenMetadataSystem> jdkMetadataSystems = new IdentityHashMap<>();
+
+	private final ITypeLoader typeLoader;
+	// null: this is the JDK metadata system
+	private final LuytenMetadataSystem parent;
+	private final int maxRetainedTypes;
+	// descriptor -> resolved type, while it is reachable
+	private final ConcurrentMap<String, DefinitionReference> types = new ConcurrentHashMap<>();
+	private final ReferenceQueue<TypeDefinition> collectedTypes = new ReferenceQueue<>();
+	// the most recently resolved types, kept reachable
+	private final Map<String, TypeDefinition> retainedTypes;
+
+	/**
+	 * @param typeLoader
+	 *            loader of the model's types, JDK types are asked from the
+	 *            shared metadata system of its runtime image first
+	 */
+	public LuytenMetadataSystem(LuytenTypeLoader typeLoader) {
+		this(typeLoader, getJdkMetadataSystem(typeLoader.getJrtTypeLoader()), MAX_RETAINED_TYPES);
+	}
+
+	private LuytenMetadataSystem(ITypeLoader typeLoader, LuytenMetadataSystem parent, int maxRetainedTypes) {
+		super(typeLoader);
+		this.typeLoader = typeLoader;
+		this.parent = parent;
+		this.maxRetainedTypes = maxRetainedTypes;
+		retainedTypes = new LinkedHashMap<String, TypeDefinition>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, TypeDefinition> eldest) {
+				return size() > LuytenMetadataSystem.this.maxRetainedTypes;
+			}
+		};
+	}
+
+	/**
+	 * @param jrtTypeLoader
+	 *            of the JDK's runtime image, null: none
+	 * @return the metadata system of the JDK types, read only for models
+	 */
+	public static LuytenMetadataSystem getJdkMetadataSystem(JrtTypeLoader jrtTypeLoader) {
+		synchronized (jdkMetadataSystems) {
+			LuytenMetadataSystem jdkMetadataSystem = jdkMetadataSystems.get(jrtTypeLoader);
+			if (jdkMetadataSystem == null) {
+				jdkMetadataSystem = new LuytenMetadataSystem(new LuytenTypeLoader(jrtTypeLoader), null,
+						MAX_RETAINED_JDK_TYPES);
+				jdkMetadataSystems.put(jrtTypeLoader, jdkMetadataSystem);
+			}
+			return jdkMetadataSystem;
+		}
+	}
+
+	@Override
+	protected TypeDefinition resolveType(String descriptor, boolean mightBePrimitive) {
+		if (mightBePrimitive && (descriptor.length() == 1 || PRIMITIVE_NAMES.contains(descriptor)))
+			return super.resolveType(descriptor, true);
+
+		TypeDefinition type = getResolvedType(descriptor);
+		if (type != null)
+			return type;
+		if (parent != null && isJdkType(descriptor)) {
+			type = parent.resolveType(descriptor, false);
+			if (type != null)
+				return type;
+		}
+		if (parent == null) {
+			// the JDK metadata is shared by the models' threads
+			synchronized (this) {
+				// read meanwhile by another thread
+				type = getResolvedType(descriptor);
+				return type != null ? type : readType(descriptor);
+			}
+		}
+		return readType(descriptor);
+	}
+
+	private TypeDefinition readType(String descriptor) {
+		Buffer buffer = new Buffer(0);
+		if (!typeLoader.tryLoadType(descriptor, buffer))
+			return null;
+		int options = ClassFileReader.OPTIONS_DEFAULT;
+		if (isEagerMethodLoadingEnabled())
+			options |= ClassFileReader.OPTION_PROCESS_CODE;
+		TypeDefinition type = ClassFileReader.readClass(options, this, buffer);
+		type.setTypeLoader(typeLoader);
+		return putResolvedType(descriptor, type);
+	}
+
+	private TypeDefinition getResolvedType(String descriptor) {
+		DefinitionReference reference = types.get(descriptor);
+		TypeDefinition type = reference != null ? reference.get() : null;
+		if (type != null) {
+			synchronized (retainedTypes) {
+				retainedTypes.put(descriptor, type);
+			}
+		}
+		return type;
+	}
+
+	// the type resolved first is kept if two threads resolved it
+	private TypeDefinition putResolvedType(String descriptor, TypeDefinition type) {
+		removeCollectedTypes();
+		synchronized (retainedTypes) {
+			DefinitionReference reference = types.get(descriptor);
+			TypeDefinition resolvedType = reference != null ? reference.get() : null;
+			if (resolvedType != null)
+				type = resolvedType;
+			else
+				types.put(descriptor, new DefinitionReference(descriptor, type, collectedTypes));
+			retainedTypes.put(descriptor, type);
+		}
+		return type;
+	}
+
+	private void removeCollectedTypes() {
+		Reference<? extends TypeDefinition> collected;
+		while ((collected = collectedTypes.poll()) != null) {
+			DefinitionReference reference = (DefinitionReference) collected;
+			types.remove(reference.descriptor, reference);
+		}
+	}
+
+	private static boolean isJdkType(String descriptor) {
+		for (String prefix : JDK_PACKAGE_PREFIXES) {
+			if (descriptor.startsWith(prefix))
+				return true;
+		}
+		return false;
+	}
+
+	private static final class DefinitionReference extends SoftReference<TypeDefinition> {
+		private final String descriptor;
+
+		DefinitionReference(String descriptor, TypeDefinition type, ReferenceQueue<TypeDefinition> queue) {
+			super(type, queue);
+			this.descriptor = descriptor;
+		}
+	}
+}
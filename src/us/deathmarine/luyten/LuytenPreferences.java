@@ -14,12 +14,29 @@ public class LuytenPreferences {
 	private String themeXml = DEFAULT_THEME_XML;
 	private String fileOpenCurrentDirectory = "";
 	private String fileSaveCurrentDirectory = "";
+	// JDK 9+ whose runtime image has the JDK types, empty: the running JDK
+	private String jdkHome = "";
 	private int font_size = 10;
+	// 0: one worker per available processor
+	private int decompilerThreadCount = 0;
+	private int decompilationCacheSizeMb = 256;
+	private int memoryCacheSizeMb = 64;
+	// background class tabs kept decompiled, the least recently shown hibernate
+	private int awakeBackgroundTabCount = 10;
+	// used heap at which all background class tabs hibernate
+	private int hibernationHeapPercent = 80;
 
 	private boolean isPackageExplorerStyle = true;
 	private boolean isFilterOutInnerClassEntries = true;
 	private boolean isSingleClickOpenEnabled = true;
 	private boolean isExitByEscEnabled = false;
+	private boolean isDecompilationCacheEnabled = true;
+	private boolean isSearchIndexEnabled = true;
+	private boolean isMemoryCacheEnabled = true;
+	private boolean isPrefetchEnabled = false;
+	private boolean isTabHibernationEnabled = true;
+	private boolean isWarmUpEnabled = true;
+	private boolean isWarmUpDecompileEnabled = true;
 
 	public String getThemeXml() {
 		return themeXml;
@@ -45,6 +62,14 @@ public class LuytenPreferences {
 		this.fileSaveCurrentDirectory = fileSaveCurrentDirectory;
 	}
 
+	public String getJdkHome() {
+		return jdkHome;
+	}
+
+	public void setJdkHome(String jdkHome) {
+		this.jdkHome = jdkHome;
+	}
+
 	public boolean isPackageExplorerStyle() {
 		return isPackageExplorerStyle;
 	}
@@ -84,4 +109,100 @@ public class LuytenPreferences {
 	public void setFont_size(int font_size) {
 		this.font_size = font_size;
 	}
+
+	public int getDecompilerThreadCount() {
+		return decompilerThreadCount;
+	}
+
+	public void setDecompilerThreadCount(int decompilerThreadCount) {
+		this.decompilerThreadCount = decompilerThreadCount;
+	}
+
+	public int getDecompilationCacheSizeMb() {
+		return decompilationCacheSizeMb;
+	}
+
+	public void setDecompilationCacheSizeMb(int decompilationCacheSizeMb) {
+		this.decompilationCacheSizeMb = decompilationCacheSizeMb;
+	}
+
+	public boolean isDecompilationCacheEnabled() {
+		return isDecompilationCacheEnabled;
+	}
+
+	public void setDecompilationCacheEnabled(boolean isDecompilationCacheEnabled) {
+		this.isDecompilationCacheEnabled = isDecompilationCacheEnabled;
+	}
+
+	public boolean isSearchIndexEnabled() {
+		return isSearchIndexEnabled;
+	}
+
+	public void setSearchIndexEnabled(boolean isSearchIndexEnabled) {
+		this.isSearchIndexEnabled = isSearchIndexEnabled;
+	}
+
+	public int getMemoryCacheSizeMb() {
+		return memoryCacheSizeMb;
+	}
+
+	public void setMemoryCacheSizeMb(int memoryCacheSizeMb) {
+		this.memoryCacheSizeMb = memoryCacheSizeMb;
+	}
+
+	public boolean isMemoryCacheEnabled() {
+		return isMemoryCacheEnabled;
+	}
+
+	public void setMemoryCacheEnabled(boolean isMemoryCacheEnabled) {
+		this.isMemoryCacheEnabled = isMemoryCacheEnabled;
+	}
+
+	public boolean isPrefetchEnabled() {
+		return isPrefetchEnabled;
+	}
+
+	public void setPrefetchEnabled(boolean isPrefetchEnabled) {
+		this.isPrefetchEnabled = isPrefetchEnabled;
+	}
+
+	public int getAwakeBackgroundTabCount() {
+		return awakeBackgroundTabCount;
+	}
+
+	public void setAwakeBackgroundTabCount(int awakeBackgroundTabCount) {
+		this.awakeBackgroundTabCount = awakeBackgroundTabCount;
+	}
+
+	public int getHibernationHeapPercent() {
+		return hibernationHeapPercent;
+	}
+
+	public void setHibernationHeapPercent(int hibernationHeapPercent) {
+		this.hibernationHeapPercent = hibernationHeapPercent;
+	}
+
+	public boolean isTabHibernationEnabled() {
+		return isTabHibernationEnabled;
+	}
+
+	public void setTabHibernationEnabled(boolean isTabHibernationEnabled) {
+		this.isTabHibernationEnabled = isTabHibernationEnabled;
+	}
+
+	public boolean isWarmUpEnabled() {
+		return isWarmUpEnabled;
+	}
+
+	public void setWarmUpEnabled(boolean isWarmUpEnabled) {
+		this.isWarmUpEnabled = isWarmUpEnabled;
+	}
+
+	public boolean isWarmUpDecompileEnabled() {
+		return isWarmUpDecompileEnabled;
+	}
+
+	public void setWarmUpDecompileEnabled(boolean isWarmUpDecompileEnabled) {
+		this.isWarmUpDecompileEnabled = isWarmUpDecompileEnabled;
+	}
 }
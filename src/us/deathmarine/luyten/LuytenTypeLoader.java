@@ -4,31 +4,172 @@ import com.strobel.assembler.InputTypeLoader;
 import com.strobel.assembler.metadata.Buffer;
 import com.strobel.assembler.metadata.ITypeLoader;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * Asks its type loaders in order, like a chain, but remembers which loader
+ * owns a type: jar loaders are indexed by the class entries of their jar,
+ * found types are answered by their owner directly and types found nowhere
+ * are not searched again.
+ */
 public final class LuytenTypeLoader implements ITypeLoader {
 	private final List<ITypeLoader> _typeLoaders;
+	// class names of each indexed loader's jar
+	private final Map<ITypeLoader, Set<String>> _indexedNames = new ConcurrentHashMap<>();
+	// class name -> first indexed loader with that class entry
+	private final Map<String, ITypeLoader> _index = new ConcurrentHashMap<>();
+	// class name -> loader which loaded it
+	private final Map<String, ITypeLoader> _owners = new ConcurrentHashMap<>();
+	private final Set<String> _misses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-	public LuytenTypeLoader() {
-		_typeLoaders = new ArrayList<ITypeLoader>();
+	private final JrtTypeLoader _jrtTypeLoader;
+
+	/**
+	 * @param jrtTypeLoader
+	 *            JDK classes from a runtime image, asked first. null: none
+	 *            (JDK 8), the JDK classes come from the class path
+	 */
+	public LuytenTypeLoader(JrtTypeLoader jrtTypeLoader) {
+		_typeLoaders = new CopyOnWriteArrayList<ITypeLoader>();
+		_jrtTypeLoader = jrtTypeLoader;
+		if (jrtTypeLoader != null)
+			_typeLoaders.add(jrtTypeLoader);
 		_typeLoaders.add(new InputTypeLoader());
 	}
 
+	public JrtTypeLoader getJrtTypeLoader() {
+		return _jrtTypeLoader;
+	}
+
+	/**
+	 * Read only, use addTypeLoader and removeTypeLoader
+	 */
 	public final List<ITypeLoader> getTypeLoaders() {
-		return _typeLoaders;
+		return Collections.unmodifiableList(_typeLoaders);
+	}
+
+	/**
+	 * Appends a loader which is asked for every type (not indexed)
+	 */
+	public void addTypeLoader(ITypeLoader typeLoader) {
+		synchronized (_typeLoaders) {
+			_typeLoaders.add(typeLoader);
+			_misses.clear();
+		}
+	}
+
+	/**
+	 * Appends a loader of the archive's classes, indexed by the archive's
+	 * class entries
+	 */
+	public void addTypeLoader(ITypeLoader typeLoader, ZipArchive archive) {
+		Set<String> names = new HashSet<>();
+		for (int entry = 0; entry < archive.size(); entry++) {
+			String name = archive.getName(entry);
+			if (name.endsWith(".class")) {
+				names.add(name.substring(0, name.length() - ".class".length()));
+			}
+		}
+		synchronized (_typeLoaders) {
+			_indexedNames.put(typeLoader, names);
+			for (String name : names) {
+				if (!_index.containsKey(name)) {
+					_index.put(name, typeLoader);
+				}
+			}
+			_typeLoaders.add(typeLoader);
+			_misses.clear();
+		}
+	}
+
+	public void removeTypeLoader(ITypeLoader typeLoader) {
+		synchronized (_typeLoaders) {
+			if (!_typeLoaders.remove(typeLoader))
+				return;
+			_owners.values().removeAll(Collections.singleton(typeLoader));
+			if (_indexedNames.remove(typeLoader) != null) {
+				// another jar may have the same classes
+				_index.clear();
+				for (ITypeLoader loader : _typeLoaders) {
+					Set<String> names = _indexedNames.get(loader);
+					if (names == null)
+						continue;
+					for (String name : names) {
+						if (!_index.containsKey(name)) {
+							_index.put(name, loader);
+						}
+					}
+				}
+			}
+		}
 	}
 
 	@Override
 	public boolean tryLoadType(final String internalName, final Buffer buffer) {
+		ITypeLoader owner = _owners.get(internalName);
+		if (owner != null) {
+			if (owner.tryLoadType(internalName, buffer)) {
+				return true;
+			}
+			buffer.reset();
+			_owners.remove(internalName);
+		} else if (_misses.contains(internalName)) {
+			return false;
+		}
+
+		owner = findOwner(internalName, buffer);
+		if (owner == null) {
+			_misses.add(internalName);
+			return false;
+		}
+		_owners.put(internalName, owner);
+		// loaded by its path: a jar loader answers its declared name from now on
+		String declaredName = readClassName(buffer);
+		if (declaredName != null && !declaredName.equals(internalName)) {
+			_misses.remove(declaredName);
+		}
+		return true;
+	}
+
+	private ITypeLoader findOwner(final String internalName, final Buffer buffer) {
+		ITypeLoader indexedOwner = _index.get(internalName);
+		// same order as the chain, skipping jars without the class entry
 		for (final ITypeLoader typeLoader : _typeLoaders) {
+			if (_indexedNames.containsKey(typeLoader) && typeLoader != indexedOwner)
+				continue;
 			if (typeLoader.tryLoadType(internalName, buffer)) {
-				return true;
+				return typeLoader;
 			}
 
 			buffer.reset();
 		}
+		// jar loaders also find classes stored under another path
+		// (e.g. WEB-INF/classes/) once these were opened by their path
+		for (final ITypeLoader typeLoader : _typeLoaders) {
+			if (!_indexedNames.containsKey(typeLoader) || typeLoader == indexedOwner)
+				continue;
+			if (typeLoader.tryLoadType(internalName, buffer)) {
+				return typeLoader;
+			}
+
+			buffer.reset();
+		}
+
+		return null;
+	}
 
-		return false;
+	// this_class of the loaded class file, null if it cannot be read
+	private static String readClassName(Buffer buffer) {
+		try {
+			return new ClassFileScanner(buffer.array(), buffer.size()).getClassName();
+		} catch (Exception e) {
+			return null;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -68,6 +68,12 @@ public class MainMenuBar extends JMenuBar {
 	private JCheckBoxMenuItem filterOutInnerClassEntries;
 	private JCheckBoxMenuItem singleClickOpenEnabled;
 	private JCheckBoxMenuItem exitByEscEnabled;
+	private JCheckBoxMenuItem decompilationCacheEnabled;
+	private JCheckBoxMenuItem memoryCacheEnabled;
+	private JCheckBoxMenuItem prefetchEnabled;
+	private JCheckBoxMenuItem tabHibernationEnabled;
+	private JCheckBoxMenuItem warmUpEnabled;
+	private JCheckBoxMenuItem warmUpDecompileEnabled;
 	private DecompilerSettings settings;
 	private LuytenPreferences luytenPrefs;
 
@@ -419,6 +425,195 @@ public class MainMenuBar extends JMenuBar {
 			}
 		});
 		operationMenu.add(exitByEscEnabled);
+		operationMenu.addSeparator();
+
+		JMenuItem decompilerThreads = new JMenuItem("Decompiler Threads...");
+		decompilerThreads.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				int current = luytenPrefs.getDecompilerThreadCount();
+				String input = JOptionPane.showInputDialog(mainWindow,
+						"Number of decompiler threads (0 = one per processor):",
+						String.valueOf(current));
+				if (input == null)
+					return;
+				try {
+					int threads = Integer.parseInt(input.trim());
+					luytenPrefs.setDecompilerThreadCount(threads > 0 ? threads : 0);
+					DecompilerScheduler.getDefault().setThreadCount(luytenPrefs.getDecompilerThreadCount());
+				} catch (NumberFormatException nfe) {
+					mainWindow.getLabel().setText("Invalid thread count: " + input);
+				}
+			}
+		});
+		operationMenu.add(decompilerThreads);
+
+		JMenuItem jdkHome = new JMenuItem("JDK Home...");
+		jdkHome.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				String input = JOptionPane.showInputDialog(mainWindow,
+						"JDK 9+ home for the JDK types (empty = the running JDK, applies after restart):",
+						luytenPrefs.getJdkHome());
+				if (input == null)
+					return;
+				String home = input.trim();
+				if (!home.isEmpty() && !new File(home, "lib" + File.separator + "jrt-fs.jar").isFile()) {
+					mainWindow.getLabel().setText("No JDK 9+ runtime image in: " + home);
+					return;
+				}
+				luytenPrefs.setJdkHome(home);
+			}
+		});
+		operationMenu.add(jdkHome);
+		operationMenu.addSeparator();
+
+		decompilationCacheEnabled = new JCheckBoxMenuItem("Decompilation Cache");
+		decompilationCacheEnabled.setSelected(luytenPrefs.isDecompilationCacheEnabled());
+		decompilationCacheEnabled.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				luytenPrefs.setDecompilationCacheEnabled(decompilationCacheEnabled.isSelected());
+			}
+		});
+		operationMenu.add(decompilationCacheEnabled);
+
+		JMenuItem decompilationCacheSize = new JMenuItem("Decompilation Cache Size...");
+		decompilationCacheSize.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				int current = luytenPrefs.getDecompilationCacheSizeMb();
+				String input = JOptionPane.showInputDialog(mainWindow, "Decompilation cache size (MB):",
+						String.valueOf(current));
+				if (input == null)
+					return;
+				try {
+					int sizeMb = Integer.parseInt(input.trim());
+					luytenPrefs.setDecompilationCacheSizeMb(sizeMb > 0 ? sizeMb : 1);
+				} catch (NumberFormatException nfe) {
+					mainWindow.getLabel().setText("Invalid cache size: " + input);
+				}
+			}
+		});
+		operationMenu.add(decompilationCacheSize);
+
+		JMenuItem clearDecompilationCache = new JMenuItem("Clear Decompilation Cache");
+		clearDecompilationCache.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				mainWindow.onClearDecompilationCacheMenu();
+			}
+		});
+		operationMenu.add(clearDecompilationCache);
+		operationMenu.addSeparator();
+
+		memoryCacheEnabled = new JCheckBoxMenuItem("Memory Cache");
+		memoryCacheEnabled.setSelected(luytenPrefs.isMemoryCacheEnabled());
+		memoryCacheEnabled.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				luytenPrefs.setMemoryCacheEnabled(memoryCacheEnabled.isSelected());
+			}
+		});
+		operationMenu.add(memoryCacheEnabled);
+
+		prefetchEnabled = new JCheckBoxMenuItem("Prefetch Likely Next Classes");
+		prefetchEnabled.setSelected(luytenPrefs.isPrefetchEnabled());
+		prefetchEnabled.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				luytenPrefs.setPrefetchEnabled(prefetchEnabled.isSelected());
+			}
+		});
+		operationMenu.add(prefetchEnabled);
+
+		warmUpEnabled = new JCheckBoxMenuItem("Warm Up Opened Jars");
+		warmUpEnabled.setSelected(luytenPrefs.isWarmUpEnabled());
+		warmUpEnabled.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				luytenPrefs.setWarmUpEnabled(warmUpEnabled.isSelected());
+			}
+		});
+		operationMenu.add(warmUpEnabled);
+
+		warmUpDecompileEnabled = new JCheckBoxMenuItem("Warm Up Most Opened Classes");
+		warmUpDecompileEnabled.setSelected(luytenPrefs.isWarmUpDecompileEnabled());
+		warmUpDecompileEnabled.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				luytenPrefs.setWarmUpDecompileEnabled(warmUpDecompileEnabled.isSelected());
+			}
+		});
+		operationMenu.add(warmUpDecompileEnabled);
+
+		JMenuItem memoryCacheSize = new JMenuItem("Memory Cache Size...");
+		memoryCacheSize.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				int current = luytenPrefs.getMemoryCacheSizeMb();
+				String input = JOptionPane.showInputDialog(mainWindow, "Memory cache size (MB):",
+						String.valueOf(current));
+				if (input == null)
+					return;
+				try {
+					int sizeMb = Integer.parseInt(input.trim());
+					luytenPrefs.setMemoryCacheSizeMb(sizeMb > 0 ? sizeMb : 1);
+				} catch (NumberFormatException nfe) {
+					mainWindow.getLabel().setText("Invalid cache size: " + input);
+				}
+			}
+		});
+		operationMenu.add(memoryCacheSize);
+		operationMenu.addSeparator();
+
+		tabHibernationEnabled = new JCheckBoxMenuItem("Hibernate Background Tabs");
+		tabHibernationEnabled.setSelected(luytenPrefs.isTabHibernationEnabled());
+		tabHibernationEnabled.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				luytenPrefs.setTabHibernationEnabled(tabHibernationEnabled.isSelected());
+			}
+		});
+		operationMenu.add(tabHibernationEnabled);
+
+		JMenuItem awakeBackgroundTabs = new JMenuItem("Awake Background Tabs...");
+		awakeBackgroundTabs.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				int current = luytenPrefs.getAwakeBackgroundTabCount();
+				String input = JOptionPane.showInputDialog(mainWindow, "Background tabs kept decompiled:",
+						String.valueOf(current));
+				if (input == null)
+					return;
+				try {
+					int count = Integer.parseInt(input.trim());
+					luytenPrefs.setAwakeBackgroundTabCount(count > 0 ? count : 0);
+				} catch (NumberFormatException nfe) {
+					mainWindow.getLabel().setText("Invalid tab count: " + input);
+				}
+			}
+		});
+		operationMenu.add(awakeBackgroundTabs);
+
+		JMenuItem hibernationHeapPercent = new JMenuItem("Hibernation Heap Threshold...");
+		hibernationHeapPercent.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				int current = luytenPrefs.getHibernationHeapPercent();
+				String input = JOptionPane.showInputDialog(mainWindow, "Hibernate background tabs at used heap (%):",
+						String.valueOf(current));
+				if (input == null)
+					return;
+				try {
+					int percent = Integer.parseInt(input.trim());
+					luytenPrefs.setHibernationHeapPercent(Math.max(1, Math.min(percent, 100)));
+				} catch (NumberFormatException nfe) {
+					mainWindow.getLabel().setText("Invalid heap threshold: " + input);
+				}
+			}
+		});
+		operationMenu.add(hibernationHeapPercent);
 	}
 
 	private void buildSettingsMenu(JMenu settingsMenu, ConfigSaver configSaver) {
@@ -426,13 +621,15 @@ public class MainMenuBar extends JMenuBar {
 		ActionListener settingsChanged = new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				new Thread() {
+				DecompilerScheduler.getDefault().submit(DecompilerScheduler.Priority.FOREGROUND, null, new Runnable() {
 					@Override
 					public void run() {
 						populateSettingsFromSettingsMenu();
+						// decompiled with the old settings
+						DecompilerScheduler.getDefault().cancelSettingsDependent();
 						mainWindow.onSettingsChanged();
 					}
-				}.start();
+				});
 			}
 		};
 		flattenSwitchBlocks = new JCheckBoxMenuItem("Flatten Switch Blocks");
@@ -544,6 +741,22 @@ public class MainMenuBar extends JMenuBar {
 			}
 		});
 		menuDebug.add(menuItem);
+		menuItem = new JMenuItem("Decompilation Cache Statistics");
+		menuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				mainWindow.onDecompilationCacheStatisticsMenu();
+			}
+		});
+		menuDebug.add(menuItem);
+		menuItem = new JMenuItem("Decompiler Scheduler Statistics");
+		menuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				mainWindow.onDecompilerSchedulerStatisticsMenu();
+			}
+		});
+		menuDebug.add(menuItem);
 		helpMenu.add(menuDebug);
 		menuItem = new JMenuItem("About");
 		menuItem.addActionListener(new ActionListener() {
@@ -589,8 +802,7 @@ public class MainMenuBar extends JMenuBar {
 	}
 
 	private void populateSettingsFromSettingsMenu() {
-		// synchronized: do not disturb decompiler at work (synchronize every
-		// time before run decompiler)
+		// synchronized: the snapshot is copied with all the changes or none
 		synchronized (settings) {
 			settings.setFlattenSwitchBlocks(flattenSwitchBlocks.isSelected());
 			settings.setForceExplicitImports(forceExplicitImports.isSelected());
@@ -627,6 +839,7 @@ public class MainMenuBar extends JMenuBar {
 			}
 			settings.setIncludeLineNumbersInBytecode(bytecodeLineNumbers.isSelected());
 		}
+		ConfigSaver.getLoadedInstance().publishDecompilerSettings();
 	}
 
 	private class ThemeAction extends AbstractAction {
@@ -37,6 +37,7 @@ public class MainWindow extends JFrame {
 	private JLabel label;
 	FindBox findBox;
 	private FindAllBox findAllBox;
+	private FindUsagesBox findUsagesBox;
 	private ConfigSaver configSaver;
 	private WindowPosition windowPosition;
 	private LuytenPreferences luytenPrefs;
@@ -133,11 +134,6 @@ public class MainWindow extends JFrame {
 			this.setExitOnEscWhenEnabled(jarModel);
 		}
 
-		if (jarModel != null && (fileFromCommandLine.getName().toLowerCase().endsWith(".jar")
-				|| fileFromCommandLine.getName().toLowerCase().endsWith(".zip"))) {
-			jarModel.startWarmUpThread();
-		}
-		
 		if(RecentFiles.load() > 0) mainMenuBar.updateRecentFiles();
 	}
 
@@ -252,6 +248,11 @@ public class MainWindow extends JFrame {
 
 	public void onFindMenu() {
 		try {
+			PagedViewer pagedViewer = this.getSelectedModel().getCurrentPagedViewer();
+			if (pagedViewer != null) {
+				pagedViewer.focusFind();
+				return;
+			}
 			RSyntaxTextArea pane = this.getSelectedModel().getCurrentTextArea();
 			if (pane != null) {
 				if (findBox == null)
@@ -310,6 +311,52 @@ public class MainWindow extends JFrame {
 		}
 	}
 
+	public void onClearDecompilationCacheMenu() {
+		new Thread() {
+			@Override
+			public void run() {
+				DecompilationCache cache = DecompilationCache.getDefault();
+				if (cache == null) {
+					label.setText("Decompilation cache is disabled");
+					return;
+				}
+				cache.clear();
+				label.setText("Decompilation cache cleared");
+			}
+		}.start();
+	}
+
+	public void onDecompilationCacheStatisticsMenu() {
+		DecompilationCache cache = DecompilationCache.getDefault();
+		MemoryDecompilationCache memoryCache = MemoryDecompilationCache.getDefault();
+		if (cache == null && memoryCache == null) {
+			label.setText("Decompilation cache is disabled");
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		if (cache != null) {
+			sb.append("Directory: " + cache.getDirectory() + "\n");
+			sb.append("Entries: " + cache.getEntryCount() + "\n");
+			sb.append("Size: " + (cache.getSize() / 1024) + " KB of "
+					+ ConfigSaver.getLoadedInstance().getLuytenPreferences().getDecompilationCacheSizeMb() + " MB\n");
+			sb.append("Hits: " + cache.getHitCount() + "\n");
+			sb.append("Misses: " + cache.getMissCount() + "\n");
+		}
+		if (memoryCache != null) {
+			sb.append("\nMemory\n");
+			sb.append("Entries: " + memoryCache.getEntryCount() + "\n");
+			sb.append("Size: " + (memoryCache.getSize() / 1024) + " KB of " + (memoryCache.getMaxSize() / 1024)
+					+ " KB\n");
+			sb.append("Hits: " + memoryCache.getHitCount() + "\n");
+			sb.append("Misses: " + memoryCache.getMissCount() + "\n");
+		}
+		this.getSelectedModel().show("Debug", sb.toString());
+	}
+
+	public void onDecompilerSchedulerStatisticsMenu() {
+		this.getSelectedModel().show("Debug", DecompilerScheduler.getDefault().getStatistics());
+	}
+
 	private static Iterator<?> list(ClassLoader CL) {
 		Class<?> CL_class = CL.getClass();
 		while (CL_class != java.lang.ClassLoader.class) {
@@ -383,8 +430,19 @@ public class MainWindow extends JFrame {
 		}
 	}
 
-	public void onNavigationRequest(String uniqueStr) {
-		this.getSelectedModel().navigateTo(uniqueStr);
+	public void onNavigationRequest(LinkKey linkKey) {
+		this.getSelectedModel().navigateTo(linkKey);
+	}
+
+	public void onFindUsagesRequest(LinkKey linkKey, String description) {
+		try {
+			if (findUsagesBox == null)
+				findUsagesBox = new FindUsagesBox(this);
+			findUsagesBox.setLocationRelativeTo(this);
+			findUsagesBox.findUsages(this.getSelectedModel().getOpenedFile(), linkKey, description);
+		} catch (Exception e) {
+			Luyten.showExceptionDialog("Exception!", e);
+		}
 	}
 
 	private void adjustWindowPositionBySavedState() {
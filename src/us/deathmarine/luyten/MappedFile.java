@@ -0,0 +1,133 @@
+package us.deathmarine.luyten;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Bytes of a file mapped read-only into memory instead of the heap. An
+ * entry of a jar is inflated to a temporary file first, which is deleted on
+ * close().
+ */
+public class MappedFile {
+
+	public interface Listener {
+
+		/**
+		 * @return false to stop copying
+		 */
+		public boolean onCopied(long copiedLength);
+	}
+
+	// a single mapping is limited to Integer.MAX_VALUE bytes
+	private static final long CHUNK_SIZE = 1L << 30;
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+	private final boolean isTemporary;
+	private final long length;
+	private final MappedByteBuffer[] chunks;
+
+	private MappedFile(File file, boolean isTemporary) throws IOException {
+		this.file = file;
+		this.isTemporary = isTemporary;
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+				FileChannel channel = randomAccessFile.getChannel();) {
+			length = channel.size();
+			chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+			for (int i = 0; i < chunks.length; i++) {
+				long position = i * CHUNK_SIZE;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, length - position));
+			}
+		}
+	}
+
+	/**
+	 * Maps a file on disk as it is
+	 */
+	public static MappedFile map(File file) throws IOException {
+		return new MappedFile(file, false);
+	}
+
+	/**
+	 * Inflates the stream to a temporary file and maps it
+	 *
+	 * @param listener
+	 *            may be null
+	 * @return null if the listener stopped the copy
+	 */
+	public static MappedFile copyAndMap(InputStream in, String name, Listener listener) throws IOException {
+		File tempFile = File.createTempFile("luyten-", "-" + name.replaceAll("[^\\w\\.-]", "_"));
+		tempFile.deleteOnExit();
+		boolean isMapped = false;
+		try {
+			try (OutputStream out = new FileOutputStream(tempFile);) {
+				byte[] buffer = new byte[COPY_BUFFER_SIZE];
+				long copiedLength = 0;
+				int count;
+				while ((count = in.read(buffer)) >= 0) {
+					out.write(buffer, 0, count);
+					copiedLength += count;
+					if (listener != null && !listener.onCopied(copiedLength))
+						return null;
+				}
+			}
+			// mapped once the copy is written and closed
+			MappedFile mappedFile = new MappedFile(tempFile, true);
+			isMapped = true;
+			return mappedFile;
+		} finally {
+			if (!isMapped)
+				tempFile.delete();
+		}
+	}
+
+	public byte getByte(long offset) {
+		return chunks[(int) (offset / CHUNK_SIZE)].get((int) (offset % CHUNK_SIZE));
+	}
+
+	/**
+	 * @return the count of bytes read, less than dest's length at the end
+	 */
+	public int getBytes(long offset, byte[] dest) {
+		return getBytes(offset, dest, 0, dest.length);
+	}
+
+	/**
+	 * @return the count of bytes read, less than count at the end
+	 */
+	public int getBytes(long offset, byte[] dest, int destOffset, int count) {
+		count = (int) Math.max(Math.min(count, length - offset), 0);
+		int copied = 0;
+		while (copied < count) {
+			long position = offset + copied;
+			// a duplicate: the position of the shared chunk is not touched
+			ByteBuffer chunk = chunks[(int) (position / CHUNK_SIZE)].duplicate();
+			chunk.position((int) (position % CHUNK_SIZE));
+			int chunkCount = Math.min(count - copied, chunk.remaining());
+			chunk.get(dest, destOffset + copied, chunkCount);
+			copied += chunkCount;
+		}
+		return count;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Deletes a temporary file, the mappings are released by the GC
+	 */
+	public void close() {
+		if (isTemporary && !file.delete()) {
+			// still mapped (Windows): deleted on exit
+			file.deleteOnExit();
+		}
+	}
+}
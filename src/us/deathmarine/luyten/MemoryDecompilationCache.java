@@ -0,0 +1,168 @@
+package us.deathmarine.luyten;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recently decompiled sources kept in memory, with the same keys as the
+ * DecompilationCache on disk (class bytes and settings snapshot), and the
+ * link descriptions their tabs resolved. A closed or prefetched class opens
+ * without decompiling. The least recently used entries are dropped when the
+ * estimated size of all entries exceeds the budget.
+ */
+public class MemoryDecompilationCache {
+
+	// rough heap cost of a map entry
+	private static final int MAP_ENTRY_BYTES = 64;
+
+	private static MemoryDecompilationCache theInstance;
+
+	private static final class SizedEntry {
+		final DecompilationCache.Entry entry;
+		// link key -> readable link description
+		final Map<LinkKey, String> linkDescriptions;
+		final long size;
+
+		SizedEntry(String key, DecompilationCache.Entry entry, Map<LinkKey, String> linkDescriptions) {
+			this.entry = entry;
+			this.linkDescriptions = linkDescriptions;
+			this.size = estimateSize(key, entry, linkDescriptions);
+		}
+	}
+
+	// least recently used first
+	private final LinkedHashMap<String, SizedEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalSize;
+	private long maxSize;
+	private long hitCount;
+	private long missCount;
+
+	public MemoryDecompilationCache(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return the cache of the tabs and the prefetcher, or null if it is
+	 *         disabled in the preferences
+	 */
+	public static MemoryDecompilationCache getDefault() {
+		LuytenPreferences luytenPrefs = ConfigSaver.getLoadedInstance().getLuytenPreferences();
+		if (!luytenPrefs.isMemoryCacheEnabled())
+			return null;
+		synchronized (MemoryDecompilationCache.class) {
+			if (theInstance == null)
+				theInstance = new MemoryDecompilationCache(0);
+		}
+		theInstance.setMaxSize(Math.max(luytenPrefs.getMemoryCacheSizeMb(), 1) * 1024L * 1024L);
+		return theInstance;
+	}
+
+	/**
+	 * @return the entry, or null on a miss (or a null key)
+	 */
+	public synchronized DecompilationCache.Entry get(String key) {
+		SizedEntry sizedEntry = key != null ? entries.get(key) : null;
+		if (sizedEntry == null) {
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		return sizedEntry.entry;
+	}
+
+	public synchronized boolean contains(String key) {
+		return key != null && entries.containsKey(key);
+	}
+
+	/**
+	 * Entries are shared with their readers, they must not be changed
+	 */
+	public synchronized void put(String key, DecompilationCache.Entry entry) {
+		if (key == null || entry == null || entry.getTextContent() == null)
+			return;
+		SizedEntry oldEntry = entries.get(key);
+		Map<LinkKey, String> linkDescriptions = oldEntry != null ? oldEntry.linkDescriptions
+				: Collections.<LinkKey, String> emptyMap();
+		replace(key, new SizedEntry(key, entry, linkDescriptions));
+	}
+
+	/**
+	 * @return the link descriptions stored with the entry, empty on a miss
+	 */
+	public synchronized Map<LinkKey, String> getLinkDescriptions(String key) {
+		SizedEntry sizedEntry = key != null ? entries.get(key) : null;
+		return sizedEntry != null ? sizedEntry.linkDescriptions : Collections.<LinkKey, String> emptyMap();
+	}
+
+	/**
+	 * Keeps the link descriptions with the entry, if it is still cached
+	 */
+	public synchronized void putLinkDescriptions(String key, Map<LinkKey, String> linkDescriptions) {
+		SizedEntry sizedEntry = key != null ? entries.get(key) : null;
+		if (sizedEntry != null) {
+			replace(key, new SizedEntry(key, sizedEntry.entry,
+					Collections.unmodifiableMap(new HashMap<>(linkDescriptions))));
+		}
+	}
+
+	private void replace(String key, SizedEntry sizedEntry) {
+		SizedEntry oldEntry = entries.put(key, sizedEntry);
+		if (oldEntry != null)
+			totalSize -= oldEntry.size;
+		totalSize += sizedEntry.size;
+		evict();
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		totalSize = 0;
+		hitCount = 0;
+		missCount = 0;
+	}
+
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		evict();
+	}
+
+	public synchronized long getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized long getSize() {
+		return totalSize;
+	}
+
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	private void evict() {
+		Iterator<SizedEntry> it = entries.values().iterator();
+		while (totalSize > maxSize && it.hasNext()) {
+			totalSize -= it.next().size;
+			it.remove();
+		}
+	}
+
+	private static long estimateSize(String key, DecompilationCache.Entry entry,
+			Map<LinkKey, String> linkDescriptions) {
+		long size = 2L * (key.length() + entry.getTextContent().length());
+		// the keys are shared with the link index
+		for (String description : linkDescriptions.values()) {
+			size += 2L * description.length() + MAP_ENTRY_BYTES;
+		}
+		return size + entry.getLinkIndex().estimateSize();
+	}
+}
@@ -6,26 +6,23 @@ import java.awt.GridBagLayout;
 import java.awt.Insets;
 import java.awt.Toolkit;
 import java.awt.event.*;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Enumeration;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.concurrent.Callable;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
@@ -33,7 +30,9 @@ import javax.swing.BoxLayout;
 import javax.swing.ImageIcon;
 import javax.swing.JComponent;
 import javax.swing.JLabel;
+import javax.swing.JMenuItem;
 import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
 import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
@@ -53,17 +52,14 @@ import javax.swing.tree.TreeSelectionModel;
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
 import org.fife.ui.rsyntaxtextarea.Theme;
 import org.fife.ui.rtextarea.RTextScrollPane;
-import com.strobel.assembler.InputTypeLoader;
 import com.strobel.assembler.metadata.ITypeLoader;
-import com.strobel.assembler.metadata.JarTypeLoader;
 import com.strobel.assembler.metadata.MetadataSystem;
 import com.strobel.assembler.metadata.TypeDefinition;
 import com.strobel.assembler.metadata.TypeReference;
 import com.strobel.core.StringUtilities;
 import com.strobel.core.VerifyArgument;
-import com.strobel.decompiler.DecompilationOptions;
 import com.strobel.decompiler.DecompilerSettings;
-import com.strobel.decompiler.PlainTextOutput;
+import com.strobel.decompiler.languages.Languages;
 
 /**
  * Jar-level model
@@ -74,22 +70,24 @@ public class Model extends JSplitPane {
 	private static final long MAX_JAR_FILE_SIZE_BYTES = 10_000_000_000L;
 	private static final long MAX_UNPACKED_FILE_SIZE_BYTES = 10_000_000L;
 
-	private static LuytenTypeLoader typeLoader = new LuytenTypeLoader();
-	public static MetadataSystem metadataSystem = new MetadataSystem(typeLoader);
+	private final LuytenTypeLoader typeLoader = new LuytenTypeLoader(JrtTypeLoader.getDefault());
+	private LuytenMetadataSystem metadataSystem = new LuytenMetadataSystem(typeLoader);
 
 	private JTree tree;
 	public JTabbedPane house;
 	private File file;
-	private DecompilerSettings settings;
-	private DecompilationOptions decompilationOptions;
 	private Theme theme;
 	private MainWindow mainWindow;
 	private JProgressBar bar;
 	private JLabel label;
 	private HashSet<OpenFile> hmap = new HashSet<OpenFile>();
+	private HashSet<PagedViewer> pagedViewers = new HashSet<PagedViewer>();
 	private Set<String> treeExpansionState;
 	private boolean open = false;
 	private State state;
+	private Prefetcher prefetcher;
+	private JarWarmUp warmUp;
+	private OpenCounts openCounts;
 	private ConfigSaver configSaver;
 	private LuytenPreferences luytenPrefs;
 
@@ -99,7 +97,6 @@ public class Model extends JSplitPane {
 		this.setLabel(mainWindow.getLabel());
 
 		configSaver = ConfigSaver.getLoadedInstance();
-		settings = configSaver.getDecompilerSettings();
 		luytenPrefs = configSaver.getLuytenPreferences();
 
 		try {
@@ -127,8 +124,8 @@ public class Model extends JSplitPane {
 
 			@Override
 			public void keyPressed(KeyEvent e) {
-				if (e.getKeyCode() == KeyEvent.VK_ENTER) {
-					openEntryByTreePath(tree.getSelectionPath());
+				if (e.getKeyCode() == KeyEvent.VK_ENTER && tree.getSelectionPath() != null) {
+					openEntryInBackground(tree.getSelectionPath(), false);
 				}
 			}
 		});
@@ -171,10 +168,6 @@ public class Model extends JSplitPane {
 		this.setDividerLocation(250 % mainWindow.getWidth());
 		this.setLeftComponent(panel2);
 		this.setRightComponent(panel);
-
-		decompilationOptions = new DecompilationOptions();
-		decompilationOptions.setSettings(settings);
-		decompilationOptions.setFullDecompilation(true);
 	}
 
 	public void showLegal(String legalStr) {
@@ -193,34 +186,7 @@ public class Model extends JSplitPane {
 			@Override
 			public void run() {
 				try {
-					final String title = open.name;
-					RTextScrollPane rTextScrollPane = open.scrollPane;
-					int index = house.indexOfTab(title);
-					if (index > -1 && house.getTabComponentAt(index) != open.scrollPane) {
-						index = -1;
-						for (int i = 0; i < house.getTabCount(); i++) {
-							if (house.getComponentAt(i) == open.scrollPane) {
-								index = i;
-								break;
-							}
-						}
-					}
-					if (index < 0) {
-						house.addTab(title, rTextScrollPane);
-						index = house.indexOfComponent(rTextScrollPane);
-						house.setSelectedIndex(index);
-						Tab ct = new Tab(title, new Callable<Void>() {
-							@Override
-							public Void call() throws Exception {
-								int index = house.indexOfTab(title);
-								closeOpenTab(index);
-								return null;
-							}
-						});
-						house.setTabComponentAt(index, ct);
-					} else {
-						house.setSelectedIndex(index);
-					}
+					addOrSwitchToTab(open.name, open.scrollPane);
 					open.onAddedToScreen();
 				} catch (Exception e) {
 					Luyten.showExceptionDialog("Exception!", e);
@@ -229,7 +195,71 @@ public class Model extends JSplitPane {
 		});
 	}
 
+	private void addOrSwitchToTab(final PagedViewer viewer) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					addOrSwitchToTab(viewer.name, viewer);
+				} catch (Exception e) {
+					Luyten.showExceptionDialog("Exception!", e);
+				}
+			}
+		});
+	}
+
+	private void addOrSwitchToTab(final String title, Component component) {
+		int index = house.indexOfTab(title);
+		if (index > -1 && house.getTabComponentAt(index) != component) {
+			index = -1;
+			for (int i = 0; i < house.getTabCount(); i++) {
+				if (house.getComponentAt(i) == component) {
+					index = i;
+					break;
+				}
+			}
+		}
+		if (index < 0) {
+			house.addTab(title, component);
+			index = house.indexOfComponent(component);
+			house.setSelectedIndex(index);
+			Tab ct = new Tab(title, new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					int index = house.indexOfTab(title);
+					closeOpenTab(index);
+					return null;
+				}
+			});
+			house.setTabComponentAt(index, ct);
+		} else {
+			house.setSelectedIndex(index);
+		}
+	}
+
+	private void closeOpenTab(final OpenFile open) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				int index = house.indexOfComponent(open.scrollPane);
+				if (index > -1) {
+					closeOpenTab(index);
+				} else {
+					hmap.remove(open);
+					open.close();
+				}
+			}
+		});
+	}
+
 	public void closeOpenTab(int index) {
+		if (house.getComponentAt(index) instanceof PagedViewer) {
+			PagedViewer viewer = (PagedViewer) house.getComponentAt(index);
+			pagedViewers.remove(viewer);
+			house.remove(viewer);
+			viewer.close();
+			return;
+		}
 		RTextScrollPane co = (RTextScrollPane) house.getComponentAt(index);
 		RSyntaxTextArea pane = (RSyntaxTextArea) co.getViewport().getView();
 		OpenFile open = null;
@@ -257,6 +287,10 @@ public class Model extends JSplitPane {
 	private class TreeListener extends MouseAdapter {
 		@Override
 		public void mousePressed(MouseEvent event) {
+			if (event.isPopupTrigger()) {
+				showTreePopup(event);
+				return;
+			}
 			boolean isClickCountMatches = (event.getClickCount() == 1 && luytenPrefs.isSingleClickOpenEnabled())
 					|| (event.getClickCount() == 2 && !luytenPrefs.isSingleClickOpenEnabled());
 			if (!isClickCountMatches)
@@ -274,14 +308,85 @@ public class Model extends JSplitPane {
 			if (!isLeaf)
 				return;
 
-			new Thread() {
-				public void run() {
-					openEntryByTreePath(trp);
+			openEntryInBackground(trp, false);
+		}
+
+		@Override
+		public void mouseReleased(MouseEvent event) {
+			if (event.isPopupTrigger())
+				showTreePopup(event);
+		}
+
+		private void showTreePopup(MouseEvent event) {
+			final TreePath trp = tree.getPathForLocation(event.getX(), event.getY());
+			if (trp == null)
+				return;
+			Object lastPathComponent = trp.getLastPathComponent();
+			if (!(lastPathComponent instanceof TreeNode && ((TreeNode) lastPathComponent).isLeaf()))
+				return;
+			tree.setSelectionPath(trp);
+
+			JPopupMenu popup = new JPopupMenu();
+			JMenuItem menuItem = new JMenuItem("Open");
+			menuItem.addActionListener(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					openEntryInBackground(trp, false);
 				}
-			}.start();
+			});
+			popup.add(menuItem);
+			menuItem = new JMenuItem("View Bytes");
+			menuItem.addActionListener(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					openEntryInBackground(trp, true);
+				}
+			});
+			popup.add(menuItem);
+			popup.show(tree, event.getX(), event.getY());
 		}
 	}
 
+	/**
+	 * Opens the entry on the decompiler scheduler, dropping the entries and
+	 * navigations of this jar which are not done yet
+	 *
+	 * @param isRawBytes
+	 *            shows the bytes in hex instead of the text or the source
+	 */
+	private void openEntryInBackground(final TreePath trp, final boolean isRawBytes) {
+		DecompilerScheduler scheduler = DecompilerScheduler.getDefault();
+		scheduler.cancel(this, DecompilerScheduler.Priority.FOREGROUND);
+		// a class is decompiled with the settings, a resource or hex view not
+		boolean isSettingsDependent = !isRawBytes && isClassTreePath(trp);
+		scheduler.submit(DecompilerScheduler.Priority.FOREGROUND, this, isSettingsDependent, new Runnable() {
+			@Override
+			public void run() {
+				openEntryByTreePath(trp, isRawBytes);
+			}
+		});
+	}
+
+	/**
+	 * Opens a class entry of the jar on the decompiler scheduler, like an
+	 * entry of the tree
+	 */
+	public void openClassEntryInBackground(final String entryName, final String tabTitle) {
+		DecompilerScheduler scheduler = DecompilerScheduler.getDefault();
+		scheduler.cancel(this, DecompilerScheduler.Priority.FOREGROUND);
+		scheduler.submit(DecompilerScheduler.Priority.FOREGROUND, this, true, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					String internalName = StringUtilities.removeRight(entryName, ".class");
+					extractClassToTextPane(lookupType(internalName), tabTitle, entryName, null);
+				} catch (Exception e) {
+					Luyten.showExceptionDialog("Exception!", e);
+				}
+			}
+		});
+	}
+
 	private class FurtherExpandingTreeExpansionListener implements TreeExpansionListener {
 		@Override
 		public void treeExpanded(final TreeExpansionEvent event) {
@@ -307,11 +412,31 @@ public class Model extends JSplitPane {
 
 		@Override
 		public void treeCollapsed(final TreeExpansionEvent event) {
-
+			final TreePath treePath = event.getPath();
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					// the tree model of a jar creates the nodes again on expand
+					if (tree.getModel() instanceof EntryTreeModel && !tree.isExpanded(treePath)) {
+						((EntryTreeModel) tree.getModel()).releaseChildren(treePath);
+					}
+				}
+			});
 		}
 	}
 
+	private boolean isClassTreePath(TreePath trp) {
+		if (trp.getPathCount() <= 1)
+			return file.getName().endsWith(".class");
+		DefaultMutableTreeNode node = (DefaultMutableTreeNode) trp.getLastPathComponent();
+		return ((TreeNodeUserObject) node.getUserObject()).getOriginalName().endsWith(".class");
+	}
+
 	public void openEntryByTreePath(TreePath trp) {
+		openEntryByTreePath(trp, false);
+	}
+
+	public void openEntryByTreePath(TreePath trp, boolean isRawBytes) {
 		String name = "";
 		String path = "";
 		try {
@@ -330,47 +455,62 @@ public class Model extends JSplitPane {
 
 				if (file.getName().endsWith(".jar") || file.getName().endsWith(".zip")) {
 					if (state == null) {
-						JarFile jfile = new JarFile(file);
-						ITypeLoader jarLoader = new JarTypeLoader(jfile);
+						ZipArchive archive = ZipArchive.open(file);
+						ITypeLoader jarLoader = new ArchiveTypeLoader(archive);
 
-						typeLoader.getTypeLoaders().add(jarLoader);
-						state = new State(file.getCanonicalPath(), file, jfile, jarLoader);
+						typeLoader.addTypeLoader(jarLoader, archive);
+						state = new State(file.getCanonicalPath(), file, archive, jarLoader);
 					}
 
-					JarEntry entry = state.jarFile.getJarEntry(path);
-					if (entry == null) {
+					int entry = state.archive.findEntry(path);
+					if (entry < 0) {
 						throw new FileEntryNotFoundException();
 					}
-					if (entry.getSize() > MAX_UNPACKED_FILE_SIZE_BYTES) {
-						throw new TooLargeFileException(entry.getSize());
-					}
-					String entryName = entry.getName();
-					if (entryName.endsWith(".class")) {
+					String entryName = path;
+					long entrySize = state.archive.getSize(entry);
+					if (isRawBytes) {
+						getLabel().setText("Opening: " + name);
+						openHexTab(entry, name, path);
+					} else if (entrySize > MAX_UNPACKED_FILE_SIZE_BYTES && entryName.endsWith(".class")) {
+						throw new TooLargeFileException(entrySize);
+					} else if (entryName.endsWith(".class")) {
 						getLabel().setText("Extracting: " + name);
 						String internalName = StringUtilities.removeRight(entryName, ".class");
-						TypeReference type = metadataSystem.lookupType(internalName);
-						extractClassToTextPane(type, name, path, null);
+						extractClassToTextPane(lookupType(internalName), name, path, null);
+					} else if (entrySize > MAX_UNPACKED_FILE_SIZE_BYTES) {
+						getLabel().setText("Opening: " + name);
+						if (!switchToPagedTab(name, path) && !switchToPagedTab(getHexTabTitle(name), path))
+							openLargeEntry(entry, name, path);
 					} else {
 						getLabel().setText("Opening: " + name);
-						try (InputStream in = state.jarFile.getInputStream(entry);) {
+						try (InputStream in = state.archive.getInputStream(entry);) {
 							extractSimpleFileEntryToTextPane(in, name, path);
+						} catch (FileIsBinaryException e) {
+							openHexTab(entry, name, path);
 						}
 					}
 				}
 			} else {
 				name = file.getName();
 				path = file.getPath().replaceAll("\\\\", "/");
-				if (file.length() > MAX_UNPACKED_FILE_SIZE_BYTES) {
+				if (isRawBytes) {
+					getLabel().setText("Opening: " + name);
+					openHexTab(file, name, path);
+				} else if (file.length() > MAX_UNPACKED_FILE_SIZE_BYTES && name.endsWith(".class")) {
 					throw new TooLargeFileException(file.length());
-				}
-				if (name.endsWith(".class")) {
+				} else if (file.length() > MAX_UNPACKED_FILE_SIZE_BYTES) {
+					getLabel().setText("Opening: " + name);
+					if (!switchToPagedTab(name, path) && !switchToPagedTab(getHexTabTitle(name), path))
+						openLargeFile(file, name, path);
+				} else if (name.endsWith(".class")) {
 					getLabel().setText("Extracting: " + name);
-					TypeReference type = metadataSystem.lookupType(path);
-					extractClassToTextPane(type, name, path, null);
+					extractClassToTextPane(lookupType(path), name, path, null);
 				} else {
 					getLabel().setText("Opening: " + name);
 					try (InputStream in = new FileInputStream(file);) {
 						extractSimpleFileEntryToTextPane(in, name, path);
+					} catch (FileIsBinaryException e) {
+						openHexTab(file, name, path);
 					}
 				}
 			}
@@ -378,8 +518,6 @@ public class Model extends JSplitPane {
 			getLabel().setText("Complete");
 		} catch (FileEntryNotFoundException e) {
 			getLabel().setText("File not found: " + name);
-		} catch (FileIsBinaryException e) {
-			getLabel().setText("Binary resource: " + name);
 		} catch (TooLargeFileException e) {
 			getLabel().setText("File is too large: " + name + " - size: " + e.getReadableFileSize());
 		} catch (Exception e) {
@@ -390,7 +528,7 @@ public class Model extends JSplitPane {
 		}
 	}
 
-	void extractClassToTextPane(TypeReference type, String tabTitle, String path, String navigatonLink)
+	void extractClassToTextPane(TypeReference type, String tabTitle, String path, LinkKey navigatonLink)
 			throws Exception {
 		if (tabTitle == null || tabTitle.trim().length() < 1 || path == null) {
 			throw new FileEntryNotFoundException();
@@ -409,32 +547,110 @@ public class Model extends JSplitPane {
 		}
 
 		// resolve TypeDefinition
-		TypeDefinition resolvedType = null;
-		if (type == null || ((resolvedType = type.resolve()) == null)) {
+		TypeDefinition resolvedType = resolveType(type);
+		if (resolvedType == null) {
 			throw new Exception("Unable to resolve type.");
 		}
+		if (openCounts != null) {
+			openCounts.add(resolvedType.getInternalName());
+			saveOpenCountsWhenIdle(openCounts);
+		}
 
 		// open tab, store type information, start decompilation
 		if (sameTitledOpen != null) {
 			sameTitledOpen.path = path;
 			sameTitledOpen.invalidateContent();
-			sameTitledOpen.setDecompilerReferences(metadataSystem, settings, decompilationOptions);
+			sameTitledOpen.setDecompilerReferences(metadataSystem, typeLoader);
 			sameTitledOpen.setType(resolvedType);
 			sameTitledOpen.setInitialNavigationLink(navigatonLink);
-			sameTitledOpen.resetScrollPosition();
-			sameTitledOpen.decompile();
+			// a hibernated tab wakes where it was left
+			if (!sameTitledOpen.isHibernated())
+				sameTitledOpen.resetScrollPosition();
+			restoreOrDecompile(sameTitledOpen);
 			addOrSwitchToTab(sameTitledOpen);
+			prefetchAfter(sameTitledOpen);
 		} else {
 			OpenFile open = new OpenFile(tabTitle, path, getTheme(), mainWindow);
-			open.setDecompilerReferences(metadataSystem, settings, decompilationOptions);
+			open.setDecompilerReferences(metadataSystem, typeLoader);
 			open.setType(resolvedType);
 			open.setInitialNavigationLink(navigatonLink);
-			open.decompile();
+			// the source shows in the tab while it is decompiled
 			hmap.add(open);
 			addOrSwitchToTab(open);
+			// another entry was asked for meanwhile
+			if (!restoreOrDecompile(open) && DecompilerScheduler.isCurrentJobCancelled()) {
+				closeOpenTab(open);
+				return;
+			}
+			prefetchAfter(open);
 		}
 	}
 
+	// written after the work the user waits for, and when the jar is closed
+	private void saveOpenCountsWhenIdle(final OpenCounts openCounts) {
+		DecompilerScheduler scheduler = DecompilerScheduler.getDefault();
+		scheduler.cancel(openCounts);
+		scheduler.submitWhenIdle(DecompilerScheduler.Priority.WARMUP, openCounts, false, new Runnable() {
+			@Override
+			public void run() {
+				openCounts.save();
+			}
+		});
+	}
+
+	/**
+	 * Shows the source of the memory cache if the type was decompiled with
+	 * the current settings before (a closed tab, a prefetch), decompiles it
+	 * otherwise
+	 *
+	 * @return false if the type was decompiled
+	 */
+	private boolean restoreOrDecompile(OpenFile open) {
+		MemoryDecompilationCache memoryCache = MemoryDecompilationCache.getDefault();
+		DecompilerSettings settings = configSaver.getDecompilerSettingsSnapshot();
+		String cacheKey = null;
+		if (memoryCache != null && Languages.java().getName().equals(settings.getLanguage().getName())) {
+			cacheKey = DecompilationCache.createKey(typeLoader, open.getType(), settings);
+			// a miss is counted by the decompiler's own lookup
+			DecompilationCache.Entry cached = memoryCache.contains(cacheKey) ? memoryCache.get(cacheKey) : null;
+			if (cached != null) {
+				open.setCachedContent(cacheKey, cached);
+				return true;
+			}
+		}
+		// the class is not hashed again for the caches
+		open.decompile(settings, cacheKey);
+		return false;
+	}
+
+	private void prefetchAfter(OpenFile open) {
+		State state = this.state;
+		if (state == null || !luytenPrefs.isPrefetchEnabled())
+			return;
+		getPrefetcher(state).prefetchAfter(open.getType(), open.getLinkIndex());
+	}
+
+	private Prefetcher getPrefetcher(State state) {
+		if (prefetcher == null || prefetcher.getArchive() != state.archive)
+			prefetcher = new Prefetcher(state.archive);
+		return prefetcher;
+	}
+
+	/**
+	 * Resolves the types of the opened jar on the idle workers, unless they
+	 * are being resolved already (a reloaded tree)
+	 */
+	private void startWarmUp(State state) {
+		if (openCounts == null)
+			openCounts = OpenCounts.open(state.file);
+		if (!luytenPrefs.isWarmUpEnabled() || (warmUp != null && warmUp.getArchive() == state.archive))
+			return;
+		if (warmUp != null)
+			warmUp.stop();
+		warmUp = new JarWarmUp(state.archive, metadataSystem, getPrefetcher(state), openCounts, getLabel());
+		warmUp.start(luytenPrefs.isWarmUpDecompileEnabled());
+	}
+
 	public void extractSimpleFileEntryToTextPane(InputStream inputStream, String tabTitle, String path)
 			throws Exception {
 		if (inputStream == null || tabTitle == null || tabTitle.trim().length() < 1 || path == null) {
@@ -481,19 +697,132 @@ public class Model extends JSplitPane {
 		// open tab
 		if (sameTitledOpen != null) {
 			sameTitledOpen.path = path;
-			sameTitledOpen.setDecompilerReferences(metadataSystem, settings, decompilationOptions);
+			sameTitledOpen.setDecompilerReferences(metadataSystem, typeLoader);
 			sameTitledOpen.resetScrollPosition();
 			sameTitledOpen.setContent(sb.toString());
 			addOrSwitchToTab(sameTitledOpen);
 		} else {
 			OpenFile open = new OpenFile(tabTitle, path, getTheme(), mainWindow);
-			open.setDecompilerReferences(metadataSystem, settings, decompilationOptions);
+			open.setDecompilerReferences(metadataSystem, typeLoader);
 			open.setContent(sb.toString());
 			hmap.add(open);
 			addOrSwitchToTab(open);
 		}
 	}
 
+	private boolean switchToPagedTab(String tabTitle, String path) {
+		for (PagedViewer viewer : pagedViewers) {
+			if (tabTitle.equals(viewer.name) && path.equals(viewer.path)) {
+				addOrSwitchToTab(viewer);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Opens an entry over the unpacked size limit as paged text, or in hex
+	 * if its first bytes are binary
+	 */
+	private void openLargeEntry(int entry, String tabTitle, String path) throws Exception {
+		InputStream in = new BufferedInputStream(state.archive.getInputStream(entry), PagedTextFile.TEXT_SAMPLE_LENGTH);
+		boolean isHexTab = false;
+		try {
+			in.mark(PagedTextFile.TEXT_SAMPLE_LENGTH);
+			byte[] sample = new byte[PagedTextFile.TEXT_SAMPLE_LENGTH];
+			int sampleLength = 0;
+			int count;
+			while (sampleLength < sample.length
+					&& (count = in.read(sample, sampleLength, sample.length - sampleLength)) >= 0) {
+				sampleLength += count;
+			}
+			in.reset();
+			if (!isWellKnownTextFile(tabTitle) && !PagedTextFile.isProbablyText(sample, sampleLength)) {
+				// reads on in the background and closes the stream itself
+				openHexTab(in, state.archive.getSize(entry), tabTitle, path);
+				isHexTab = true;
+				return;
+			}
+			openPagedTab(new PagedTextFile(MappedFile.copyAndMap(in, tabTitle, null)), tabTitle, path);
+		} finally {
+			if (!isHexTab)
+				in.close();
+		}
+	}
+
+	private void openLargeFile(File file, String tabTitle, String path) throws Exception {
+		MappedFile mappedFile = MappedFile.map(file);
+		PagedTextFile textFile = new PagedTextFile(mappedFile);
+		if (!isWellKnownTextFile(tabTitle) && !textFile.isProbablyText()) {
+			PagedHexViewer viewer = new PagedHexViewer(getHexTabTitle(tabTitle), path, getTheme());
+			viewer.open(mappedFile);
+			pagedViewers.add(viewer);
+			addOrSwitchToTab(viewer);
+			return;
+		}
+		openPagedTab(textFile, tabTitle, path);
+	}
+
+	private static boolean isWellKnownTextFile(String tabTitle) {
+		String extension = "." + tabTitle.replaceAll("^[^\\.]*$", "").replaceAll("[^\\.]*\\.", "");
+		return OpenFile.WELL_KNOWN_TEXT_FILE_EXTENSIONS.contains(extension);
+	}
+
+	/**
+	 * Shows a text over the unpacked size limit in a PagedTextViewer
+	 */
+	private void openPagedTab(PagedTextFile textFile, String tabTitle, String path) {
+		PagedTextViewer viewer = new PagedTextViewer(tabTitle, path, textFile, getTheme());
+		pagedViewers.add(viewer);
+		addOrSwitchToTab(viewer);
+		viewer.startIndexing();
+	}
+
+	/**
+	 * Titles hex tabs apart from the text or source tab of the same entry
+	 */
+	private static String getHexTabTitle(String name) {
+		return name + " (hex)";
+	}
+
+	/**
+	 * Shows the bytes of a jar entry of any size in a PagedHexViewer
+	 */
+	private void openHexTab(int entry, String name, String path) throws Exception {
+		if (switchToPagedTab(getHexTabTitle(name), path))
+			return;
+		openHexTab(state.archive.getInputStream(entry), state.archive.getSize(entry), name, path);
+	}
+
+	private void openHexTab(InputStream in, long length, String name, String path) {
+		PagedHexViewer viewer = new PagedHexViewer(getHexTabTitle(name), path, getTheme());
+		viewer.open(in, length);
+		pagedViewers.add(viewer);
+		addOrSwitchToTab(viewer);
+	}
+
+	/**
+	 * Shows the bytes of a file on disk, mapped as it is
+	 */
+	private void openHexTab(File file, String name, String path) throws Exception {
+		if (switchToPagedTab(getHexTabTitle(name), path))
+			return;
+		PagedHexViewer viewer = new PagedHexViewer(getHexTabTitle(name), path, getTheme());
+		viewer.open(MappedFile.map(file));
+		pagedViewers.add(viewer);
+		addOrSwitchToTab(viewer);
+	}
+
+	/**
+	 * @return the selected tab if it is paged text or hex, else null
+	 */
+	public PagedViewer getCurrentPagedViewer() {
+		int pos = house.getSelectedIndex();
+		if (pos >= 0 && house.getComponentAt(pos) instanceof PagedViewer)
+			return (PagedViewer) house.getComponentAt(pos);
+		return null;
+	}
+
 	private class TabChangeListener implements ChangeListener {
 		@Override
 		public void stateChanged(ChangeEvent e) {
@@ -501,8 +830,15 @@ public class Model extends JSplitPane {
 			if (selectedIndex < 0) {
 				return;
 			}
+			for (OpenFile open : hmap) {
+				if (house.indexOfTab(open.name) != selectedIndex) {
+					// the tab was switched away from before its update was done
+					DecompilerScheduler.getDefault().cancel(open, DecompilerScheduler.Priority.FOREGROUND);
+				}
+			}
 			for (OpenFile open : hmap) {
 				if (house.indexOfTab(open.name) == selectedIndex) {
+					open.setLastShownTime(System.nanoTime());
 
 					if (open.getType() != null && !open.isContentValid()) {
 						updateOpenClass(open);
@@ -511,7 +847,50 @@ public class Model extends JSplitPane {
 
 				}
 			}
+			hibernateBackgroundTabs();
+		}
+	}
+
+	/**
+	 * Hibernates the least recently shown background class tabs while more
+	 * of them are awake than set, or all of them while the heap is fuller
+	 * than set. Tabs with decompile or links jobs are left awake.
+	 */
+	private void hibernateBackgroundTabs() {
+		if (!luytenPrefs.isTabHibernationEnabled())
+			return;
+		DecompilerScheduler scheduler = DecompilerScheduler.getDefault();
+		List<OpenFile> awakeOpens = new ArrayList<>();
+		for (OpenFile open : hmap) {
+			if (open.getType() != null && !open.isHibernated() && !isTabInForeground(open)
+					&& !scheduler.hasJobs(open))
+				awakeOpens.add(open);
+		}
+		int hibernateCount = awakeOpens.size() - luytenPrefs.getAwakeBackgroundTabCount();
+		if (getUsedHeapPercent() >= luytenPrefs.getHibernationHeapPercent())
+			hibernateCount = awakeOpens.size();
+		if (hibernateCount <= 0)
+			return;
+		Collections.sort(awakeOpens, new Comparator<OpenFile>() {
+			@Override
+			public int compare(OpenFile o1, OpenFile o2) {
+				return Long.compare(o1.getLastShownTime(), o2.getLastShownTime());
+			}
+		});
+		for (int i = 0; i < hibernateCount; i++) {
+			awakeOpens.get(i).hibernate();
+		}
+	}
+
+	// heap left in use by the last collections, garbage does not count
+	private static int getUsedHeapPercent() {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+			if (usage != null)
+				used += usage.getUsed();
 		}
+		return (int) (100 * used / Runtime.getRuntime().maxMemory());
 	}
 
 	public void updateOpenClasses() {
@@ -528,20 +907,26 @@ public class Model extends JSplitPane {
 				break;
 			}
 		}
+		// its jobs were cancelled with the ones of the old settings
+		if (warmUp != null)
+			warmUp.resume();
 	}
 
 	private void updateOpenClass(final OpenFile open) {
 		if (open.getType() == null) {
 			return;
 		}
-		new Thread(new Runnable() {
+		DecompilerScheduler scheduler = DecompilerScheduler.getDefault();
+		scheduler.cancel(open, DecompilerScheduler.Priority.FOREGROUND);
+		scheduler.submit(DecompilerScheduler.Priority.FOREGROUND, open, true, new Runnable() {
 			@Override
 			public void run() {
 				try {
 					bar.setVisible(true);
 					getLabel().setText("Extracting: " + open.name);
 					open.invalidateContent();
-					open.decompile();
+					// a hibernated tab was likely decompiled with these settings
+					restoreOrDecompile(open);
 					getLabel().setText("Complete");
 				} catch (Exception e) {
 					getLabel().setText("Error, cannot update: " + open.name);
@@ -549,7 +934,7 @@ public class Model extends JSplitPane {
 					bar.setVisible(false);
 				}
 			}
-		}).start();
+		});
 	}
 
 	private boolean isTabInForeground(OpenFile open) {
@@ -561,22 +946,22 @@ public class Model extends JSplitPane {
 	final class State implements AutoCloseable {
 		private final String key;
 		private final File file;
-		final JarFile jarFile;
+		final ZipArchive archive;
 		final ITypeLoader typeLoader;
 
-		private State(String key, File file, JarFile jarFile, ITypeLoader typeLoader) {
+		private State(String key, File file, ZipArchive archive, ITypeLoader typeLoader) {
 			this.key = VerifyArgument.notNull(key, "key");
 			this.file = VerifyArgument.notNull(file, "file");
-			this.jarFile = jarFile;
+			this.archive = archive;
 			this.typeLoader = typeLoader;
 		}
 
 		@Override
 		public void close() {
 			if (typeLoader != null) {
-				Model.typeLoader.getTypeLoaders().remove(typeLoader);
+				Model.this.typeLoader.removeTypeLoader(typeLoader);
 			}
-			Closer.tryClose(jarFile);
+			Closer.tryClose(archive);
 		}
 
 		public File getFile() {
@@ -639,37 +1024,6 @@ public class Model extends JSplitPane {
 		}
 	}
 
-	public DefaultMutableTreeNode loadNodesByNames(DefaultMutableTreeNode node, List<String> originalNames) {
-		List<TreeNodeUserObject> args = new ArrayList<>();
-		for (String originalName : originalNames) {
-			args.add(new TreeNodeUserObject(originalName));
-		}
-		return loadNodesByUserObj(node, args);
-	}
-
-	public DefaultMutableTreeNode loadNodesByUserObj(DefaultMutableTreeNode node, List<TreeNodeUserObject> args) {
-		if (args.size() > 0) {
-			TreeNodeUserObject name = args.remove(0);
-			DefaultMutableTreeNode nod = getChild(node, name);
-			if (nod == null)
-				nod = new DefaultMutableTreeNode(name);
-			node.add(loadNodesByUserObj(nod, args));
-		}
-		return node;
-	}
-
-	@SuppressWarnings("unchecked")
-	public DefaultMutableTreeNode getChild(DefaultMutableTreeNode node, TreeNodeUserObject name) {
-		Enumeration<DefaultMutableTreeNode> entry = node.children();
-		while (entry.hasMoreElements()) {
-			DefaultMutableTreeNode nods = entry.nextElement();
-			if (((TreeNodeUserObject) nods.getUserObject()).getOriginalName().equals(name.getOriginalName())) {
-				return nods;
-			}
-		}
-		return null;
-	}
-
 	public void loadFile(File file) {
 		if (open)
 			closeFile();
@@ -687,7 +1041,9 @@ public class Model extends JSplitPane {
 	}
 
 	public void loadTree() {
-		new Thread(new Runnable() {
+		DecompilerScheduler scheduler = DecompilerScheduler.getDefault();
+		scheduler.cancel(this, DecompilerScheduler.Priority.FOREGROUND);
+		scheduler.submit(DecompilerScheduler.Priority.FOREGROUND, this, new Runnable() {
 			@Override
 			public void run() {
 				try {
@@ -700,42 +1056,45 @@ public class Model extends JSplitPane {
 						throw new TooLargeFileException(file.length());
 					}
 					if (file.getName().endsWith(".zip") || file.getName().endsWith(".jar")) {
-						JarFile jfile;
-						jfile = new JarFile(file);
-						getLabel().setText("Loading: " + jfile.getName());
-						bar.setVisible(true);
-
-						JarEntryFilter jarEntryFilter = new JarEntryFilter(jfile);
-						List<String> mass = null;
-						if (luytenPrefs.isFilterOutInnerClassEntries()) {
-							mass = jarEntryFilter.getEntriesWithoutInnerClasses();
-						} else {
-							mass = jarEntryFilter.getAllEntriesFromJar();
-						}
-						buildTreeFromMass(mass);
-
-						if (state == null) {
-							ITypeLoader jarLoader = new JarTypeLoader(jfile);
-							typeLoader.getTypeLoaders().add(jarLoader);
-							state = new State(file.getCanonicalPath(), file, jfile, jarLoader);
+						ZipArchive archive = ZipArchive.open(file);
+						try {
+							getLabel().setText("Loading: " + file.getPath());
+							bar.setVisible(true);
+
+							JarEntryFilter jarEntryFilter = new JarEntryFilter(archive);
+							List<String> mass = null;
+							if (luytenPrefs.isFilterOutInnerClassEntries()) {
+								mass = jarEntryFilter.getEntriesWithoutInnerClasses();
+							} else {
+								mass = jarEntryFilter.getAllEntriesFromJar();
+							}
+							buildTreeFromMass(mass);
+
+							if (state == null) {
+								String canonicalPath = file.getCanonicalPath();
+								ITypeLoader jarLoader = new ArchiveTypeLoader(archive);
+								typeLoader.addTypeLoader(jarLoader, archive);
+								state = new State(canonicalPath, file, archive, jarLoader);
+								// the state closes it
+								archive = null;
+							}
+						} finally {
+							// failed, or a reloaded tree: the state keeps its share
+							if (archive != null)
+								archive.close();
 						}
 						open = true;
 						getLabel().setText("Complete");
+						startWarmUp(state);
 					} else {
 						TreeNodeUserObject topNodeUserObject = new TreeNodeUserObject(getName(file.getName()));
 						final DefaultMutableTreeNode top = new DefaultMutableTreeNode(topNodeUserObject);
 						tree.setModel(new DefaultTreeModel(top));
-						settings.setTypeLoader(new InputTypeLoader());
 						open = true;
 						getLabel().setText("Complete");
 
 						// open it automatically
-						new Thread() {
-							public void run() {
-								TreePath trp = new TreePath(top.getPath());
-								openEntryByTreePath(trp);
-							};
-						}.start();
+						openEntryInBackground(new TreePath(top.getPath()), false);
 					}
 
 					if (treeExpansionState != null) {
@@ -759,7 +1118,7 @@ public class Model extends JSplitPane {
 				}
 			}
 
-		}).start();
+		});
 	}
 
 	private void buildTreeFromMass(List<String> mass) {
@@ -772,134 +1131,41 @@ public class Model extends JSplitPane {
 
 	private void buildDirectoryTreeFromMass(List<String> mass) {
 		TreeNodeUserObject topNodeUserObject = new TreeNodeUserObject(getName(file.getName()));
-		DefaultMutableTreeNode top = new DefaultMutableTreeNode(topNodeUserObject);
-		List<String> sort = new ArrayList<String>();
-		Collections.sort(mass, String.CASE_INSENSITIVE_ORDER);
-		for (String m : mass)
-			if (m.contains("META-INF") && !sort.contains(m))
-				sort.add(m);
-		Set<String> set = new HashSet<String>();
-		for (String m : mass) {
-			if (m.contains("/")) {
-				set.add(m.substring(0, m.lastIndexOf("/") + 1));
-			}
-		}
-		List<String> packs = Arrays.asList(set.toArray(new String[] {}));
-		Collections.sort(packs, String.CASE_INSENSITIVE_ORDER);
-		Collections.sort(packs, new Comparator<String>() {
-			public int compare(String o1, String o2) {
-				return o2.split("/").length - o1.split("/").length;
-			}
-		});
-		for (String pack : packs)
-			for (String m : mass)
-				if (!m.contains("META-INF") && m.contains(pack) && !m.replace(pack, "").contains("/"))
-					sort.add(m);
-		for (String m : mass)
-			if (!m.contains("META-INF") && !m.contains("/") && !sort.contains(m))
-				sort.add(m);
-		for (String pack : sort) {
-			LinkedList<String> list = new LinkedList<String>(Arrays.asList(pack.split("/")));
-			loadNodesByNames(top, list);
-		}
-		tree.setModel(new DefaultTreeModel(top));
+		tree.setModel(TreeBuilder.buildDirectoryTree(topNodeUserObject, mass));
 	}
 
 	private void buildFlatTreeFromMass(List<String> mass) {
 		TreeNodeUserObject topNodeUserObject = new TreeNodeUserObject(getName(file.getName()));
-		DefaultMutableTreeNode top = new DefaultMutableTreeNode(topNodeUserObject);
-
-		TreeMap<String, TreeSet<String>> packages = new TreeMap<>();
-		HashSet<String> classContainingPackageRoots = new HashSet<>();
-
-		Comparator<String> sortByFileExtensionsComparator = new Comparator<String>() {
-			// (assertion: mass does not contain null elements)
-			@Override
-			public int compare(String o1, String o2) {
-				int comp = o1.replaceAll("[^\\.]*\\.", "").compareTo(o2.replaceAll("[^\\.]*\\.", ""));
-				if (comp != 0)
-					return comp;
-				return o1.compareTo(o2);
-			}
-		};
-
-		for (String entry : mass) {
-			String packagePath = "";
-			String packageRoot = "";
-			if (entry.contains("/")) {
-				packagePath = entry.replaceAll("/[^/]*$", "");
-				packageRoot = entry.replaceAll("/.*$", "");
-			}
-			String packageEntry = entry.replace(packagePath + "/", "");
-			if (!packages.containsKey(packagePath)) {
-				packages.put(packagePath, new TreeSet<String>(sortByFileExtensionsComparator));
-			}
-			packages.get(packagePath).add(packageEntry);
-			if (!entry.startsWith("META-INF") && packageRoot.trim().length() > 0
-					&& entry.matches(".*\\.(class|java|prop|properties)$")) {
-				classContainingPackageRoots.add(packageRoot);
-			}
-		}
-
-		// META-INF comes first -> not flat
-		for (String packagePath : packages.keySet()) {
-			if (packagePath.startsWith("META-INF")) {
-				List<String> packagePathElements = Arrays.asList(packagePath.split("/"));
-				for (String entry : packages.get(packagePath)) {
-					ArrayList<String> list = new ArrayList<>(packagePathElements);
-					list.add(entry);
-					loadNodesByNames(top, list);
-				}
-			}
-		}
-
-		// real packages: path starts with a classContainingPackageRoot -> flat
-		for (String packagePath : packages.keySet()) {
-			String packageRoot = packagePath.replaceAll("/.*$", "");
-			if (classContainingPackageRoots.contains(packageRoot)) {
-				for (String entry : packages.get(packagePath)) {
-					ArrayList<TreeNodeUserObject> list = new ArrayList<>();
-					list.add(new TreeNodeUserObject(packagePath, packagePath.replaceAll("/", ".")));
-					list.add(new TreeNodeUserObject(entry));
-					loadNodesByUserObj(top, list);
-				}
-			}
-		}
-
-		// the rest, not real packages but directories -> not flat
-		for (String packagePath : packages.keySet()) {
-			String packageRoot = packagePath.replaceAll("/.*$", "");
-			if (!classContainingPackageRoots.contains(packageRoot) && !packagePath.startsWith("META-INF")
-					&& packagePath.length() > 0) {
-				List<String> packagePathElements = Arrays.asList(packagePath.split("/"));
-				for (String entry : packages.get(packagePath)) {
-					ArrayList<String> list = new ArrayList<>(packagePathElements);
-					list.add(entry);
-					loadNodesByNames(top, list);
-				}
-			}
-		}
-
-		// the default package -> not flat
-		String packagePath = "";
-		if (packages.containsKey(packagePath)) {
-			for (String entry : packages.get(packagePath)) {
-				ArrayList<String> list = new ArrayList<>();
-				list.add(entry);
-				loadNodesByNames(top, list);
-			}
-		}
-		tree.setModel(new DefaultTreeModel(top));
+		tree.setModel(TreeBuilder.buildFlatTree(topNodeUserObject, mass));
 	}
 
 	public void closeFile() {
+		DecompilerScheduler.getDefault().cancel(this);
 		for (OpenFile co : hmap) {
 			int pos = house.indexOfTab(co.name);
 			if (pos >= 0)
 				house.remove(pos);
 			co.close();
 		}
+		for (PagedViewer viewer : pagedViewers) {
+			house.remove(viewer);
+			viewer.close();
+		}
+		pagedViewers.clear();
 
+		if (prefetcher != null) {
+			DecompilerScheduler.getDefault().cancel(prefetcher);
+			prefetcher = null;
+		}
+		if (warmUp != null) {
+			warmUp.stop();
+			warmUp = null;
+		}
+		if (openCounts != null) {
+			DecompilerScheduler.getDefault().cancel(openCounts);
+			openCounts.save();
+			openCounts = null;
+		}
 		final State oldState = state;
 		Model.this.state = null;
 		if (oldState != null) {
@@ -908,7 +1174,7 @@ public class Model extends JSplitPane {
 
 		hmap.clear();
 		tree.setModel(new DefaultTreeModel(null));
-		metadataSystem = new MetadataSystem(typeLoader);
+		metadataSystem = new LuytenMetadataSystem(typeLoader);
 		file = null;
 		treeExpansionState = null;
 		open = false;
@@ -923,12 +1189,53 @@ public class Model extends JSplitPane {
 				for (OpenFile f : hmap) {
 					getTheme().apply(f.textArea);
 				}
+				for (PagedViewer viewer : pagedViewers) {
+					getTheme().apply(viewer.getTextArea());
+				}
 			}
 		} catch (Exception e1) {
 			Luyten.showExceptionDialog("Exception!", e1);
 		}
 	}
 
+	/**
+	 * Class bytes of the open jar, behind metadataSystem
+	 */
+	public ITypeLoader getTypeLoader() {
+		return typeLoader;
+	}
+
+	/**
+	 * Types of the open jar, JDK types come from the shared metadata. Not
+	 * thread safe: its users synchronize on it.
+	 */
+	public MetadataSystem getMetadataSystem() {
+		return metadataSystem;
+	}
+
+	/**
+	 * @return the type of the internal name in the open jar or the JDK, null
+	 *         if there is none
+	 */
+	public TypeReference lookupType(String internalName) {
+		MetadataSystem metadataSystem = this.metadataSystem;
+		synchronized (metadataSystem) {
+			return metadataSystem.lookupType(internalName);
+		}
+	}
+
+	/**
+	 * @return the definition of the type, null if it cannot be resolved
+	 */
+	public TypeDefinition resolveType(TypeReference type) {
+		if (type == null)
+			return null;
+		MetadataSystem metadataSystem = this.metadataSystem;
+		synchronized (metadataSystem) {
+			return type.resolve();
+		}
+	}
+
 	public File getOpenedFile() {
 		File openedFile = null;
 		if (file != null && open) {
@@ -974,69 +1281,38 @@ public class Model extends JSplitPane {
 		return currentTextArea;
 	}
 
-	public void startWarmUpThread() {
-		new Thread() {
-			public void run() {
-				try {
-					Thread.sleep(500);
-					String internalName = FindBox.class.getName();
-					TypeReference type = metadataSystem.lookupType(internalName);
-					TypeDefinition resolvedType = null;
-					if ((type == null) || ((resolvedType = type.resolve()) == null)) {
-						return;
-					}
-					StringWriter stringwriter = new StringWriter();
-					PlainTextOutput plainTextOutput = new PlainTextOutput(stringwriter);
-					plainTextOutput
-							.setUnicodeOutputEnabled(decompilationOptions.getSettings().isUnicodeOutputEnabled());
-					settings.getLanguage().decompileType(resolvedType, plainTextOutput, decompilationOptions);
-					String decompiledSource = stringwriter.toString();
-					OpenFile open = new OpenFile(internalName, "*/" + internalName, getTheme(), mainWindow);
-					open.setContent(decompiledSource);
-					JTabbedPane pane = new JTabbedPane();
-					pane.setTabLayoutPolicy(JTabbedPane.SCROLL_TAB_LAYOUT);
-					pane.addTab("title", open.scrollPane);
-					pane.setSelectedIndex(pane.indexOfTab("title"));
-				} catch (Exception e) {
-					Luyten.showExceptionDialog("Exception!", e);
-				}
-			}
-		}.start();
-	}
-
-	public void navigateTo(final String uniqueStr) {
-		new Thread(new Runnable() {
+	public void navigateTo(final LinkKey linkKey) {
+		DecompilerScheduler scheduler = DecompilerScheduler.getDefault();
+		scheduler.cancel(this, DecompilerScheduler.Priority.FOREGROUND);
+		scheduler.submit(DecompilerScheduler.Priority.FOREGROUND, this, true, new Runnable() {
 			@Override
 			public void run() {
-				if (uniqueStr == null)
-					return;
-				String[] linkParts = uniqueStr.split("\\|");
-				if (linkParts.length <= 1)
+				if (linkKey == null)
 					return;
-				String destinationTypeStr = linkParts[1];
+				String destinationTypeStr = linkKey.getOuterPath();
 				try {
 					bar.setVisible(true);
-					getLabel().setText("Navigating: " + destinationTypeStr.replaceAll("/", "."));
+					getLabel().setText("Navigating: " + destinationTypeStr.replace('/', '.'));
 
-					TypeReference type = metadataSystem.lookupType(destinationTypeStr);
+					TypeReference type = lookupType(destinationTypeStr);
 					if (type == null)
 						throw new RuntimeException("Cannot lookup type: " + destinationTypeStr);
-					TypeDefinition typeDef = type.resolve();
+					TypeDefinition typeDef = resolveType(type);
 					if (typeDef == null)
 						throw new RuntimeException("Cannot resolve type: " + destinationTypeStr);
 
 					String tabTitle = typeDef.getName() + ".class";
-					extractClassToTextPane(typeDef, tabTitle, destinationTypeStr, uniqueStr);
+					extractClassToTextPane(typeDef, tabTitle, destinationTypeStr, linkKey);
 
 					getLabel().setText("Complete");
 				} catch (Exception e) {
-					getLabel().setText("Cannot navigate: " + destinationTypeStr.replaceAll("/", "."));
+					getLabel().setText("Cannot navigate: " + destinationTypeStr.replace('/', '.'));
 					Luyten.showExceptionDialog("Cannot Navigate!", e);
 				} finally {
 					bar.setVisible(false);
 				}
 			}
-		}).start();
+		});
 	}
 
 	public JLabel getLabel() {
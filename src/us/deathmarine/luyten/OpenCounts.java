@@ -0,0 +1,140 @@
+package us.deathmarine.luyten;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How often each class of a jar was opened, stored on disk per jar path.
+ * Only the classes opened most often are kept.
+ */
+public class OpenCounts {
+
+	// change when the file format changes
+	private static final int FORMAT_VERSION = 1;
+	private static final String COUNTS_SUFFIX = ".opens";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int MAX_STORED_COUNT = 256;
+
+	private final File file;
+	private final Map<String, Integer> counts = new HashMap<>();
+	// counted since the last save
+	private boolean isChanged;
+
+	private OpenCounts(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads the counts of the jar, empty ones if there are none yet or they
+	 * cannot be read
+	 */
+	public static OpenCounts open(File jarFile) {
+		String key;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(jarFile.getCanonicalPath().getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest.digest()) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			key = sb.toString();
+		} catch (Exception e) {
+			key = Integer.toHexString(jarFile.getAbsolutePath().hashCode());
+		}
+		File directory = new File(ConfigSaver.getConfigDirectory(), "opens");
+		OpenCounts openCounts = new OpenCounts(new File(directory, key + COUNTS_SUFFIX));
+		if (openCounts.file.exists()) {
+			try {
+				openCounts.load();
+			} catch (IOException e) {
+				openCounts.counts.clear();
+				System.out.println("[OpenCounts]: Cannot read " + openCounts.file + ": " + e);
+			}
+		}
+		return openCounts;
+	}
+
+	/**
+	 * Counts an opening of the class in memory, save() writes the counts
+	 */
+	public synchronized void add(String internalName) {
+		Integer count = counts.get(internalName);
+		counts.put(internalName, count != null ? count + 1 : 1);
+		isChanged = true;
+	}
+
+	/**
+	 * @return internal names of the classes opened most often, most opened
+	 *         first
+	 */
+	public synchronized List<String> getMostOpened(int maxCount) {
+		List<String> names = getSortedNames();
+		return new ArrayList<>(names.subList(0, Math.min(names.size(), maxCount)));
+	}
+
+	private List<String> getSortedNames() {
+		List<String> names = new ArrayList<>(counts.keySet());
+		Collections.sort(names, new Comparator<String>() {
+			@Override
+			public int compare(String o1, String o2) {
+				return counts.get(o2) - counts.get(o1);
+			}
+		});
+		return names;
+	}
+
+	/**
+	 * Writes the counts if a class was opened since the last save
+	 */
+	public synchronized void save() {
+		if (!isChanged)
+			return;
+		isChanged = false;
+		File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+		try {
+			file.getParentFile().mkdirs();
+			List<String> names = getSortedNames();
+			int storedCount = Math.min(names.size(), MAX_STORED_COUNT);
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tempFile)));) {
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(storedCount);
+				for (int i = 0; i < storedCount; i++) {
+					out.writeUTF(names.get(i));
+					out.writeInt(counts.get(names.get(i)));
+				}
+			}
+			file.delete();
+			tempFile.renameTo(file);
+		} catch (IOException e) {
+			System.out.println("[OpenCounts]: Cannot write " + file + ": " + e);
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	private void load() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));) {
+			if (in.readInt() != FORMAT_VERSION)
+				throw new IOException("Unknown counts format");
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String internalName = in.readUTF();
+				counts.put(internalName, in.readInt());
+			}
+		}
+	}
+}
@@ -4,6 +4,7 @@ import java.awt.Component;
 import java.awt.Cursor;
 import java.awt.Font;
 import java.awt.Panel;
+import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -14,12 +15,9 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
-import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.swing.JLabel;
@@ -31,19 +29,24 @@ import javax.swing.ScrollPaneConstants;
 import javax.swing.Scrollable;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.HyperlinkEvent;
+import javax.swing.event.PopupMenuEvent;
+import javax.swing.event.PopupMenuListener;
 import org.fife.ui.rsyntaxtextarea.LinkGenerator;
+import org.fife.ui.rsyntaxtextarea.RSyntaxDocument;
 import org.fife.ui.rsyntaxtextarea.LinkGeneratorResult;
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
 import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
 import org.fife.ui.rsyntaxtextarea.Theme;
 import org.fife.ui.rtextarea.RTextScrollPane;
 
+import com.strobel.assembler.metadata.ITypeLoader;
 import com.strobel.assembler.metadata.MetadataSystem;
 import com.strobel.assembler.metadata.TypeDefinition;
 import com.strobel.decompiler.DecompilationOptions;
 import com.strobel.decompiler.DecompilerSettings;
-import com.strobel.decompiler.PlainTextOutput;
 import com.strobel.decompiler.languages.Languages;
 
 public class OpenFile implements SyntaxConstants {
@@ -53,19 +56,34 @@ public class OpenFile implements SyntaxConstants {
 					".phtml", ".html", ".htm", ".xhtm", ".xhtml", ".lua", ".bat", ".pl", ".sh", ".css", ".json", ".txt",
 					".rb", ".make", ".mak", ".py", ".properties", ".prop"));
 
+	// keys resolved in the background between progress updates
+	private static final int LINK_RESOLUTION_PROGRESS_STEP = 64;
+
 	// navigation links
-	private TreeMap<Selection, String> selectionToUniqueStrTreeMap = new TreeMap<>();
-	private Map<String, Boolean> isNavigableCache = new ConcurrentHashMap<>();
-	private Map<String, String> readableLinksCache = new ConcurrentHashMap<>();
+	private volatile LinkIndex linkIndex = new LinkIndex();
+	private Map<LinkKey, Boolean> isNavigableCache = new ConcurrentHashMap<>();
+	private Map<LinkKey, String> readableLinksCache = new ConcurrentHashMap<>();
 
 	private volatile boolean isContentValid = false;
 	private volatile boolean isNavigationLinksValid = false;
 	private volatile boolean isWaitForLinksCursor = false;
+	// offsets shown in the viewport, their links are resolved first
+	private volatile int visibleFrom;
+	private volatile int visibleTo;
 	private volatile Double lastScrollPercent = null;
-
-	private LinkProvider linkProvider;
-	private String initialNavigationLink;
+	private volatile boolean isHibernated = false;
+	private volatile long lastShownTime;
+
+	private volatile LinkProvider linkProvider;
+	// key of the content in the memory cache, null if not cached
+	private volatile String cacheKey;
+	// shows the source of the running decompilation
+	private volatile DocumentStreamWriter streamWriter;
+	private LinkKey initialNavigationLink;
+	private volatile boolean isAddedToScreenPending = false;
 	private boolean isFirstTimeRun = true;
+	// text offset the popup menu was opened at
+	private int popupOffset;
 
 	MainWindow mainWindow;
 	RTextScrollPane scrollPane;
@@ -79,8 +97,7 @@ public class OpenFile implements SyntaxConstants {
 
 	// decompiler and type references (not needed for text files)
 	private MetadataSystem metadataSystem;
-	private DecompilerSettings settings;
-	private DecompilationOptions decompilationOptions;
+	private ITypeLoader typeLoader;
 	private TypeDefinition type;
 
 	public OpenFile(String name, String path, Theme theme, final MainWindow mainWindow) {
@@ -100,51 +117,7 @@ public class OpenFile implements SyntaxConstants {
 		textArea.setAntiAliasingEnabled(true);
 		textArea.setCodeFoldingEnabled(true);
 		
-		if (name.toLowerCase().endsWith(".class") || name.toLowerCase().endsWith(".java"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_JAVA);
-		else if (name.toLowerCase().endsWith(".xml") || name.toLowerCase().endsWith(".rss")
-				|| name.toLowerCase().endsWith(".project") || name.toLowerCase().endsWith(".classpath"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_XML);
-		else if (name.toLowerCase().endsWith(".h") || name.toLowerCase().endsWith(".c"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_C);
-		else if (name.toLowerCase().endsWith(".cpp"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_CPLUSPLUS);
-		else if (name.toLowerCase().endsWith(".sql"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_SQL);
-		else if (name.toLowerCase().endsWith(".js"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_JAVASCRIPT);
-		else if (name.toLowerCase().endsWith(".php") || name.toLowerCase().endsWith(".php5")
-				|| name.toLowerCase().endsWith(".phtml"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_PHP);
-		else if (name.toLowerCase().endsWith(".html") || name.toLowerCase().endsWith(".htm")
-				|| name.toLowerCase().endsWith(".xhtm") || name.toLowerCase().endsWith(".xhtml"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_HTML);
-		else if (name.toLowerCase().endsWith(".js"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_JAVASCRIPT);
-		else if (name.toLowerCase().endsWith(".lua"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_LUA);
-		else if (name.toLowerCase().endsWith(".bat"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_WINDOWS_BATCH);
-		else if (name.toLowerCase().endsWith(".pl"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_PERL);
-		else if (name.toLowerCase().endsWith(".sh"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_UNIX_SHELL);
-		else if (name.toLowerCase().endsWith(".css"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_CSS);
-		else if (name.toLowerCase().endsWith(".json"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_JSON);
-		else if (name.toLowerCase().endsWith(".ini"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_INI);
-		else if (name.toLowerCase().endsWith(".yaml") || name.toLowerCase().endsWith(".yml"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_YAML);
-		else if (name.toLowerCase().endsWith(".rb"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_RUBY);
-		else if (name.toLowerCase().endsWith(".make") || name.toLowerCase().endsWith(".mak"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_MAKEFILE);
-		else if (name.toLowerCase().endsWith(".py"))
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_PYTHON);
-		else
-			textArea.setSyntaxEditingStyle(SYNTAX_STYLE_NONE);
+		textArea.setSyntaxEditingStyle(getSyntaxEditingStyle(name));
 		scrollPane = new RTextScrollPane(textArea, true);
 
 		scrollPane.setIconRowHeaderEnabled(true);
@@ -153,6 +126,32 @@ public class OpenFile implements SyntaxConstants {
 		// Edit RTextArea's PopupMenu
 		JPopupMenu pop = textArea.getPopupMenu();
 		pop.addSeparator();
+		final JMenuItem findUsagesItem = new JMenuItem("Find Usages");
+		findUsagesItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				LinkKey linkKey = getReferenceLinkKeyForOffset(popupOffset);
+				if (linkKey != null)
+					mainWindow.onFindUsagesRequest(linkKey, getLinkDescription(linkKey));
+			}
+		});
+		pop.add(findUsagesItem);
+		pop.addPopupMenuListener(new PopupMenuListener() {
+			@Override
+			public void popupMenuWillBecomeVisible(PopupMenuEvent e) {
+				Point point = textArea.getMousePosition();
+				popupOffset = point != null ? textArea.viewToModel(point) : textArea.getCaretPosition();
+				findUsagesItem.setEnabled(getReferenceLinkKeyForOffset(popupOffset) != null);
+			}
+
+			@Override
+			public void popupMenuWillBecomeInvisible(PopupMenuEvent e) {
+			}
+
+			@Override
+			public void popupMenuCanceled(PopupMenuEvent e) {
+			}
+		});
 		JMenuItem item = new JMenuItem("Font");
 		item.addActionListener(new ActionListener() {
 			@Override
@@ -191,6 +190,14 @@ public class OpenFile implements SyntaxConstants {
 				}
 			});
 		}
+		scrollPane.getViewport().addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				Rectangle visible = textArea.getVisibleRect();
+				visibleFrom = textArea.viewToModel(visible.getLocation());
+				visibleTo = textArea.viewToModel(new Point(visible.x + visible.width, visible.y + visible.height));
+			}
+		});
 
 		textArea.setHyperlinksEnabled(true);
 		textArea.setLinkScanningMask(Keymap.ctrlDownModifier());
@@ -198,14 +205,19 @@ public class OpenFile implements SyntaxConstants {
 		textArea.setLinkGenerator(new LinkGenerator() {
 			@Override
 			public LinkGeneratorResult isLinkAtOffset(RSyntaxTextArea textArea, final int offs) {
-				final String uniqueStr = getUniqueStrForOffset(offs);
-				final Integer selectionFrom = getSelectionFromForOffset(offs);
-				if (uniqueStr != null && selectionFrom != null) {
+				final LinkKey linkKey = getClickableLinkKeyForOffset(offs);
+				final int selectionFrom = getSelectionFromForOffset(offs);
+				if (linkKey != null && selectionFrom >= 0) {
 					return new LinkGeneratorResult() {
 						@Override
 						public HyperlinkEvent execute() {
-							if (isNavigationLinksValid)
-								onNavigationClicked(uniqueStr);
+							if (!isNavigationLinksValid)
+								return null;
+							if (isLocallyNavigable(linkKey) || isNavigableCache.containsKey(linkKey)) {
+								onNavigationClicked(linkKey);
+							} else {
+								onUnresolvedNavigationClicked(linkKey);
+							}
 							return null;
 						}
 
@@ -455,46 +467,181 @@ public class OpenFile implements SyntaxConstants {
 		});
 	}
 
+	/**
+	 * @return the RSyntaxTextArea style for the file name's extension
+	 */
+	static String getSyntaxEditingStyle(String name) {
+		if (name.toLowerCase().endsWith(".class") || name.toLowerCase().endsWith(".java"))
+			return SYNTAX_STYLE_JAVA;
+		else if (name.toLowerCase().endsWith(".xml") || name.toLowerCase().endsWith(".rss")
+				|| name.toLowerCase().endsWith(".project") || name.toLowerCase().endsWith(".classpath"))
+			return SYNTAX_STYLE_XML;
+		else if (name.toLowerCase().endsWith(".h") || name.toLowerCase().endsWith(".c"))
+			return SYNTAX_STYLE_C;
+		else if (name.toLowerCase().endsWith(".cpp"))
+			return SYNTAX_STYLE_CPLUSPLUS;
+		else if (name.toLowerCase().endsWith(".sql"))
+			return SYNTAX_STYLE_SQL;
+		else if (name.toLowerCase().endsWith(".js"))
+			return SYNTAX_STYLE_JAVASCRIPT;
+		else if (name.toLowerCase().endsWith(".php") || name.toLowerCase().endsWith(".php5")
+				|| name.toLowerCase().endsWith(".phtml"))
+			return SYNTAX_STYLE_PHP;
+		else if (name.toLowerCase().endsWith(".html") || name.toLowerCase().endsWith(".htm")
+				|| name.toLowerCase().endsWith(".xhtm") || name.toLowerCase().endsWith(".xhtml"))
+			return SYNTAX_STYLE_HTML;
+		else if (name.toLowerCase().endsWith(".js"))
+			return SYNTAX_STYLE_JAVASCRIPT;
+		else if (name.toLowerCase().endsWith(".lua"))
+			return SYNTAX_STYLE_LUA;
+		else if (name.toLowerCase().endsWith(".bat"))
+			return SYNTAX_STYLE_WINDOWS_BATCH;
+		else if (name.toLowerCase().endsWith(".pl"))
+			return SYNTAX_STYLE_PERL;
+		else if (name.toLowerCase().endsWith(".sh"))
+			return SYNTAX_STYLE_UNIX_SHELL;
+		else if (name.toLowerCase().endsWith(".css"))
+			return SYNTAX_STYLE_CSS;
+		else if (name.toLowerCase().endsWith(".json"))
+			return SYNTAX_STYLE_JSON;
+		else if (name.toLowerCase().endsWith(".ini"))
+			return SYNTAX_STYLE_INI;
+		else if (name.toLowerCase().endsWith(".yaml") || name.toLowerCase().endsWith(".yml"))
+			return SYNTAX_STYLE_YAML;
+		else if (name.toLowerCase().endsWith(".rb"))
+			return SYNTAX_STYLE_RUBY;
+		else if (name.toLowerCase().endsWith(".make") || name.toLowerCase().endsWith(".mak"))
+			return SYNTAX_STYLE_MAKEFILE;
+		else if (name.toLowerCase().endsWith(".py"))
+			return SYNTAX_STYLE_PYTHON;
+		else
+			return SYNTAX_STYLE_NONE;
+	}
+
 	public void setContent(String content) {
 		textArea.setText(content);
 	}
 
 	public void decompile() {
+		// menu changes made while running apply to the next decompile
+		decompile(ConfigSaver.getLoadedInstance().getDecompilerSettingsSnapshot(), null);
+	}
+
+	/**
+	 * @param cacheKey
+	 *            key of the type with the settings in the caches, null:
+	 *            computed when the caches are asked
+	 */
+	public void decompile(DecompilerSettings settings, String cacheKey) {
 		this.invalidateContent();
-		// synchronized: do not accept changes from menu while running
-		synchronized (settings) {
-			if (Languages.java().getName().equals(settings.getLanguage().getName())) {
-				decompileWithNavigationLinks();
-			} else {
-				decompileWithoutLinks();
-			}
+		DecompilationOptions decompilationOptions = new DecompilationOptions();
+		decompilationOptions.setSettings(settings);
+		decompilationOptions.setFullDecompilation(true);
+		if (Languages.java().getName().equals(settings.getLanguage().getName())) {
+			decompileWithNavigationLinks(decompilationOptions, cacheKey, null);
+		} else {
+			decompileWithoutLinks(decompilationOptions);
 		}
 	}
 
-	private void decompileWithoutLinks() {
+	/**
+	 * Shows a Java source of the memory cache instead of decompiling
+	 */
+	public void setCachedContent(String cacheKey, DecompilationCache.Entry cached) {
+		DecompilationOptions decompilationOptions = new DecompilationOptions();
+		decompilationOptions.setSettings(ConfigSaver.getLoadedInstance().getDecompilerSettingsSnapshot());
+		decompilationOptions.setFullDecompilation(true);
+		decompileWithNavigationLinks(decompilationOptions, cacheKey, cached);
+	}
+
+	private void decompileWithoutLinks(DecompilationOptions decompilationOptions) {
 		this.invalidateContent();
+		isHibernated = false;
+		keepLinkDescriptions();
+		cacheKey = null;
 		isNavigationLinksValid = false;
 		textArea.setHyperlinksEnabled(false);
 
-		StringWriter stringwriter = new StringWriter();
-		PlainTextOutput plainTextOutput = new PlainTextOutput(stringwriter);
-		plainTextOutput.setUnicodeOutputEnabled(decompilationOptions.getSettings().isUnicodeOutputEnabled());
-		settings.getLanguage().decompileType(type, plainTextOutput, decompilationOptions);
-		setContentPreserveLastScrollPosition(stringwriter.toString());
+		String source = DecompilerContext.decompile(type, metadataSystem, typeLoader, decompilationOptions,
+				DecompilationCache.getDefault());
+		if (DecompilerScheduler.isCurrentJobCancelled())
+			return;
+		setContentPreserveLastScrollPosition(source);
 		this.isContentValid = true;
+		navigateIfAddedToScreen();
 	}
 
-	private void decompileWithNavigationLinks() {
+	/**
+	 * @param cachedKey
+	 *            key of the content in the caches, null: not known yet
+	 * @param cached
+	 *            content to show, null: generate it
+	 */
+	private void decompileWithNavigationLinks(DecompilationOptions decompilationOptions, String cachedKey,
+			DecompilationCache.Entry cached) {
 		this.invalidateContent();
+		isHibernated = false;
+		final Double scrollPercent = lastScrollPercent;
+		// the links of the previous content
+		DecompilerScheduler.getDefault().cancel(this, DecompilerScheduler.Priority.LINKS);
+		keepLinkDescriptions();
 		DecompilerLinkProvider newLinkProvider = new DecompilerLinkProvider();
-		newLinkProvider.setDecompilerReferences(metadataSystem, settings, decompilationOptions);
+		newLinkProvider.setDecompilerReferences(metadataSystem, typeLoader, decompilationOptions.getSettings(),
+				decompilationOptions);
+		newLinkProvider.setDecompilationCache(DecompilationCache.getDefault());
+		newLinkProvider.setMemoryCache(MemoryDecompilationCache.getDefault());
 		newLinkProvider.setType(type);
 		linkProvider = newLinkProvider;
 
-		linkProvider.generateContent();
-		setContentPreserveLastScrollPosition(linkProvider.getTextContent());
+		final DocumentStreamWriter writer = new DocumentStreamWriter(textArea);
+		streamWriter = writer;
+		if (cached != null) {
+			newLinkProvider.setCachedContent(cachedKey, cached);
+		} else {
+			newLinkProvider.setCacheKey(cachedKey);
+			newLinkProvider.setOutputWriter(writer);
+			newLinkProvider.generateContent();
+		}
+		cacheKey = newLinkProvider.getCacheKey();
+		if (DecompilerScheduler.isCurrentJobCancelled()) {
+			discardStreamedContent(writer);
+			return;
+		}
+		if (writer.isStreamed()) {
+			// the text is in the text area already, or on its way there
+			boolean isRestoreScroll = scrollPercent != null && initialNavigationLink == null;
+			writer.finish(isRestoreScroll ? new Runnable() {
+				@Override
+				public void run() {
+					restoreScrollPosition(scrollPercent);
+				}
+			} : null);
+		} else {
+			setContentPreserveLastScrollPosition(newLinkProvider.getTextContent());
+		}
 		this.isContentValid = true;
 		enableLinks();
+		navigateIfAddedToScreen();
+	}
+
+	// the text of a cancelled decompilation is not left half shown
+	private void discardStreamedContent(final DocumentStreamWriter writer) {
+		writer.cancel();
+		if (!writer.isStreamed())
+			return;
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (streamWriter == writer)
+					textArea.setText("");
+			}
+		});
+	}
+
+	private void cancelStreaming() {
+		DocumentStreamWriter writer = streamWriter;
+		if (writer != null)
+			writer.cancel();
 	}
 
 	private void setContentPreserveLastScrollPosition(final String content) {
@@ -534,7 +681,7 @@ public class OpenFile implements SyntaxConstants {
 		if (initialNavigationLink != null) {
 			doEnableLinks();
 		} else {
-			new Thread(new Runnable() {
+			DecompilerScheduler.getDefault().submit(DecompilerScheduler.Priority.LINKS, this, true, new Runnable() {
 				@Override
 				public void run() {
 					try {
@@ -545,7 +692,7 @@ public class OpenFile implements SyntaxConstants {
 						resetCursor();
 					}
 				}
-			}).start();
+			});
 		}
 	}
 
@@ -559,20 +706,92 @@ public class OpenFile implements SyntaxConstants {
 	}
 
 	private void doEnableLinks() {
+		LinkProvider linkProvider = this.linkProvider;
+		// hibernated, closed or decompiled again meanwhile
+		if (linkProvider == null || DecompilerScheduler.isCurrentJobCancelled())
+			return;
 		isNavigationLinksValid = false;
 		linkProvider.processLinks();
-		buildSelectionToUniqueStrTreeMap();
+		if (this.linkProvider != linkProvider || DecompilerScheduler.isCurrentJobCancelled())
+			return;
+		linkIndex = linkProvider.getLinkIndex();
 		clearLinksCache();
+		MemoryDecompilationCache memoryCache = MemoryDecompilationCache.getDefault();
+		if (memoryCache != null)
+			readableLinksCache.putAll(memoryCache.getLinkDescriptions(cacheKey));
 		isNavigationLinksValid = true;
 		textArea.setHyperlinksEnabled(true);
-		warmUpWithFirstLink();
+		resolveLinksInBackground(linkIndex);
 	}
 
-	private void warmUpWithFirstLink() {
-		if (selectionToUniqueStrTreeMap.keySet().size() > 0) {
-			Selection selection = selectionToUniqueStrTreeMap.keySet().iterator().next();
-			getLinkDescriptionForOffset(selection.from);
-		}
+	/**
+	 * Resolves whether each distinct link is navigable and its description
+	 * into the link caches, in one job on the scheduler, so that hovering
+	 * and clicking do not wait for types to resolve. The keys are resolved
+	 * one after the other: the job takes the metadata lock per key and the
+	 * foreground decompile gets it in between. The links in the viewport
+	 * are resolved first.
+	 */
+	private void resolveLinksInBackground(final LinkIndex linkIndex) {
+		final int keyCount = linkIndex.getKeyCount();
+		if (keyCount == 0)
+			return;
+		DecompilerScheduler.getDefault().submit(DecompilerScheduler.Priority.LINKS, this, true, new Runnable() {
+			@Override
+			public void run() {
+				int keyId = 0;
+				try {
+					isWaitForLinksCursor = true;
+					int visibleTo = OpenFile.this.visibleTo;
+					for (int link = linkIndex.findLinkFrom(visibleFrom); link >= 0 && link < linkIndex.getLinkCount()
+							&& linkIndex.getFrom(link) <= visibleTo; link++) {
+						if (DecompilerScheduler.isCurrentJobCancelled() || OpenFile.this.linkIndex != linkIndex)
+							return;
+						LinkKey linkKey = linkIndex.getLinkKey(link);
+						if (isLinkNavigable(linkKey))
+							getLinkDescription(linkKey);
+					}
+					for (; keyId < keyCount; keyId++) {
+						// the content changed or the tab was closed
+						if (DecompilerScheduler.isCurrentJobCancelled() || OpenFile.this.linkIndex != linkIndex)
+							return;
+						LinkKey linkKey = linkIndex.getKey(keyId);
+						if (isLinkNavigable(linkKey))
+							getLinkDescription(linkKey);
+						if ((keyId + 1) % LINK_RESOLUTION_PROGRESS_STEP == 0)
+							showLinkResolutionProgress(keyId + 1, keyCount);
+					}
+				} finally {
+					isWaitForLinksCursor = false;
+					resetCursor();
+					// a cancelled job leaves no progress behind
+					showLinkResolutionProgress(keyCount, keyCount);
+				}
+			}
+		});
+	}
+
+	private void showLinkResolutionProgress(final int resolvedCount, final int keyCount) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				JLabel label = mainWindow.getLabel();
+				String current = label.getText();
+				// not over a link description or a navigation
+				if (current == null || !(current.equals("Complete") || current.startsWith("Resolving links:")
+						|| current.startsWith("Warming up:")))
+					return;
+				label.setText(resolvedCount < keyCount ? "Resolving links: " + (100 * resolvedCount / keyCount) + "%"
+						: "Complete");
+			}
+		});
+	}
+
+	// the descriptions resolved for the content go with it to the memory cache
+	private void keepLinkDescriptions() {
+		MemoryDecompilationCache memoryCache = MemoryDecompilationCache.getDefault();
+		if (memoryCache != null && cacheKey != null && !readableLinksCache.isEmpty())
+			memoryCache.putLinkDescriptions(cacheKey, readableLinksCache);
 	}
 
 	public void clearLinksCache() {
@@ -584,57 +803,59 @@ public class OpenFile implements SyntaxConstants {
 		}
 	}
 
-	private void buildSelectionToUniqueStrTreeMap() {
-		TreeMap<Selection, String> treeMap = new TreeMap<>();
-		Map<String, Selection> definitionToSelectionMap = linkProvider.getDefinitionToSelectionMap();
-		Map<String, Set<Selection>> referenceToSelectionsMap = linkProvider.getReferenceToSelectionsMap();
-
-		for (String key : definitionToSelectionMap.keySet()) {
-			Selection selection = definitionToSelectionMap.get(key);
-			treeMap.put(selection, key);
-		}
-		for (String key : referenceToSelectionsMap.keySet()) {
-			for (Selection selection : referenceToSelectionsMap.get(key)) {
-				treeMap.put(selection, key);
-			}
+	// the link at the offset, -1 if none
+	private int getLinkForOffset(LinkIndex linkIndex, int offset) {
+		if (isNavigationLinksValid) {
+			return linkIndex.findLink(offset);
 		}
-		selectionToUniqueStrTreeMap = treeMap;
+		return -1;
 	}
 
-	private Selection getSelectionForOffset(int offset) {
-		if (isNavigationLinksValid) {
-			Selection offsetSelection = new Selection(offset, offset);
-			Selection floorSelection = selectionToUniqueStrTreeMap.floorKey(offsetSelection);
-			if (floorSelection != null && floorSelection.from <= offset && floorSelection.to > offset) {
-				return floorSelection;
+	private LinkKey getLinkKeyForOffset(int offset) {
+		LinkIndex linkIndex = this.linkIndex;
+		int link = getLinkForOffset(linkIndex, offset);
+		if (link >= 0) {
+			LinkKey linkKey = linkIndex.getLinkKey(link);
+			if (this.isLinkNavigable(linkKey) && this.getLinkDescription(linkKey) != null) {
+				return linkKey;
 			}
 		}
 		return null;
 	}
 
-	private String getUniqueStrForOffset(int offset) {
-		Selection selection = getSelectionForOffset(offset);
-		if (selection != null) {
-			String uniqueStr = selectionToUniqueStrTreeMap.get(selection);
-			if (this.isLinkNavigable(uniqueStr) && this.getLinkDescription(uniqueStr) != null) {
-				return uniqueStr;
-			}
-		}
+	// the link's key if it may be navigable: resolved as such, or not
+	// resolved yet and then resolved when clicked
+	private LinkKey getClickableLinkKeyForOffset(int offset) {
+		LinkKey linkKey = getLinkKeyForOffset(offset);
+		if (linkKey != null)
+			return linkKey;
+		linkKey = getReferenceLinkKeyForOffset(offset);
+		if (linkKey != null && !isNavigableCache.containsKey(linkKey))
+			return linkKey;
 		return null;
 	}
 
-	private Integer getSelectionFromForOffset(int offset) {
-		Selection selection = getSelectionForOffset(offset);
-		if (selection != null) {
-			return selection.from;
+	// any type, method or field reference, also to classes outside the jar
+	private LinkKey getReferenceLinkKeyForOffset(int offset) {
+		LinkIndex linkIndex = this.linkIndex;
+		int link = getLinkForOffset(linkIndex, offset);
+		return link >= 0 ? linkIndex.getLinkKey(link) : null;
+	}
+
+	// start of the link at the offset, -1 if none
+	private int getSelectionFromForOffset(int offset) {
+		LinkIndex linkIndex = this.linkIndex;
+		int link = getLinkForOffset(linkIndex, offset);
+		if (link >= 0) {
+			return linkIndex.getFrom(link);
 		}
-		return null;
+		return -1;
 	}
 
 	private String getLinkDescriptionForOffset(int offset) {
-		String uniqueStr = getUniqueStrForOffset(offset);
-		if (uniqueStr != null) {
-			String description = this.getLinkDescription(uniqueStr);
+		LinkKey linkKey = getLinkKeyForOffset(offset);
+		if (linkKey != null) {
+			String description = this.getLinkDescription(linkKey);
 			if (description != null) {
 				return description;
 			}
@@ -642,64 +863,98 @@ public class OpenFile implements SyntaxConstants {
 		return null;
 	}
 
-	private boolean isLinkNavigable(String uniqueStr) {
+	private boolean isLinkNavigable(LinkKey linkKey) {
 		try {
-			Boolean isNavigableCached = isNavigableCache.get(uniqueStr);
+			Boolean isNavigableCached = isNavigableCache.get(linkKey);
 			if (isNavigableCached != null)
 				return isNavigableCached;
 
-			boolean isNavigable = linkProvider.isLinkNavigable(uniqueStr);
-			isNavigableCache.put(uniqueStr, isNavigable);
+			// closed meanwhile, or the EDT, which does not wait for the
+			// metadata lock: the links job resolves it
+			LinkProvider linkProvider = this.linkProvider;
+			if (linkProvider == null || SwingUtilities.isEventDispatchThread())
+				return false;
+			boolean isNavigable = linkProvider.isLinkNavigable(linkKey);
+			isNavigableCache.put(linkKey, isNavigable);
 			return isNavigable;
 		} catch (Exception e) {
-			Luyten.showExceptionDialog("Exception!", e);
+			// resolved on a worker, the link is not navigable
+			System.out.println("[Links]: Cannot resolve " + linkKey + ": " + e);
 		}
 		return false;
 	}
 
-	private String getLinkDescription(String uniqueStr) {
+	private String getLinkDescription(LinkKey linkKey) {
 		try {
-			String descriptionCached = readableLinksCache.get(uniqueStr);
+			String descriptionCached = readableLinksCache.get(linkKey);
 			if (descriptionCached != null)
 				return descriptionCached;
 
-			String description = linkProvider.getLinkDescription(uniqueStr);
+			LinkProvider linkProvider = this.linkProvider;
+			if (linkProvider == null || SwingUtilities.isEventDispatchThread())
+				return null;
+			String description = linkProvider.getLinkDescription(linkKey);
 			if (description != null && description.trim().length() > 0) {
-				readableLinksCache.put(uniqueStr, description);
+				readableLinksCache.put(linkKey, description);
 				return description;
 			}
 		} catch (Exception e) {
-			Luyten.showExceptionDialog("Exception!", e);
+			System.out.println("[Links]: Cannot describe " + linkKey + ": " + e);
 		}
 		return null;
 	}
 
-	private void onNavigationClicked(String clickedReferenceUniqueStr) {
-		if (isLocallyNavigable(clickedReferenceUniqueStr)) {
-			onLocalNavigationRequest(clickedReferenceUniqueStr);
-		} else if (linkProvider.isLinkNavigable(clickedReferenceUniqueStr)) {
-			onOutboundNavigationRequest(clickedReferenceUniqueStr);
+	private void onNavigationClicked(LinkKey clickedLinkKey) {
+		if (isLocallyNavigable(clickedLinkKey)) {
+			onLocalNavigationRequest(clickedLinkKey);
+		} else if (isLinkNavigable(clickedLinkKey)) {
+			onOutboundNavigationRequest(clickedLinkKey);
 		} else {
 			JLabel label = this.mainWindow.getLabel();
 			if (label == null)
 				return;
-			String[] linkParts = clickedReferenceUniqueStr.split("\\|");
-			if (linkParts.length <= 1) {
-				label.setText("Cannot navigate: " + clickedReferenceUniqueStr);
-				return;
-			}
-			String destinationTypeStr = linkParts[1];
-			label.setText("Cannot navigate: " + destinationTypeStr.replaceAll("/", "."));
+			label.setText("Cannot navigate: " + clickedLinkKey.getOuterPath().replace('/', '.'));
 		}
 	}
 
-	private boolean isLocallyNavigable(String uniqueStr) {
-		return linkProvider.getDefinitionToSelectionMap().keySet().contains(uniqueStr);
+	/**
+	 * Resolves the clicked key ahead of the links job, the EDT does not wait
+	 * for the metadata lock, and navigates then
+	 */
+	private void onUnresolvedNavigationClicked(final LinkKey clickedLinkKey) {
+		JLabel label = this.mainWindow.getLabel();
+		if (label != null)
+			label.setText("Navigating: " + clickedLinkKey.getOuterPath().replace('/', '.'));
+		DecompilerScheduler.getDefault().submit(DecompilerScheduler.Priority.FOREGROUND, this, true, new Runnable() {
+			@Override
+			public void run() {
+				if (DecompilerScheduler.isCurrentJobCancelled())
+					return;
+				if (isLinkNavigable(clickedLinkKey))
+					getLinkDescription(clickedLinkKey);
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (isNavigationLinksValid)
+							onNavigationClicked(clickedLinkKey);
+					}
+				});
+			}
+		});
+	}
+
+	private boolean isLocallyNavigable(LinkKey linkKey) {
+		LinkIndex linkIndex = getLinkIndex();
+		return linkIndex != null && linkIndex.isDefined(linkKey);
 	}
 
-	private void onLocalNavigationRequest(String uniqueStr) {
+	private void onLocalNavigationRequest(LinkKey linkKey) {
 		try {
-			Selection selection = linkProvider.getDefinitionToSelectionMap().get(uniqueStr);
+			// hibernated meanwhile: the tab is decompiled again first
+			LinkIndex linkIndex = getLinkIndex();
+			if (linkIndex == null)
+				return;
+			Selection selection = linkIndex.getDefinition(linkKey);
 			doLocalNavigation(selection);
 		} catch (Exception e) {
 			Luyten.showExceptionDialog("Exception!", e);
@@ -751,21 +1006,27 @@ public class OpenFile implements SyntaxConstants {
 		});
 	}
 
-	private void onOutboundNavigationRequest(String uniqueStr) {
-		mainWindow.onNavigationRequest(uniqueStr);
+	private void onOutboundNavigationRequest(LinkKey linkKey) {
+		mainWindow.onNavigationRequest(linkKey);
 	}
 
-	public void setDecompilerReferences(MetadataSystem metadataSystem, DecompilerSettings settings,
-			DecompilationOptions decompilationOptions) {
+	public void setDecompilerReferences(MetadataSystem metadataSystem, ITypeLoader typeLoader) {
 		this.metadataSystem = metadataSystem;
-		this.settings = settings;
-		this.decompilationOptions = decompilationOptions;
+		this.typeLoader = typeLoader;
 	}
 
 	public TypeDefinition getType() {
 		return type;
 	}
 
+	/**
+	 * @return the references of the decompiled source, null without links
+	 */
+	public LinkIndex getLinkIndex() {
+		LinkProvider linkProvider = this.linkProvider;
+		return linkProvider != null ? linkProvider.getLinkIndex() : null;
+	}
+
 	public void setType(TypeDefinition type) {
 		this.type = type;
 	}
@@ -776,6 +1037,7 @@ public class OpenFile implements SyntaxConstants {
 
 	public void invalidateContent() {
 		try {
+			cancelStreaming();
 			this.setContent("");
 		} finally {
 			this.isContentValid = false;
@@ -783,15 +1045,55 @@ public class OpenFile implements SyntaxConstants {
 		}
 	}
 
+	public boolean isHibernated() {
+		return isHibernated;
+	}
+
+	public long getLastShownTime() {
+		return lastShownTime;
+	}
+
+	public void setLastShownTime(long lastShownTime) {
+		this.lastShownTime = lastShownTime;
+	}
+
+	/**
+	 * Frees the source and links of a background class tab. The title,
+	 * type, scroll position and navigation target are kept, the source is
+	 * decompiled again when the tab comes to the front. Call on the EDT.
+	 */
+	public void hibernate() {
+		if (type == null || isHibernated)
+			return;
+		DecompilerScheduler.getDefault().cancel(this);
+		keepLinkDescriptions();
+		isHibernated = true;
+		cacheKey = null;
+		linkProvider = null;
+		linkIndex = new LinkIndex();
+		invalidateContent();
+		streamWriter = null;
+		clearLinksCache();
+		// a cleared document keeps its buffer
+		textArea.setDocument(new RSyntaxDocument(textArea.getSyntaxEditingStyle()));
+	}
+
 	public void resetScrollPosition() {
 		lastScrollPercent = null;
 	}
 
-	public void setInitialNavigationLink(String initialNavigationLink) {
+	public void setInitialNavigationLink(LinkKey initialNavigationLink) {
 		this.initialNavigationLink = initialNavigationLink;
 	}
 
 	public void onAddedToScreen() {
+		synchronized (this) {
+			// shown while decompiling: navigate when the content is complete
+			if (initialNavigationLink != null && !isContentValid) {
+				isAddedToScreenPending = true;
+				return;
+			}
+		}
 		try {
 			if (initialNavigationLink != null) {
 				onLocalNavigationRequest(initialNavigationLink);
@@ -805,11 +1107,28 @@ public class OpenFile implements SyntaxConstants {
 		}
 	}
 
+	private void navigateIfAddedToScreen() {
+		synchronized (this) {
+			if (!isAddedToScreenPending)
+				return;
+			isAddedToScreenPending = false;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				onAddedToScreen();
+			}
+		});
+	}
+
 	/**
 	 * sun.swing.CachedPainter holds on OpenFile for a while even after
 	 * JTabbedPane.remove(component)
 	 */
 	public void close() {
+		DecompilerScheduler.getDefault().cancel(this);
+		keepLinkDescriptions();
+		cacheKey = null;
 		linkProvider = null;
 		type = null;
 		invalidateContent();
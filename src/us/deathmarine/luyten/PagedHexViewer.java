@@ -0,0 +1,241 @@
+package us.deathmarine.luyten;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.text.NumberFormat;
+import java.util.Arrays;
+
+import javax.swing.JLabel;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+
+import org.fife.ui.rsyntaxtextarea.Theme;
+
+/**
+ * Paged hex and ASCII tab of any content, 16 bytes per row. The bytes come
+ * from a MappedFile; an entry of a jar shows its first bytes at once and the
+ * rest once it is unpacked to a temporary file in the background.
+ */
+public class PagedHexViewer extends PagedViewer {
+	private static final long serialVersionUID = 6652412345087396410L;
+
+	private static final int BYTES_PER_ROW = 16;
+	private static final int HEAD_LENGTH = 64 * 1024;
+	private static final long PROGRESS_STEP = 4 * 1024 * 1024;
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	private final JTextField offsetField = new JTextField(12);
+	// null while unpacking
+	private volatile MappedFile mappedFile;
+	// the first bytes, shown while unpacking
+	private volatile byte[] head = new byte[0];
+	private volatile boolean isClosed;
+
+	public PagedHexViewer(String name, String path, Theme theme) {
+		super(name, path, theme, false);
+		offsetField.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				goToOffset();
+			}
+		});
+		toolBar.add(new JLabel("Offset:"));
+		toolBar.add(offsetField);
+		toolBar.add(statusLabel);
+	}
+
+	/**
+	 * Shows the bytes of a mapped file, which is closed with the tab
+	 */
+	public void open(MappedFile mappedFile) {
+		this.mappedFile = mappedFile;
+		showLength();
+	}
+
+	/**
+	 * Shows the first bytes of the stream at once and the others when the
+	 * stream is copied to a temporary file, in the background
+	 *
+	 * @param in
+	 *            closed when read
+	 * @param length
+	 *            expected length, for the progress, -1 if not known
+	 */
+	public void open(final InputStream in, final long length) {
+		statusLabel.setText("Unpacking...");
+		new Thread("PagedHexUnpack") {
+			public void run() {
+				try (InputStream stream = in) {
+					byte[] firstBytes = readHead(stream);
+					head = firstBytes;
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							updateRowCount();
+						}
+					});
+					InputStream whole = new SequenceInputStream(new ByteArrayInputStream(firstBytes), stream);
+					MappedFile newMappedFile = MappedFile.copyAndMap(whole, name, new MappedFile.Listener() {
+						private long reportedLength;
+
+						@Override
+						public boolean onCopied(final long copiedLength) {
+							if (copiedLength - reportedLength >= PROGRESS_STEP) {
+								reportedLength = copiedLength;
+								showProgress(copiedLength, length);
+							}
+							return !isClosed;
+						}
+					});
+					if (newMappedFile == null)
+						return;
+					synchronized (PagedHexViewer.this) {
+						if (isClosed) {
+							newMappedFile.close();
+							return;
+						}
+						mappedFile = newMappedFile;
+					}
+					head = new byte[0];
+					showLength();
+				} catch (final IOException e) {
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							statusLabel.setText("Cannot unpack: " + e.getMessage());
+						}
+					});
+				}
+			}
+		}.start();
+	}
+
+	private static byte[] readHead(InputStream in) throws IOException {
+		byte[] buffer = new byte[HEAD_LENGTH];
+		int length = 0;
+		int count;
+		while (length < buffer.length && (count = in.read(buffer, length, buffer.length - length)) >= 0) {
+			length += count;
+		}
+		return Arrays.copyOf(buffer, length);
+	}
+
+	private void showProgress(final long copiedLength, final long length) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (length > 0) {
+					statusLabel.setText("Unpacking: " + (100 * copiedLength / length) + "%");
+				} else {
+					statusLabel.setText("Unpacking: " + NumberFormat.getInstance().format(copiedLength) + " bytes");
+				}
+			}
+		});
+	}
+
+	private void showLength() {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				MappedFile mappedFile = PagedHexViewer.this.mappedFile;
+				if (mappedFile != null)
+					statusLabel.setText(NumberFormat.getInstance().format(mappedFile.getLength()) + " bytes");
+				updateRowCount();
+			}
+		});
+	}
+
+	private long getLength() {
+		MappedFile mappedFile = this.mappedFile;
+		return mappedFile != null ? mappedFile.getLength() : head.length;
+	}
+
+	@Override
+	protected long getRowCount() {
+		return (getLength() + BYTES_PER_ROW - 1) / BYTES_PER_ROW;
+	}
+
+	@Override
+	protected String getRows(long firstRow, int count) {
+		MappedFile mappedFile = this.mappedFile;
+		byte[] head = this.head;
+		long length = mappedFile != null ? mappedFile.getLength() : head.length;
+		// offsets past 4 GB need more digits
+		int offsetDigits = length > 0xFFFFFFFFL ? 12 : 8;
+		StringBuilder sb = new StringBuilder(count * (offsetDigits + 4 * BYTES_PER_ROW + 5));
+		byte[] row = new byte[BYTES_PER_ROW];
+		for (long r = firstRow; r < firstRow + count; r++) {
+			long offset = r * BYTES_PER_ROW;
+			if (offset >= length)
+				break;
+			int rowLength = (int) Math.min(BYTES_PER_ROW, length - offset);
+			if (mappedFile != null) {
+				mappedFile.getBytes(offset, row);
+			} else {
+				System.arraycopy(head, (int) offset, row, 0, rowLength);
+			}
+			appendHex(sb, offset, offsetDigits);
+			sb.append("  ");
+			for (int i = 0; i < BYTES_PER_ROW; i++) {
+				if (i == BYTES_PER_ROW / 2)
+					sb.append(' ');
+				if (i < rowLength) {
+					appendHex(sb, row[i] & 0xFF, 2);
+					sb.append(' ');
+				} else {
+					sb.append("   ");
+				}
+			}
+			sb.append(" |");
+			for (int i = 0; i < rowLength; i++) {
+				sb.append(row[i] >= 0x20 && row[i] < 0x7F ? (char) row[i] : '.');
+			}
+			sb.append("|\n");
+		}
+		return sb.toString();
+	}
+
+	private static void appendHex(StringBuilder sb, long value, int digits) {
+		for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+			sb.append(HEX_DIGITS[(int) ((value >>> shift) & 0xF)]);
+		}
+	}
+
+	private void goToOffset() {
+		String text = offsetField.getText().trim();
+		long offset;
+		try {
+			if (text.startsWith("0x") || text.startsWith("0X")) {
+				offset = Long.parseLong(text.substring(2), 16);
+			} else {
+				offset = Long.parseLong(text);
+			}
+		} catch (NumberFormatException e) {
+			statusLabel.setText("Not an offset: " + text + " (decimal or 0x hex)");
+			return;
+		}
+		if (offset < 0 || offset >= getLength()) {
+			statusLabel.setText(mappedFile != null ? "No offset " + text : "Offset " + text + " is not unpacked yet");
+			return;
+		}
+		scrollToRow(offset / BYTES_PER_ROW);
+		textArea.requestFocusInWindow();
+	}
+
+	@Override
+	public void focusFind() {
+		offsetField.requestFocusInWindow();
+		offsetField.selectAll();
+	}
+
+	@Override
+	public synchronized void close() {
+		isClosed = true;
+		if (mappedFile != null)
+			mappedFile.close();
+	}
+}
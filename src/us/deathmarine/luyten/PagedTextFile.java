@@ -0,0 +1,266 @@
+package us.deathmarine.luyten;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Read-only text of any size, in a MappedFile instead of the heap. Lines are
+ * found through an index of the offset of every LINE_INDEX_STEP-th line,
+ * which is built in the background; the text is only decoded for the lines
+ * asked for.
+ */
+public class PagedTextFile {
+
+	public interface Listener {
+
+		public void onProgress(long indexedLength, long length, long lineCount);
+	}
+
+	private static final int LINE_INDEX_STEP = 64;
+	// longer lines are cut when shown
+	private static final int MAX_LINE_LENGTH = 64 * 1024;
+	private static final int PROGRESS_STEP = 16 * 1024 * 1024;
+	// first bytes looked at by isProbablyText
+	public static final int TEXT_SAMPLE_LENGTH = 64 * 1024;
+
+	private final MappedFile mappedFile;
+	private final long length;
+
+	// offset of line i * LINE_INDEX_STEP at i
+	private long[] lineIndex = new long[1024];
+	private int lineIndexCount;
+	private volatile long lineCount;
+	private volatile boolean isIndexed;
+	private volatile boolean cancel;
+
+	public PagedTextFile(MappedFile mappedFile) {
+		this.mappedFile = mappedFile;
+		this.length = mappedFile.getLength();
+		lineIndex[lineIndexCount++] = 0;
+	}
+
+	/**
+	 * Guesses text or binary from the first bytes, like the tabs of smaller
+	 * resources do
+	 */
+	public boolean isProbablyText() {
+		byte[] sample = new byte[(int) Math.min(length, TEXT_SAMPLE_LENGTH)];
+		return isProbablyText(sample, mappedFile.getBytes(0, sample));
+	}
+
+	/**
+	 * Guesses text or binary from the first bytes of a content not mapped yet
+	 */
+	public static boolean isProbablyText(byte[] sample, int sampleLength) {
+		int nonprintableCount = 0;
+		for (int i = 0; i < sampleLength; i++) {
+			byte b = sample[i];
+			if (b == 0 || (b > 0 && b < ' ' && b != '\t' && b != '\n' && b != '\r' && b != '\f'))
+				nonprintableCount++;
+		}
+		return nonprintableCount < sampleLength / 5;
+	}
+
+	/**
+	 * Finds the start of every line, blocks until done or closed
+	 */
+	public void buildLineIndex(Listener listener) {
+		long lines = 0;
+		for (long offset = 0; offset < length; offset++) {
+			if (getByte(offset) == '\n') {
+				lines++;
+				if (lines % LINE_INDEX_STEP == 0)
+					addLineIndex(offset + 1);
+			}
+			if ((offset + 1) % PROGRESS_STEP == 0) {
+				if (cancel)
+					return;
+				lineCount = lines;
+				if (listener != null)
+					listener.onProgress(offset + 1, length, lines);
+			}
+		}
+		if (cancel)
+			return;
+		// the last line has no line break
+		if (length > 0 && getByte(length - 1) != '\n')
+			lines++;
+		lineCount = Math.max(lines, 1);
+		isIndexed = true;
+		if (listener != null)
+			listener.onProgress(length, length, lineCount);
+	}
+
+	private synchronized void addLineIndex(long lineOffset) {
+		if (lineIndexCount == lineIndex.length)
+			lineIndex = Arrays.copyOf(lineIndex, lineIndexCount * 2);
+		lineIndex[lineIndexCount++] = lineOffset;
+		lineCount = (long) (lineIndexCount - 1) * LINE_INDEX_STEP;
+	}
+
+	/**
+	 * @return offset of the line, -1 if it is not indexed yet or past the end
+	 */
+	public long getLineOffset(long line) {
+		if (line < 0 || line >= getLineCount())
+			return -1;
+		long offset;
+		synchronized (this) {
+			int step = (int) (line / LINE_INDEX_STEP);
+			if (step >= lineIndexCount)
+				return -1;
+			offset = lineIndex[step];
+		}
+		for (long skipped = line % LINE_INDEX_STEP; skipped > 0; skipped--) {
+			offset = findLineEnd(offset) + 1;
+		}
+		return offset;
+	}
+
+	/**
+	 * @return the line the byte offset is in
+	 */
+	public long getLineOfOffset(long offset) {
+		int step;
+		long lineOffset;
+		synchronized (this) {
+			step = binarySearch(offset);
+			lineOffset = lineIndex[step];
+		}
+		long line = (long) step * LINE_INDEX_STEP;
+		while (lineOffset <= offset) {
+			long lineEnd = findLineEnd(lineOffset);
+			if (lineEnd >= offset || lineEnd >= length)
+				break;
+			lineOffset = lineEnd + 1;
+			line++;
+		}
+		return line;
+	}
+
+	// index of the last indexed line starting at or before the offset
+	private int binarySearch(long offset) {
+		int low = 0;
+		int high = lineIndexCount - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (lineIndex[middle] <= offset) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	// offset of the '\n' ending the line at lineOffset, or the length
+	private long findLineEnd(long lineOffset) {
+		for (long i = lineOffset; i < length; i++) {
+			if (getByte(i) == '\n')
+				return i;
+		}
+		return length;
+	}
+
+	/**
+	 * Decodes up to count lines from firstLine as UTF-8, each ending with a
+	 * line break
+	 */
+	public String getLines(long firstLine, int count) {
+		long offset = getLineOffset(firstLine);
+		if (offset < 0)
+			return "";
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count && offset < length; i++) {
+			long lineEnd = findLineEnd(offset);
+			long end = lineEnd > 0 && getByte(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+			boolean isCut = end - offset > MAX_LINE_LENGTH;
+			sb.append(decode(offset, isCut ? offset + MAX_LINE_LENGTH : end));
+			if (isCut)
+				sb.append(" [...]");
+			sb.append('\n');
+			offset = lineEnd + 1;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the offset's column in the decoded line
+	 */
+	public int getColumn(long lineOffset, long offset) {
+		return decode(lineOffset, Math.min(offset, lineOffset + MAX_LINE_LENGTH)).length();
+	}
+
+	private String decode(long from, long to) {
+		byte[] bytes = new byte[(int) (to - from)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = getByte(from + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Finds the UTF-8 bytes of the text, ASCII letters ignoring their case
+	 * unless matchCase, blocks until done or closed
+	 *
+	 * @return offset of the first match at or after fromOffset, -1 if none
+	 */
+	public long find(String text, long fromOffset, boolean matchCase) {
+		byte[] pattern = text.getBytes(StandardCharsets.UTF_8);
+		if (pattern.length == 0)
+			return -1;
+		if (!matchCase)
+			pattern = toLowerCase(pattern);
+		long last = length - pattern.length;
+		for (long i = Math.max(fromOffset, 0); i <= last; i++) {
+			if (i % PROGRESS_STEP == 0 && cancel)
+				return -1;
+			int j = 0;
+			while (j < pattern.length && toLowerCase(getByte(i + j), matchCase) == pattern[j]) {
+				j++;
+			}
+			if (j == pattern.length)
+				return i;
+		}
+		return -1;
+	}
+
+	private static byte[] toLowerCase(byte[] bytes) {
+		byte[] lowerCase = new byte[bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			lowerCase[i] = toLowerCase(bytes[i], false);
+		}
+		return lowerCase;
+	}
+
+	private static byte toLowerCase(byte b, boolean matchCase) {
+		return !matchCase && b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+	}
+
+	private byte getByte(long offset) {
+		return mappedFile.getByte(offset);
+	}
+
+	/**
+	 * @return the lines indexed so far, all of them once isIndexed()
+	 */
+	public long getLineCount() {
+		return isIndexed ? lineCount : Math.max(lineCount, 1);
+	}
+
+	public boolean isIndexed() {
+		return isIndexed;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Stops indexing and searching, and closes the mapped file
+	 */
+	public void close() {
+		cancel = true;
+		mappedFile.close();
+	}
+}
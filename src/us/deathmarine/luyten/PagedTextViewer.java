@@ -0,0 +1,179 @@
+package us.deathmarine.luyten;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.NumberFormat;
+
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+
+import org.fife.ui.rsyntaxtextarea.Theme;
+
+/**
+ * Paged tab of a text too large to load, one row per line of the
+ * PagedTextFile. Go to line and find work on the whole file.
+ */
+public class PagedTextViewer extends PagedViewer {
+	private static final long serialVersionUID = -3190742685227108367L;
+
+	private final PagedTextFile textFile;
+	private final JTextField lineField = new JTextField(8);
+	private final JTextField findField = new JTextField(16);
+	private final JCheckBox matchCase = new JCheckBox("Match Case");
+
+	// EDT only
+	private long lastMatchOffset = -1;
+	private int searchId;
+
+	public PagedTextViewer(String name, String path, PagedTextFile textFile, Theme theme) {
+		super(name, path, theme, true);
+		this.textFile = textFile;
+		textArea.setSyntaxEditingStyle(OpenFile.getSyntaxEditingStyle(name));
+		statusLabel.setText("Indexing lines...");
+
+		lineField.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				goToLine();
+			}
+		});
+		ActionListener findListener = new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				findNext();
+			}
+		};
+		findField.addActionListener(findListener);
+		JButton findButton = new JButton("Find Next");
+		findButton.addActionListener(findListener);
+
+		toolBar.add(new JLabel("Line:"));
+		toolBar.add(lineField);
+		toolBar.add(new JLabel("Find:"));
+		toolBar.add(findField);
+		toolBar.add(matchCase);
+		toolBar.add(findButton);
+		toolBar.add(statusLabel);
+	}
+
+	@Override
+	protected long getRowCount() {
+		return textFile.getLineCount();
+	}
+
+	@Override
+	protected String getRows(long firstRow, int count) {
+		return textFile.getLines(firstRow, count);
+	}
+
+	/**
+	 * Builds the line index in the background, the scroll bar grows with it
+	 */
+	public void startIndexing() {
+		new Thread("PagedTextIndex") {
+			public void run() {
+				textFile.buildLineIndex(new PagedTextFile.Listener() {
+					@Override
+					public void onProgress(final long indexedLength, final long length, final long lineCount) {
+						SwingUtilities.invokeLater(new Runnable() {
+							@Override
+							public void run() {
+								updateRowCount();
+								if (indexedLength < length) {
+									statusLabel.setText("Indexing lines: " + (100 * indexedLength / length) + "%");
+								} else {
+									statusLabel.setText(NumberFormat.getInstance().format(lineCount) + " lines");
+								}
+							}
+						});
+					}
+				});
+			}
+		}.start();
+	}
+
+	private void goToLine() {
+		long line;
+		try {
+			line = Long.parseLong(lineField.getText().trim()) - 1;
+		} catch (NumberFormatException e) {
+			statusLabel.setText("Not a line number: " + lineField.getText());
+			return;
+		}
+		if (line < 0 || line >= textFile.getLineCount()) {
+			statusLabel.setText(textFile.isIndexed() ? "No line " + (line + 1)
+					: "Line " + (line + 1) + " is not indexed yet");
+			return;
+		}
+		scrollToRow(line);
+		textArea.requestFocusInWindow();
+	}
+
+	/**
+	 * Finds the next match after the last one, or from the first line in
+	 * view, in the background
+	 */
+	public void findNext() {
+		final String text = findField.getText();
+		if (text.length() == 0)
+			return;
+		final long startOffset = lastMatchOffset >= 0 ? lastMatchOffset + 1
+				: Math.max(textFile.getLineOffset(getFirstRow()), 0);
+		final boolean isMatchCase = matchCase.isSelected();
+		final int id = ++searchId;
+		statusLabel.setText("Searching...");
+		new Thread("PagedTextFind") {
+			public void run() {
+				final long matchOffset = textFile.find(text, startOffset, isMatchCase);
+				final long matchLine = matchOffset >= 0 ? textFile.getLineOfOffset(matchOffset) : -1;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (id != searchId)
+							return;
+						showMatch(text, matchOffset, matchLine);
+					}
+				});
+			}
+		}.start();
+	}
+
+	private void showMatch(String text, long matchOffset, long matchLine) {
+		if (matchOffset < 0) {
+			lastMatchOffset = -1;
+			statusLabel.setText("Search Complete");
+			return;
+		}
+		lastMatchOffset = matchOffset;
+		statusLabel.setText("Found at line " + NumberFormat.getInstance().format(matchLine + 1));
+		scrollToRow(matchLine);
+		// near the end the line is not at the top
+		long windowLine = matchLine - getFirstRow();
+		if (windowLine < 0 || windowLine >= textArea.getLineCount())
+			return;
+		try {
+			int lineStart = textArea.getLineStartOffset((int) windowLine);
+			int lineEnd = textArea.getLineEndOffset((int) windowLine);
+			int start = Math.min(lineStart + textFile.getColumn(textFile.getLineOffset(matchLine), matchOffset), lineEnd);
+			textArea.select(start, Math.min(start + text.length(), lineEnd));
+		} catch (BadLocationException e) {
+			// the line is not shown
+		}
+	}
+
+	@Override
+	public void focusFind() {
+		findField.requestFocusInWindow();
+		findField.selectAll();
+	}
+
+	@Override
+	public void close() {
+		searchId++;
+		textFile.close();
+	}
+}
@@ -0,0 +1,180 @@
+package us.deathmarine.luyten;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
+
+import javax.swing.AbstractAction;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollBar;
+import javax.swing.KeyStroke;
+import javax.swing.ScrollPaneConstants;
+
+import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
+import org.fife.ui.rsyntaxtextarea.Theme;
+import org.fife.ui.rtextarea.RTextScrollPane;
+
+/**
+ * Read-only tab for content too large to load: only the rows in view are
+ * rendered into the text area, the scroll bar beside it runs over all rows.
+ * Subclasses tell what a row is and add their fields to the tool bar.
+ */
+public abstract class PagedViewer extends JPanel {
+	private static final long serialVersionUID = 2284410587125417740L;
+
+	private static final int WHEEL_ROWS = 3;
+
+	final String name;
+	final String path;
+
+	protected final RSyntaxTextArea textArea;
+	protected final RTextScrollPane scrollPane;
+	protected final JPanel toolBar = new JPanel(new FlowLayout(FlowLayout.LEADING));
+	protected final JLabel statusLabel = new JLabel("");
+	private final JScrollBar rowScrollBar;
+	private final boolean isLineNumbersEnabled;
+
+	// EDT only
+	private long firstRow = -1;
+
+	/**
+	 * @param isLineNumbersEnabled
+	 *            the gutter numbers the rows from 1
+	 */
+	public PagedViewer(String name, String path, Theme theme, boolean isLineNumbersEnabled) {
+		super(new BorderLayout());
+		this.name = name;
+		this.path = path;
+		this.isLineNumbersEnabled = isLineNumbersEnabled;
+		LuytenPreferences luytenPrefs = ConfigSaver.getLoadedInstance().getLuytenPreferences();
+
+		textArea = new RSyntaxTextArea(25, 70);
+		textArea.setEditable(false);
+		textArea.setHighlightCurrentLine(false);
+		textArea.setAntiAliasingEnabled(true);
+		if (theme != null)
+			theme.apply(textArea);
+		textArea.setFont(new Font(textArea.getFont().getName(), textArea.getFont().getStyle(),
+				luytenPrefs.getFont_size()));
+		scrollPane = new RTextScrollPane(textArea, isLineNumbersEnabled);
+		scrollPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER);
+		scrollPane.setWheelScrollingEnabled(false);
+
+		rowScrollBar = new JScrollBar(JScrollBar.VERTICAL);
+		rowScrollBar.addAdjustmentListener(new AdjustmentListener() {
+			@Override
+			public void adjustmentValueChanged(AdjustmentEvent e) {
+				showRows(rowScrollBar.getValue(), false);
+			}
+		});
+		scrollPane.addMouseWheelListener(new MouseWheelListener() {
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				rowScrollBar.setValue(rowScrollBar.getValue() + e.getWheelRotation() * WHEEL_ROWS);
+			}
+		});
+		scrollPane.addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				updateRowCount();
+			}
+		});
+		bindScrollKey(KeyEvent.VK_PAGE_UP, 0, "PageUp", -1, false);
+		bindScrollKey(KeyEvent.VK_PAGE_DOWN, 0, "PageDown", 1, false);
+		bindScrollKey(KeyEvent.VK_HOME, Keymap.ctrlDownModifier(), "Start", -1, true);
+		bindScrollKey(KeyEvent.VK_END, Keymap.ctrlDownModifier(), "End", 1, true);
+
+		add(toolBar, BorderLayout.NORTH);
+		add(scrollPane, BorderLayout.CENTER);
+		add(rowScrollBar, BorderLayout.EAST);
+	}
+
+	private void bindScrollKey(int keyCode, int modifiers, String actionName, final int direction,
+			final boolean isToEnd) {
+		KeyStroke keyStroke = KeyStroke.getKeyStroke(keyCode, modifiers, false);
+		textArea.getInputMap(JComponent.WHEN_FOCUSED).put(keyStroke, actionName);
+		textArea.getActionMap().put(actionName, new AbstractAction() {
+			private static final long serialVersionUID = 4915106290184634731L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				int step = isToEnd ? rowScrollBar.getMaximum() : rowScrollBar.getVisibleAmount();
+				rowScrollBar.setValue(rowScrollBar.getValue() + direction * step);
+			}
+		});
+	}
+
+	/**
+	 * @return the rows known so far
+	 */
+	protected abstract long getRowCount();
+
+	/**
+	 * @return text of up to count rows from firstRow, each ending with a line
+	 *         break
+	 */
+	protected abstract String getRows(long firstRow, int count);
+
+	/**
+	 * Sizes the scroll bar to the row count and shows the rows again, on
+	 * the EDT
+	 */
+	protected void updateRowCount() {
+		int rowCount = (int) Math.min(getRowCount(), Integer.MAX_VALUE - 1);
+		int visibleRows = Math.max(getVisibleRowCount(), 1);
+		rowScrollBar.setValues(Math.min(rowScrollBar.getValue(), rowCount), Math.min(visibleRows, rowCount), 0,
+				rowCount);
+		rowScrollBar.setBlockIncrement(Math.max(visibleRows - 1, 1));
+		showRows(rowScrollBar.getValue(), true);
+	}
+
+	private int getVisibleRowCount() {
+		int height = scrollPane.getViewport().getExtentSize().height;
+		return height / Math.max(textArea.getLineHeight(), 1);
+	}
+
+	private void showRows(long row, boolean isForced) {
+		if (row == firstRow && !isForced)
+			return;
+		firstRow = row;
+		textArea.setText(getRows(row, getVisibleRowCount() + 1));
+		textArea.setCaretPosition(0);
+		if (isLineNumbersEnabled)
+			scrollPane.getGutter().setLineNumberingStartIndex((int) Math.min(row + 1, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Shows the row at the top, or as near as the scroll bar goes
+	 */
+	protected void scrollToRow(long row) {
+		rowScrollBar.setValue((int) Math.min(row, Integer.MAX_VALUE));
+		showRows(rowScrollBar.getValue(), true);
+	}
+
+	protected long getFirstRow() {
+		return firstRow;
+	}
+
+	/**
+	 * Focuses the tab's own search field, for Edit > Find
+	 */
+	public void focusFind() {
+		textArea.requestFocusInWindow();
+	}
+
+	public RSyntaxTextArea getTextArea() {
+		return textArea;
+	}
+
+	public abstract void close();
+}
@@ -0,0 +1,187 @@
+package us.deathmarine.luyten;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.strobel.assembler.metadata.MetadataSystem;
+import com.strobel.assembler.metadata.TypeDefinition;
+import com.strobel.assembler.metadata.TypeReference;
+import com.strobel.decompiler.DecompilationOptions;
+import com.strobel.decompiler.DecompilerSettings;
+import com.strobel.decompiler.languages.Languages;
+
+/**
+ * Decompiles the classes of a jar which are likely to be opened next into
+ * the MemoryDecompilationCache: the classes most referenced by the opened
+ * class, then its neighbours in the package. The work runs on the scheduler
+ * with PREFETCH priority and is dropped when foreground work arrives.
+ */
+public class Prefetcher {
+
+	private static final int MAX_REFERENCED_COUNT = 8;
+	private static final int MAX_SIBLING_COUNT = 4;
+
+	private final ZipArchive archive;
+	// metadata of each worker, the model's is used by the tabs meanwhile
+	private final ThreadLocal<DecompilerContext> contexts = new ThreadLocal<>();
+	// package directory -> sorted outer class entries, built on first use
+	private Map<String, List<String>> packageEntries;
+
+	public Prefetcher(ZipArchive archive) {
+		this.archive = archive;
+	}
+
+	/**
+	 * Replaces the pending prefetches with the likely next classes after the
+	 * opened type
+	 *
+	 * @param linkIndex
+	 *            links of the opened type's source, may be null
+	 */
+	public void prefetchAfter(TypeDefinition openedType, LinkIndex linkIndex) {
+		DecompilerScheduler scheduler = DecompilerScheduler.getDefault();
+		scheduler.cancel(this);
+		MemoryDecompilationCache memoryCache = MemoryDecompilationCache.getDefault();
+		if (memoryCache == null || openedType == null)
+			return;
+		String openedName = getOuterTypeName(openedType.getInternalName());
+		Set<String> candidates = new LinkedHashSet<>();
+		if (linkIndex != null)
+			candidates.addAll(getReferencedTypes(linkIndex, openedName));
+		candidates.addAll(getSiblings(openedName));
+		candidates.remove(openedName);
+		for (final String internalName : candidates) {
+			scheduler.submit(DecompilerScheduler.Priority.PREFETCH, this, true, new Runnable() {
+				@Override
+				public void run() {
+					prefetch(internalName);
+				}
+			});
+		}
+	}
+
+	public ZipArchive getArchive() {
+		return archive;
+	}
+
+	// classes of the jar, most referenced first
+	private List<String> getReferencedTypes(LinkIndex linkIndex, String openedName) {
+		final Map<String, Integer> counts = new HashMap<>();
+		for (int keyId = 0; keyId < linkIndex.getKeyCount(); keyId++) {
+			int referenceCount = linkIndex.getReferenceCount(keyId);
+			if (referenceCount == 0)
+				continue;
+			String internalName = linkIndex.getKey(keyId).getOuterPath();
+			if (internalName.startsWith("/"))
+				continue;
+			if (internalName.equals(openedName) || archive.findEntry(internalName + ".class") < 0)
+				continue;
+			Integer count = counts.get(internalName);
+			counts.put(internalName, (count != null ? count : 0) + referenceCount);
+		}
+		List<String> referencedTypes = new ArrayList<>(counts.keySet());
+		Collections.sort(referencedTypes, new Comparator<String>() {
+			@Override
+			public int compare(String o1, String o2) {
+				return counts.get(o2) - counts.get(o1);
+			}
+		});
+		return referencedTypes.subList(0, Math.min(referencedTypes.size(), MAX_REFERENCED_COUNT));
+	}
+
+	// the nearest classes in the package, next and previous in turn
+	private List<String> getSiblings(String openedName) {
+		String directory = openedName.substring(0, openedName.lastIndexOf('/') + 1);
+		List<String> entries = getPackageEntries().get(directory);
+		List<String> siblings = new ArrayList<>();
+		if (entries == null)
+			return siblings;
+		int index = Collections.binarySearch(entries, openedName);
+		int next = index >= 0 ? index + 1 : -index - 1;
+		int previous = (index >= 0 ? index : -index - 1) - 1;
+		while (siblings.size() < MAX_SIBLING_COUNT && (next < entries.size() || previous >= 0)) {
+			if (next < entries.size())
+				siblings.add(entries.get(next++));
+			if (siblings.size() < MAX_SIBLING_COUNT && previous >= 0)
+				siblings.add(entries.get(previous--));
+		}
+		return siblings;
+	}
+
+	private synchronized Map<String, List<String>> getPackageEntries() {
+		if (packageEntries == null) {
+			packageEntries = new HashMap<>();
+			for (int entry = 0; entry < archive.size(); entry++) {
+				String name = archive.getName(entry);
+				if (!name.endsWith(".class") || name.contains("$"))
+					continue;
+				String internalName = name.substring(0, name.length() - ".class".length());
+				String directory = internalName.substring(0, internalName.lastIndexOf('/') + 1);
+				List<String> directoryEntries = packageEntries.get(directory);
+				if (directoryEntries == null) {
+					directoryEntries = new ArrayList<>();
+					packageEntries.put(directory, directoryEntries);
+				}
+				directoryEntries.add(internalName);
+			}
+			for (List<String> directoryEntries : packageEntries.values()) {
+				Collections.sort(directoryEntries);
+			}
+		}
+		return packageEntries;
+	}
+
+	/**
+	 * Decompiles the class into the memory cache on the calling thread
+	 */
+	public void prefetch(String internalName) {
+		MemoryDecompilationCache memoryCache = MemoryDecompilationCache.getDefault();
+		if (memoryCache == null)
+			return;
+		DecompilerSettings settings = ConfigSaver.getLoadedInstance().getDecompilerSettingsSnapshot();
+		if (!Languages.java().getName().equals(settings.getLanguage().getName()))
+			return;
+		try {
+			DecompilerContext context = getContext(settings);
+			MetadataSystem metadataSystem = context.getMetadataSystem();
+			TypeReference type = metadataSystem.lookupType(internalName);
+			TypeDefinition resolvedType = null;
+			if (type == null || (resolvedType = type.resolve()) == null)
+				return;
+			DecompilationOptions decompilationOptions = new DecompilationOptions();
+			decompilationOptions.setSettings(settings);
+			decompilationOptions.setFullDecompilation(true);
+			DecompilerLinkProvider linkProvider = new DecompilerLinkProvider();
+			linkProvider.setDecompilerReferences(metadataSystem, context.getTypeLoader(), settings,
+					decompilationOptions);
+			linkProvider.setDecompilationCache(DecompilationCache.getDefault());
+			linkProvider.setMemoryCache(memoryCache);
+			linkProvider.setType(resolvedType);
+			linkProvider.generateContent();
+		} catch (Exception e) {
+			// only a guess: the class is decompiled again when opened
+			System.out.println("[Prefetch]: Cannot decompile " + internalName + ": " + e);
+		}
+	}
+
+	// a new context after a settings change, the snapshot is not modified
+	private DecompilerContext getContext(DecompilerSettings settings) {
+		DecompilerContext context = contexts.get();
+		if (context == null || context.getSettings() != settings) {
+			context = new DecompilerContext(archive, settings, JrtTypeLoader.getDefault());
+			contexts.set(context);
+		}
+		return context;
+	}
+
+	private static String getOuterTypeName(String internalName) {
+		int dollar = internalName.indexOf('$', internalName.lastIndexOf('/') + 1);
+		return dollar > 0 ? internalName.substring(0, dollar) : internalName;
+	}
+}
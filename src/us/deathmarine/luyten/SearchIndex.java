@@ -0,0 +1,391 @@
+package us.deathmarine.luyten;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.strobel.decompiler.DecompilerSettings;
+
+/**
+ * Trigrams of the searched text of a jar's entries, stored on disk per jar
+ * path and decompiler settings. A search only has to look at the entries
+ * which contain every trigram of the text a match needs. Entries are added
+ * while they are searched, so a stopped search leaves a partial index which
+ * the next search completes. An entry stays valid as long as its stamp (the
+ * CRC of the entry and of its nested classes) does not change, a rebuilt jar
+ * only costs its changed entries.
+ */
+public class SearchIndex {
+
+	// change when the index format or the trigram hash changes
+	private static final int FORMAT_VERSION = 1;
+	private static final String INDEX_SUFFIX = ".index";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final class IndexedEntry {
+		final long stamp;
+		// ascending trigrams, delta and varint encoded; null: not text
+		final byte[] trigrams;
+
+		IndexedEntry(long stamp, byte[] trigrams) {
+			this.stamp = stamp;
+			this.trigrams = trigrams;
+		}
+	}
+
+	private final File file;
+	private final Map<String, IndexedEntry> entries = new HashMap<>();
+	private boolean isDirty;
+
+	private SearchIndex(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads the index of the jar, an empty one if there is none yet or it
+	 * cannot be read
+	 */
+	public static SearchIndex open(File jarFile, DecompilerSettings settings) {
+		String key;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(jarFile.getCanonicalPath().getBytes("UTF-8"));
+			digest.update(DecompilationCache.getSettingsFingerprint(settings).getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest.digest()) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			key = sb.toString();
+		} catch (Exception e) {
+			key = Integer.toHexString(jarFile.getAbsolutePath().hashCode());
+		}
+		File directory = new File(ConfigSaver.getConfigDirectory(), "index");
+		SearchIndex index = new SearchIndex(new File(directory, key + INDEX_SUFFIX));
+		if (index.file.exists()) {
+			try {
+				index.load();
+			} catch (IOException e) {
+				index.entries.clear();
+				System.out.println("[Index]: Cannot read " + index.file + ": " + e);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * @return false only when the entry is indexed with this stamp and lacks
+	 *         one of the trigrams (ascending, see getTrigrams)
+	 */
+	public synchronized boolean mayContain(String entryName, long stamp, int[] trigrams) {
+		IndexedEntry entry = entries.get(entryName);
+		if (entry == null || entry.stamp != stamp)
+			return true;
+		if (entry.trigrams == null)
+			return false;
+		byte[] data = entry.trigrams;
+		int pos = 0;
+		int trigram = -1;
+		for (int wanted : trigrams) {
+			while (trigram < wanted) {
+				if (pos >= data.length)
+					return false;
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = data[pos++];
+					delta |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				trigram = Math.max(trigram, 0) + delta;
+			}
+			if (trigram != wanted)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param text
+	 *            null: the entry is no text and never matches
+	 */
+	public void put(String entryName, long stamp, String text) {
+		byte[] trigrams = text != null ? encode(getTrigrams(text)) : null;
+		synchronized (this) {
+			entries.put(entryName, new IndexedEntry(stamp, trigrams));
+			isDirty = true;
+		}
+	}
+
+	/**
+	 * Forgets the entries which are no longer in the jar
+	 */
+	public synchronized void retainAll(Collection<String> entryNames) {
+		if (entries.keySet().retainAll(entryNames))
+			isDirty = true;
+	}
+
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Writes the index when it has changed since it was loaded
+	 */
+	public synchronized void save() {
+		if (!isDirty)
+			return;
+		File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+		try {
+			file.getParentFile().mkdirs();
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tempFile)));) {
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(entries.size());
+				for (Map.Entry<String, IndexedEntry> entry : entries.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeLong(entry.getValue().stamp);
+					byte[] trigrams = entry.getValue().trigrams;
+					out.writeInt(trigrams != null ? trigrams.length : -1);
+					if (trigrams != null)
+						out.write(trigrams);
+				}
+			}
+			file.delete();
+			if (tempFile.renameTo(file))
+				isDirty = false;
+		} catch (IOException e) {
+			System.out.println("[Index]: Cannot write " + file + ": " + e);
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	private void load() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));) {
+			if (in.readInt() != FORMAT_VERSION)
+				throw new IOException("Unknown index format");
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String entryName = in.readUTF();
+				long stamp = in.readLong();
+				int length = in.readInt();
+				byte[] trigrams = null;
+				if (length >= 0) {
+					trigrams = new byte[length];
+					in.readFully(trigrams);
+				}
+				entries.put(entryName, new IndexedEntry(stamp, trigrams));
+			}
+		}
+	}
+
+	/**
+	 * Ascending distinct trigrams of the text, case insensitive. Different
+	 * trigrams may share a value, which only adds candidates.
+	 */
+	public static int[] getTrigrams(String text) {
+		if (text.length() < 3)
+			return new int[0];
+		int[] trigrams = new int[text.length() - 2];
+		int c0 = Character.toLowerCase(text.charAt(0));
+		int c1 = Character.toLowerCase(text.charAt(1));
+		for (int i = 2; i < text.length(); i++) {
+			int c2 = Character.toLowerCase(text.charAt(i));
+			trigrams[i - 2] = ((c0 & 0x3FF) << 20) | ((c1 & 0x3FF) << 10) | (c2 & 0x3FF);
+			c0 = c1;
+			c1 = c2;
+		}
+		return distinct(trigrams);
+	}
+
+	/**
+	 * Ascending distinct trigrams of all the texts
+	 */
+	public static int[] getTrigrams(Collection<String> texts) {
+		int[] trigrams = new int[0];
+		for (String text : texts) {
+			int[] textTrigrams = getTrigrams(text);
+			int[] merged = Arrays.copyOf(trigrams, trigrams.length + textTrigrams.length);
+			System.arraycopy(textTrigrams, 0, merged, trigrams.length, textTrigrams.length);
+			trigrams = merged;
+		}
+		return distinct(trigrams);
+	}
+
+	/**
+	 * Literal texts every match of the regular expression contains. Parts
+	 * which are optional, repeated from zero or too hard to tell are left
+	 * out; an expression with alternatives gives no literals.
+	 */
+	public static List<String> getRegexLiterals(String regex) {
+		List<String> literals = new ArrayList<>();
+		StringBuilder run = new StringBuilder();
+		// literals.size() when each open group started, negative when its
+		// content is not required
+		ArrayDeque<Integer> groups = new ArrayDeque<>();
+		int length = regex.length();
+		for (int i = 0; i < length; i++) {
+			char c = regex.charAt(i);
+			switch (c) {
+			case '\\':
+				if (i + 1 >= length)
+					return new ArrayList<>();
+				char escaped = regex.charAt(++i);
+				if (escaped == 'Q') {
+					int end = regex.indexOf("\\E", i + 1);
+					run.append(end < 0 ? regex.substring(i + 1) : regex.substring(i + 1, end));
+					i = end < 0 ? length : end + 1;
+				} else if (Character.isLetterOrDigit(escaped)) {
+					// character classes, back references, control characters
+					endRun(literals, run);
+				} else {
+					run.append(escaped);
+				}
+				break;
+			case '[':
+				endRun(literals, run);
+				i = skipCharacterClass(regex, i);
+				break;
+			case '(':
+				endRun(literals, run);
+				if (i + 1 < length && regex.charAt(i + 1) == '?') {
+					char kind = i + 2 < length ? regex.charAt(i + 2) : ')';
+					// inline flags may change how the rest matches
+					if (kind != ':' && kind != '=' && kind != '!' && kind != '<')
+						return new ArrayList<>();
+					boolean isRequired = kind == ':';
+					if (kind == '<') {
+						char next = i + 3 < length ? regex.charAt(i + 3) : ')';
+						if (next != '=' && next != '!') {
+							// named group
+							isRequired = true;
+							int end = regex.indexOf('>', i);
+							i = end < 0 ? length : end;
+						} else {
+							i += 3;
+						}
+					} else {
+						i += 2;
+					}
+					groups.push(isRequired ? literals.size() : -1 - literals.size());
+				} else {
+					groups.push(literals.size());
+				}
+				break;
+			case ')':
+				endRun(literals, run);
+				if (groups.isEmpty())
+					return new ArrayList<>();
+				int start = groups.pop();
+				if (start < 0 || isOptional(regex, i + 1)) {
+					start = start < 0 ? -1 - start : start;
+					literals.subList(start, literals.size()).clear();
+				}
+				break;
+			case '?':
+			case '*':
+				if (run.length() > 0)
+					run.setLength(run.length() - 1);
+				endRun(literals, run);
+				break;
+			case '{':
+				if (isOptional(regex, i) && run.length() > 0)
+					run.setLength(run.length() - 1);
+				endRun(literals, run);
+				int end = regex.indexOf('}', i);
+				i = end < 0 ? length : end;
+				break;
+			case '|':
+				return new ArrayList<>();
+			case '+':
+			case '.':
+			case '^':
+			case '$':
+				endRun(literals, run);
+				break;
+			default:
+				run.append(c);
+			}
+		}
+		endRun(literals, run);
+		return literals;
+	}
+
+	private static void endRun(List<String> literals, StringBuilder run) {
+		if (run.length() > 0) {
+			literals.add(run.toString());
+			run.setLength(0);
+		}
+	}
+
+	// a quantifier at pos which allows zero repetitions
+	private static boolean isOptional(String regex, int pos) {
+		if (pos >= regex.length())
+			return false;
+		char c = regex.charAt(pos);
+		if (c == '?' || c == '*')
+			return true;
+		return c == '{' && regex.startsWith("{0", pos);
+	}
+
+	// index of the closing ']' of the class opened at start
+	private static int skipCharacterClass(String regex, int start) {
+		int depth = 0;
+		for (int i = start; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				depth++;
+			} else if (c == ']' && i > start + 1 && !(i == start + 2 && regex.charAt(start + 1) == '^')) {
+				if (--depth == 0)
+					return i;
+			}
+		}
+		return regex.length();
+	}
+
+	private static int[] distinct(int[] values) {
+		Arrays.sort(values);
+		int count = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (i == 0 || values[i] != values[i - 1])
+				values[count++] = values[i];
+		}
+		return Arrays.copyOf(values, count);
+	}
+
+	private static byte[] encode(int[] trigrams) {
+		byte[] data = new byte[trigrams.length * 5];
+		int pos = 0;
+		int previous = 0;
+		for (int trigram : trigrams) {
+			int delta = trigram - previous;
+			previous = trigram;
+			while ((delta & ~0x7F) != 0) {
+				data[pos++] = (byte) ((delta & 0x7F) | 0x80);
+				delta >>>= 7;
+			}
+			data[pos++] = (byte) delta;
+		}
+		return Arrays.copyOf(data, pos);
+	}
+}
@@ -0,0 +1,379 @@
+package us.deathmarine.luyten;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Builds the structure tree model of a jar from its entry names. The paths
+ * are only collected while they are added; toTreeModel() sorts them once and
+ * fills the model's arrays from the sorted runs, without a node object per
+ * tree node. Children are ordered by the last path added through them, the
+ * way DefaultMutableTreeNode.add() moves an existing child to the end, so
+ * the order is the same as adding every path to the Swing tree one by one.
+ */
+public class TreeBuilder {
+
+	private static final Comparator<String> BY_FILE_EXTENSION = new Comparator<String>() {
+		// (assertion: mass does not contain null elements)
+		@Override
+		public int compare(String o1, String o2) {
+			int start1 = o1.lastIndexOf('.') + 1;
+			int start2 = o2.lastIndexOf('.') + 1;
+			int length1 = o1.length() - start1;
+			int length2 = o2.length() - start2;
+			for (int i = 0; i < length1 && i < length2; i++) {
+				int comp = o1.charAt(start1 + i) - o2.charAt(start2 + i);
+				if (comp != 0)
+					return comp;
+			}
+			if (length1 != length2)
+				return length1 - length2;
+			return o1.compareTo(o2);
+		}
+	};
+
+	// paths sorted name by name, like String.compareTo() but with the '/'
+	// between names before every char, so the paths below a name follow it
+	private static final Comparator<Path> BY_NAMES = new Comparator<Path>() {
+		@Override
+		public int compare(Path o1, Path o2) {
+			String path1 = o1.path;
+			String path2 = o2.path;
+			int length = Math.min(path1.length(), path2.length());
+			for (int i = 0; i < length; i++) {
+				int c1 = path1.charAt(i);
+				int c2 = path2.charAt(i);
+				boolean isSeparator1 = c1 == '/' && i >= o1.firstSeparator;
+				boolean isSeparator2 = c2 == '/' && i >= o2.firstSeparator;
+				if (isSeparator1 != isSeparator2)
+					return isSeparator1 ? -1 : 1;
+				if (c1 != c2)
+					return c1 - c2;
+			}
+			return path1.length() - path2.length();
+		}
+	};
+
+	private static final class Path {
+		// names separated by '/'
+		final String path;
+		// '/' before this index is part of the first name (a flat package)
+		final int firstSeparator;
+		// when the path was added
+		final int order;
+
+		Path(String path, int firstSeparator, int order) {
+			this.path = path;
+			this.firstSeparator = firstSeparator;
+			this.order = order;
+		}
+
+		int getNameEnd(int start) {
+			int slash = path.indexOf('/', Math.max(start, firstSeparator));
+			return slash < 0 ? path.length() : slash;
+		}
+	}
+
+	private final TreeNodeUserObject topNodeUserObject;
+	private final List<Path> paths = new ArrayList<>();
+
+	public TreeBuilder(TreeNodeUserObject topNodeUserObject) {
+		this.topNodeUserObject = topNodeUserObject;
+	}
+
+	/**
+	 * Adds the path of names separated by '/' below the top node, moving
+	 * existing nodes of the path to the end of their parents
+	 */
+	public void add(String path) {
+		paths.add(new Path(trimSlashes(path), 0, paths.size()));
+	}
+
+	/**
+	 * Adds an entry below a flat package node, whose name has '/' in it and
+	 * is shown with '.' instead
+	 */
+	public void addToFlatPackage(String packagePath, String entry) {
+		paths.add(new Path(trimSlashes(packagePath + "/" + entry), packagePath.length(), paths.size()));
+	}
+
+	// like String.split(), which drops trailing empty names
+	private static String trimSlashes(String path) {
+		int end = path.length();
+		while (end > 0 && path.charAt(end - 1) == '/') {
+			end--;
+		}
+		return end == path.length() ? path : path.substring(0, end);
+	}
+
+	/**
+	 * Lays the tree out breadth first, so the children of each node get
+	 * consecutive indexes. The children of a node are the runs of sorted
+	 * paths with the same next name, in the order of their last added path.
+	 */
+	public EntryTreeModel toTreeModel() {
+		Path[] sorted = paths.toArray(new Path[paths.size()]);
+		paths.clear();
+		Arrays.sort(sorted, BY_NAMES);
+
+		int capacity = sorted.length + 1;
+		String[] names = new String[capacity];
+		int[] firstChild = new int[capacity];
+		int[] childCount = new int[capacity];
+		// sorted paths through each node, and where the names of its
+		// children start in them
+		int[] runStart = new int[capacity];
+		int[] runEnd = new int[capacity];
+		int[] nameStart = new int[capacity];
+		// last added path << 32 | run, of the children of one node
+		long[] childKeys = new long[16];
+		int[] childRuns = new int[32];
+
+		names[0] = topNodeUserObject.getOriginalName();
+		runEnd[0] = sorted.length;
+		int nodeCount = 1;
+		for (int node = 0; node < nodeCount; node++) {
+			int start = nameStart[node];
+			int end = runEnd[node];
+			int position = runStart[node];
+			// paths which end here come first
+			while (position < end && start > sorted[position].path.length()) {
+				position++;
+			}
+			int count = 0;
+			while (position < end) {
+				Path first = sorted[position];
+				int nameEnd = first.getNameEnd(start);
+				int childStart = position;
+				int lastOrder = -1;
+				while (position < end && isSameName(first, sorted[position], start, nameEnd)) {
+					lastOrder = Math.max(lastOrder, sorted[position].order);
+					position++;
+				}
+				if (count == childKeys.length) {
+					childKeys = Arrays.copyOf(childKeys, count * 2);
+					childRuns = Arrays.copyOf(childRuns, count * 4);
+				}
+				childKeys[count] = (long) lastOrder << 32 | count;
+				childRuns[2 * count] = childStart;
+				childRuns[2 * count + 1] = position;
+				count++;
+			}
+			Arrays.sort(childKeys, 0, count);
+			if (nodeCount + count > capacity) {
+				capacity = Math.max(capacity * 2, nodeCount + count);
+				names = Arrays.copyOf(names, capacity);
+				firstChild = Arrays.copyOf(firstChild, capacity);
+				childCount = Arrays.copyOf(childCount, capacity);
+				runStart = Arrays.copyOf(runStart, capacity);
+				runEnd = Arrays.copyOf(runEnd, capacity);
+				nameStart = Arrays.copyOf(nameStart, capacity);
+			}
+			firstChild[node] = nodeCount;
+			childCount[node] = count;
+			for (int i = 0; i < count; i++) {
+				int run = (int) childKeys[i];
+				Path first = sorted[childRuns[2 * run]];
+				int nameEnd = first.getNameEnd(start);
+				names[nodeCount] = first.path.substring(start, nameEnd);
+				runStart[nodeCount] = childRuns[2 * run];
+				runEnd[nodeCount] = childRuns[2 * run + 1];
+				nameStart[nodeCount] = nameEnd + 1;
+				nodeCount++;
+			}
+		}
+
+		String[] displayNames = new String[nodeCount];
+		if (!topNodeUserObject.getOriginalName().equals(topNodeUserObject.getDisplayName()))
+			displayNames[0] = topNodeUserObject.getDisplayName();
+		for (int i = 1; i < nodeCount; i++) {
+			if (names[i].indexOf('/') >= 0)
+				displayNames[i] = names[i].replace('/', '.');
+		}
+		return new EntryTreeModel(Arrays.copyOf(names, nodeCount), displayNames,
+				Arrays.copyOf(firstChild, nodeCount), Arrays.copyOf(childCount, nodeCount));
+	}
+
+	private static boolean isSameName(Path first, Path other, int start, int nameEnd) {
+		if (other == first)
+			return true;
+		return other.getNameEnd(start) == nameEnd && other.path.regionMatches(start, first.path, start, nameEnd - start);
+	}
+
+	/**
+	 * Directory layout: META-INF first, then the deepest directories
+	 */
+	public static EntryTreeModel buildDirectoryTree(TreeNodeUserObject topNodeUserObject, List<String> mass) {
+		TreeBuilder builder = new TreeBuilder(topNodeUserObject);
+		Collections.sort(mass, String.CASE_INSENSITIVE_ORDER);
+
+		Set<String> metaInf = new LinkedHashSet<>();
+		Set<String> rootEntries = new LinkedHashSet<>();
+		Set<String> packSet = new HashSet<>();
+		for (String m : mass) {
+			if (m.contains("/"))
+				packSet.add(m.substring(0, m.lastIndexOf("/") + 1));
+			if (m.contains("META-INF"))
+				metaInf.add(m);
+			else if (!m.contains("/"))
+				rootEntries.add(m);
+		}
+
+		// String.hashCode() of every directory, checked before a suffix of a
+		// directory is cut out to be looked up
+		int[] packHashes = new int[packSet.size()];
+		int packCount = 0;
+		for (String pack : packSet) {
+			packHashes[packCount++] = pack.hashCode();
+		}
+		Arrays.sort(packHashes);
+
+		// entries of each directory, by index in mass
+		Map<String, List<Integer>> packEntries = new HashMap<>();
+		for (int i = 0; i < mass.size(); i++) {
+			String m = mass.get(i);
+			if (m.contains("META-INF") || !m.contains("/"))
+				continue;
+			String dir = m.substring(0, m.lastIndexOf("/") + 1);
+			addPackEntry(packEntries, dir, i);
+			// an entry is also listed in directories whose names complete
+			// its own when cut out of it (e.g. "ab/C" in "b/", "a/a/C" in
+			// "a/"): listing it again moves it to the end there
+			int suffixHash = 0;
+			int power = 1;
+			for (int start = dir.length() - 1; start >= 1; start--) {
+				suffixHash += dir.charAt(start) * power;
+				power *= 31;
+				if (Arrays.binarySearch(packHashes, suffixHash) < 0)
+					continue;
+				String pack = dir.substring(start);
+				if (packSet.contains(pack) && !m.replace(pack, "").contains("/"))
+					addPackEntry(packEntries, pack, i);
+			}
+		}
+
+		List<String> packs = new ArrayList<>(packSet);
+		Collections.sort(packs, String.CASE_INSENSITIVE_ORDER);
+		final Map<String, Integer> depths = new HashMap<>();
+		for (String pack : packs) {
+			depths.put(pack, pack.split("/").length);
+		}
+		Collections.sort(packs, new Comparator<String>() {
+			public int compare(String o1, String o2) {
+				return depths.get(o2) - depths.get(o1);
+			}
+		});
+
+		for (String m : metaInf) {
+			builder.add(m);
+		}
+		for (String pack : packs) {
+			List<Integer> entries = packEntries.get(pack);
+			if (entries == null)
+				continue;
+			Collections.sort(entries);
+			for (int i : entries) {
+				builder.add(mass.get(i));
+			}
+		}
+		for (String m : rootEntries) {
+			builder.add(m);
+		}
+		return builder.toTreeModel();
+	}
+
+	private static void addPackEntry(Map<String, List<Integer>> packEntries, String pack, int index) {
+		List<Integer> entries = packEntries.get(pack);
+		if (entries == null) {
+			entries = new ArrayList<>();
+			packEntries.put(pack, entries);
+		}
+		entries.add(index);
+	}
+
+	/**
+	 * Package Explorer layout: packages with classes are flat, META-INF and
+	 * other directories are not
+	 */
+	public static EntryTreeModel buildFlatTree(TreeNodeUserObject topNodeUserObject, List<String> mass) {
+		TreeBuilder builder = new TreeBuilder(topNodeUserObject);
+
+		Map<String, List<String>> packages = new HashMap<>();
+		Set<String> classContainingPackageRoots = new HashSet<>();
+		for (String entry : mass) {
+			int lastSlash = entry.lastIndexOf('/');
+			String packagePath = lastSlash < 0 ? "" : entry.substring(0, lastSlash);
+			String packageEntry = entry.substring(lastSlash + 1);
+			List<String> entries = packages.get(packagePath);
+			if (entries == null) {
+				entries = new ArrayList<>();
+				packages.put(packagePath, entries);
+			}
+			entries.add(packageEntry);
+			String packageRoot = getPackageRoot(packagePath);
+			if (!entry.startsWith("META-INF") && packageRoot.trim().length() > 0 && (entry.endsWith(".class")
+					|| entry.endsWith(".java") || entry.endsWith(".prop") || entry.endsWith(".properties"))) {
+				classContainingPackageRoots.add(packageRoot);
+			}
+		}
+		TreeMap<String, List<String>> sortedPackages = new TreeMap<>();
+		for (Map.Entry<String, List<String>> packageEntries : packages.entrySet()) {
+			List<String> entries = new ArrayList<>(new LinkedHashSet<>(packageEntries.getValue()));
+			Collections.sort(entries, BY_FILE_EXTENSION);
+			sortedPackages.put(packageEntries.getKey(), entries);
+		}
+
+		// META-INF comes first -> not flat
+		for (String packagePath : sortedPackages.keySet()) {
+			if (packagePath.startsWith("META-INF")) {
+				addEntries(builder, packagePath, sortedPackages.get(packagePath));
+			}
+		}
+
+		// real packages: path starts with a classContainingPackageRoot -> flat
+		for (String packagePath : sortedPackages.keySet()) {
+			if (classContainingPackageRoots.contains(getPackageRoot(packagePath))) {
+				for (String entry : sortedPackages.get(packagePath)) {
+					builder.addToFlatPackage(packagePath, entry);
+				}
+			}
+		}
+
+		// the rest, not real packages but directories -> not flat
+		for (String packagePath : sortedPackages.keySet()) {
+			if (!classContainingPackageRoots.contains(getPackageRoot(packagePath))
+					&& !packagePath.startsWith("META-INF") && packagePath.length() > 0) {
+				addEntries(builder, packagePath, sortedPackages.get(packagePath));
+			}
+		}
+
+		// the default package -> not flat
+		List<String> defaultPackage = sortedPackages.get("");
+		if (defaultPackage != null) {
+			for (String entry : defaultPackage) {
+				builder.add(entry);
+			}
+		}
+		return builder.toTreeModel();
+	}
+
+	private static String getPackageRoot(String packagePath) {
+		int firstSlash = packagePath.indexOf('/');
+		return firstSlash < 0 ? packagePath : packagePath.substring(0, firstSlash);
+	}
+
+	private static void addEntries(TreeBuilder builder, String packagePath, List<String> entries) {
+		for (String entry : entries) {
+			builder.add(packagePath + "/" + entry);
+		}
+	}
+}
@@ -0,0 +1,392 @@
+package us.deathmarine.luyten;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reverse index of the references in the bytecode of a jar: for the key of a
+ * type, method or field (the LinkKey of the link providers) the members
+ * whose code or signature refers to it. The class files are scanned in
+ * parallel without decompiling; keys and members are stored once and the
+ * references as int arrays.
+ */
+public class XrefIndex {
+
+	public interface Listener {
+
+		public void onProgress(int scannedCount, int classCount);
+	}
+
+	// kind of a reference, kept in the low bits of a posting
+	private static final int CALLS = 0;
+	private static final int READS = 1;
+	private static final int WRITES = 2;
+	private static final int USES = 3;
+	private static final int EXTENDS = 4;
+	private static final int SIGNATURE = 5;
+	private static final int METHOD_HANDLE = 6;
+	private static final String[] KIND_NAMES = { "calls", "reads", "writes", "uses", "extends", "in signature",
+			"method reference" };
+	private static final int KIND_BITS = 3;
+
+	/**
+	 * References of one class file
+	 */
+	private static final class ClassReferences {
+		final String entryName;
+		final String className;
+		final List<String> superTypes = new ArrayList<>();
+		// members of the class which refer to something, 0: the class
+		final List<LinkKey> sites = new ArrayList<>();
+		final List<String> siteNames = new ArrayList<>();
+		final List<LinkKey> targets = new ArrayList<>();
+		// site << KIND_BITS | kind, one per target
+		final List<Integer> references = new ArrayList<>();
+		// per site: target -> bits of its kinds added, the keys are interned
+		private final List<Map<LinkKey, Integer>> added = new ArrayList<>();
+
+		ClassReferences(String entryName, String className) {
+			this.entryName = entryName;
+			this.className = className;
+		}
+
+		int addSite(LinkKey linkKey, String name) {
+			sites.add(linkKey);
+			siteNames.add(name);
+			added.add(null);
+			return sites.size() - 1;
+		}
+
+		void add(LinkKey target, int site, int kind) {
+			if (target == null)
+				return;
+			Map<LinkKey, Integer> siteTargets = added.get(site);
+			if (siteTargets == null) {
+				siteTargets = new IdentityHashMap<>();
+				added.set(site, siteTargets);
+			}
+			Integer kinds = siteTargets.get(target);
+			int kindBits = kinds != null ? kinds : 0;
+			if ((kindBits & (1 << kind)) != 0)
+				return;
+			siteTargets.put(target, kindBits | (1 << kind));
+			targets.add(target);
+			references.add((site << KIND_BITS) | kind);
+		}
+	}
+
+	private final File file;
+	private final long lastModified;
+	private final long length;
+	private final int threadCount;
+	private volatile boolean cancel;
+	private volatile ExecutorService pool;
+	private volatile boolean isBuilt;
+
+	private final Map<LinkKey, Integer> targetIds = new HashMap<>();
+	private int[][] postings = new int[1024][];
+	private int[] postingCounts = new int[1024];
+	private final List<LinkKey> sites = new ArrayList<>();
+	private final List<String> siteNames = new ArrayList<>();
+	private final List<String> siteEntries = new ArrayList<>();
+	// internal name -> direct subtypes in the jar
+	private final Map<String, List<String>> subtypes = new HashMap<>();
+	private int referenceCount;
+	private int failedCount;
+
+	public XrefIndex(File file, int threadCount) {
+		this.file = file;
+		this.lastModified = file.lastModified();
+		this.length = file.length();
+		this.threadCount = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Scans every class file of the jar, blocks until done or cancelled
+	 */
+	public void build(Listener listener) throws Exception {
+		try (final ZipArchive archive = ZipArchive.open(file);) {
+			List<Integer> entries = new ArrayList<>();
+			for (int entry = 0; entry < archive.size(); entry++) {
+				if (!archive.isDirectory(entry) && archive.getName(entry).endsWith(".class"))
+					entries.add(entry);
+			}
+			pool = Executors.newFixedThreadPool(threadCount, new WorkerThreadFactory("Xref"));
+			try {
+				CompletionService<ClassReferences> results = new ExecutorCompletionService<>(pool);
+				for (final int entry : entries) {
+					results.submit(new Callable<ClassReferences>() {
+						@Override
+						public ClassReferences call() throws Exception {
+							if (cancel)
+								return null;
+							return scan(archive, entry);
+						}
+					});
+				}
+				for (int scannedCount = 1; scannedCount <= entries.size() && !cancel; scannedCount++) {
+					Future<ClassReferences> result = results.take();
+					try {
+						ClassReferences classReferences = result.get();
+						if (classReferences != null)
+							add(classReferences);
+					} catch (ExecutionException e) {
+						failedCount++;
+					}
+					if (listener != null)
+						listener.onProgress(scannedCount, entries.size());
+				}
+			} finally {
+				pool.shutdownNow();
+			}
+			if (!cancel) {
+				for (int i = 0; i < targetIds.size(); i++) {
+					postings[i] = Arrays.copyOf(postings[i], postingCounts[i]);
+				}
+				isBuilt = true;
+			}
+		}
+	}
+
+	private static ClassReferences scan(ZipArchive archive, int entry) throws Exception {
+		final ClassFileScanner classFile = ClassFileScanner.read(archive, entry);
+		final String owner = classFile.getClassName();
+		final ClassReferences references = new ClassReferences(archive.getName(entry), owner);
+		String ownerName = owner.replace('/', '.');
+		final int classSite = references.addSite(LinkKey.fromInternalName(LinkKey.Kind.TYPE, owner, null, null),
+				ownerName);
+
+		List<String> superTypes = new ArrayList<>(classFile.getInterfaceNames());
+		if (classFile.getSuperClassName() != null)
+			superTypes.add(0, classFile.getSuperClassName());
+		for (String superType : superTypes) {
+			references.superTypes.add(superType);
+			references.add(typeKey(superType), classSite, EXTENDS);
+		}
+		for (ClassFileScanner.Member field : classFile.getFields()) {
+			String name = classFile.getName(field);
+			int site = references.addSite(LinkKey.fromInternalName(LinkKey.Kind.FIELD, owner, name, null),
+					ownerName + "." + name);
+			addDescriptorTypes(references, classFile.getDescriptor(field), site);
+		}
+		for (ClassFileScanner.Member method : classFile.getMethods()) {
+			String name = classFile.getName(method);
+			String descriptor = classFile.getDescriptor(method);
+			final int site = references.addSite(
+					LinkKey.fromInternalName(LinkKey.Kind.METHOD, owner, name, descriptor),
+					ownerName + "." + name + descriptor);
+			addDescriptorTypes(references, descriptor, site);
+			classFile.scanCode(method, new ClassFileScanner.CodeVisitor() {
+				@Override
+				public void visitConstant(int opcode, int index) {
+					addConstant(references, classFile, index, opcode, site);
+				}
+			});
+		}
+		// method references of lambdas and bootstrap methods
+		for (int i = 1; i < classFile.getConstantCount(); i++) {
+			if (classFile.getTag(i) == ClassFileScanner.CONSTANT_METHOD_HANDLE) {
+				int memberIndex = classFile.getMethodHandleReference(i);
+				addConstant(references, classFile, memberIndex, -1, classSite);
+			}
+		}
+		return references;
+	}
+
+	/**
+	 * @param opcode
+	 *            -1 for a method handle
+	 */
+	private static void addConstant(ClassReferences references, ClassFileScanner classFile, int index, int opcode,
+			int site) {
+		switch (classFile.getTag(index)) {
+		case ClassFileScanner.CONSTANT_CLASS:
+			references.add(typeKey(classFile.getClassName(index)), site, USES);
+			break;
+		case ClassFileScanner.CONSTANT_FIELDREF: {
+			String refOwner = classFile.getReferenceOwner(index);
+			int kind = opcode == ClassFileScanner.PUTFIELD || opcode == ClassFileScanner.PUTSTATIC ? WRITES
+					: opcode < 0 ? METHOD_HANDLE : READS;
+			references.add(LinkKey.fromInternalName(LinkKey.Kind.FIELD, refOwner,
+					classFile.getReferenceName(index), null), site, kind);
+			if (!refOwner.equals(references.className))
+				references.add(typeKey(refOwner), site, USES);
+			break;
+		}
+		case ClassFileScanner.CONSTANT_METHODREF:
+		case ClassFileScanner.CONSTANT_INTERFACE_METHODREF: {
+			String refOwner = classFile.getReferenceOwner(index);
+			references.add(LinkKey.fromInternalName(LinkKey.Kind.METHOD, refOwner,
+					classFile.getReferenceName(index), classFile.getReferenceDescriptor(index)), site,
+					opcode < 0 ? METHOD_HANDLE : CALLS);
+			if (!refOwner.equals(references.className))
+				references.add(typeKey(refOwner), site, USES);
+			break;
+		}
+		}
+	}
+
+	private static void addDescriptorTypes(ClassReferences references, String descriptor, int site) {
+		int start = descriptor.indexOf('L');
+		while (start >= 0) {
+			int end = descriptor.indexOf(';', start);
+			if (end < 0)
+				break;
+			references.add(typeKey(descriptor.substring(start + 1, end)), site, SIGNATURE);
+			start = descriptor.indexOf('L', end);
+		}
+	}
+
+	// key of a class constant, array classes count as their element type
+	private static LinkKey typeKey(String internalName) {
+		if (internalName.startsWith("[")) {
+			int start = internalName.indexOf('L');
+			if (start < 0)
+				return null;
+			internalName = internalName.substring(start + 1, internalName.length() - 1);
+		}
+		return LinkKey.fromInternalName(LinkKey.Kind.TYPE, internalName, null, null);
+	}
+
+	private void add(ClassReferences references) {
+		// global index of each site, only sites with references are kept
+		int[] siteIds = new int[references.sites.size()];
+		Arrays.fill(siteIds, -1);
+		for (int reference : references.references) {
+			int site = reference >>> KIND_BITS;
+			if (siteIds[site] < 0) {
+				siteIds[site] = sites.size();
+				sites.add(references.sites.get(site));
+				siteNames.add(references.siteNames.get(site));
+				siteEntries.add(references.entryName);
+			}
+		}
+		for (String superType : references.superTypes) {
+			List<String> directSubtypes = subtypes.get(superType);
+			if (directSubtypes == null) {
+				directSubtypes = new ArrayList<>(2);
+				subtypes.put(superType, directSubtypes);
+			}
+			directSubtypes.add(references.className);
+		}
+		for (int i = 0; i < references.targets.size(); i++) {
+			LinkKey target = references.targets.get(i);
+			Integer id = targetIds.get(target);
+			if (id == null) {
+				id = targetIds.size();
+				targetIds.put(target, id);
+				if (id == postings.length) {
+					postings = Arrays.copyOf(postings, id * 2);
+					postingCounts = Arrays.copyOf(postingCounts, id * 2);
+				}
+				postings[id] = new int[2];
+			}
+			int reference = references.references.get(i);
+			int posting = (siteIds[reference >>> KIND_BITS] << KIND_BITS) | (reference & ((1 << KIND_BITS) - 1));
+			if (postingCounts[id] == postings[id].length)
+				postings[id] = Arrays.copyOf(postings[id], postingCounts[id] * 2);
+			postings[id][postingCounts[id]++] = posting;
+			referenceCount++;
+		}
+	}
+
+	/**
+	 * Members referring to the type, method or field. A method or field is
+	 * also found through the subtypes of its class in the jar.
+	 */
+	public List<JarSearcher.Hit> findUsages(LinkKey linkKey) {
+		List<JarSearcher.Hit> hits = new ArrayList<>();
+		if (!isBuilt || linkKey == null)
+			return hits;
+		Set<LinkKey> keys = new HashSet<>();
+		keys.add(linkKey);
+		if (linkKey.getKind() != LinkKey.Kind.TYPE) {
+			String typeStr = linkKey.getTypeName();
+			String internalName = (typeStr.startsWith(".") ? typeStr.substring(1) : typeStr).replace('.', '/');
+			for (String subtype : getSubtypes(internalName)) {
+				keys.add(linkKey.withType(subtype));
+			}
+		}
+		for (LinkKey key : keys) {
+			Integer id = targetIds.get(key);
+			if (id == null)
+				continue;
+			for (int posting : postings[id]) {
+				int site = posting >>> KIND_BITS;
+				String description = siteNames.get(site) + ": " + KIND_NAMES[posting & ((1 << KIND_BITS) - 1)];
+				hits.add(new JarSearcher.Hit(siteEntries.get(site), description, sites.get(site)));
+			}
+		}
+		Collections.sort(hits, new Comparator<JarSearcher.Hit>() {
+			@Override
+			public int compare(JarSearcher.Hit o1, JarSearcher.Hit o2) {
+				return o1.toString().compareTo(o2.toString());
+			}
+		});
+		return hits;
+	}
+
+	private Set<String> getSubtypes(String internalName) {
+		Set<String> found = new HashSet<>();
+		ArrayDeque<String> queue = new ArrayDeque<>();
+		queue.add(internalName);
+		while (!queue.isEmpty()) {
+			List<String> directSubtypes = subtypes.get(queue.poll());
+			if (directSubtypes == null)
+				continue;
+			for (String subtype : directSubtypes) {
+				if (found.add(subtype))
+					queue.add(subtype);
+			}
+		}
+		return found;
+	}
+
+	public void cancel() {
+		cancel = true;
+		ExecutorService pool = this.pool;
+		if (pool != null) {
+			pool.shutdownNow();
+		}
+	}
+
+	public boolean isBuilt() {
+		return isBuilt;
+	}
+
+	/**
+	 * @return false when the jar was changed since the index was built
+	 */
+	public boolean isUpToDate() {
+		return file.lastModified() == lastModified && file.length() == length;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getReferenceCount() {
+		return referenceCount;
+	}
+
+	public int getFailedCount() {
+		return failedCount;
+	}
+}
@@ -0,0 +1,442 @@
+package us.deathmarine.luyten;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A zip or jar file mapped read-only into memory, shared by everything that
+ * reads the opened file. The central directory is read once into arrays
+ * indexed by entry number: names stay in the mapping and are decoded when
+ * asked for, entries are inflated straight from the mapping. Zip64 archives
+ * are supported. open() hands out the same archive for the same unchanged
+ * file and counts its users, the last close() releases it.
+ */
+public class ZipArchive implements Closeable {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int END_SIZE = 22;
+	private static final int ZIP64_LOCATOR_SIZE = 20;
+	private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	private static final int ENCRYPTED_FLAG = 1;
+
+	// canonical path -> the archive handed out for it
+	private static final Map<String, ZipArchive> OPEN_ARCHIVES = new HashMap<>();
+
+	private final File file;
+	private final String key;
+	private final long lastModified;
+	private final MappedFile mappedFile;
+	private int userCount = 1;
+	private volatile boolean isClosed;
+
+	private int entryCount;
+	private long[] nameOffsets;
+	private int[] nameLengths;
+	private int[] nameHashes;
+	private long[] offsets;
+	private long[] sizes;
+	private long[] compressedSizes;
+	private int[] crcs;
+	private int[] dosTimes;
+	private short[] methods;
+	private short[] flags;
+	// open addressing by name hash, entry + 1, 0 if free
+	private int[] table;
+
+	private ZipArchive(File file, String key) throws IOException {
+		this.file = file;
+		this.key = key;
+		this.lastModified = file.lastModified();
+		mappedFile = MappedFile.map(file);
+		readCentralDirectory();
+	}
+
+	/**
+	 * @return the archive of the file, shared with its other users; close it
+	 *         when done
+	 */
+	public static ZipArchive open(File file) throws IOException {
+		String key = file.getCanonicalPath();
+		synchronized (OPEN_ARCHIVES) {
+			ZipArchive archive = OPEN_ARCHIVES.get(key);
+			// a rebuilt file gets a new archive, the old one stays with its users
+			if (archive != null && archive.lastModified == file.lastModified()
+					&& archive.mappedFile.getLength() == file.length()) {
+				archive.userCount++;
+				return archive;
+			}
+			archive = new ZipArchive(file, key);
+			OPEN_ARCHIVES.put(key, archive);
+			return archive;
+		}
+	}
+
+	/**
+	 * Releases this user's share, the mapping is released by the GC after
+	 * the last one
+	 */
+	@Override
+	public void close() {
+		synchronized (OPEN_ARCHIVES) {
+			if (isClosed || --userCount > 0)
+				return;
+			isClosed = true;
+			if (OPEN_ARCHIVES.get(key) == this)
+				OPEN_ARCHIVES.remove(key);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int size() {
+		return entryCount;
+	}
+
+	public String getName(int entry) {
+		byte[] bytes = new byte[nameLengths[entry]];
+		mappedFile.getBytes(nameOffsets[entry], bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	public boolean isDirectory(int entry) {
+		int length = nameLengths[entry];
+		return length > 0 && mappedFile.getByte(nameOffsets[entry] + length - 1) == '/';
+	}
+
+	/**
+	 * @return uncompressed size
+	 */
+	public long getSize(int entry) {
+		return sizes[entry];
+	}
+
+	public long getCompressedSize(int entry) {
+		return compressedSizes[entry];
+	}
+
+	public long getCrc(int entry) {
+		return crcs[entry] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @return offset of the entry's local header in the file
+	 */
+	public long getOffset(int entry) {
+		return offsets[entry];
+	}
+
+	/**
+	 * @return modification time in milliseconds, like ZipEntry.getTime()
+	 */
+	public long getTime(int entry) {
+		int dosTime = dosTimes[entry];
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(((dosTime >> 25) & 0x7F) + 1980, ((dosTime >> 21) & 0x0F) - 1, (dosTime >> 16) & 0x1F,
+				(dosTime >> 11) & 0x1F, (dosTime >> 5) & 0x3F, (dosTime << 1) & 0x3E);
+		return calendar.getTimeInMillis();
+	}
+
+	/**
+	 * @return the entry with the name, -1 if there is none
+	 */
+	public int findEntry(String name) {
+		byte[] bytes = name.getBytes(UTF_8);
+		int mask = table.length - 1;
+		for (int slot = hash(bytes, 0, bytes.length) & mask;; slot = (slot + 1) & mask) {
+			int entry = table[slot] - 1;
+			if (entry < 0)
+				return -1;
+			if (isName(entry, bytes))
+				return entry;
+		}
+	}
+
+	/**
+	 * @return the uncompressed bytes of the entry, inflated from the mapping
+	 */
+	public InputStream getInputStream(int entry) throws IOException {
+		if (isClosed)
+			throw new IOException("Archive is closed: " + file);
+		if ((flags[entry] & ENCRYPTED_FLAG) != 0)
+			throw new ZipException("Encrypted entry: " + getName(entry));
+		long offset = offsets[entry];
+		if (readInt(offset) != LOCAL_HEADER_SIGNATURE)
+			throw new ZipException("Invalid local header: " + getName(entry));
+		long dataOffset = offset + LOCAL_HEADER_SIZE + readShort(offset + 26) + readShort(offset + 28);
+		MappedInputStream in = new MappedInputStream(dataOffset, compressedSizes[entry]);
+		switch (methods[entry]) {
+		case STORED:
+			return in;
+		case DEFLATED:
+			return new EntryInflaterInputStream(in);
+		default:
+			throw new ZipException("Unsupported compression method " + methods[entry] + ": " + getName(entry));
+		}
+	}
+
+	/**
+	 * @return the uncompressed bytes of an entry of at most 2 GB
+	 */
+	public byte[] readBytes(int entry) throws IOException {
+		if (sizes[entry] > Integer.MAX_VALUE - 8)
+			throw new IOException("Entry is too large: " + getName(entry));
+		byte[] bytes = new byte[(int) sizes[entry]];
+		try (InputStream in = getInputStream(entry);) {
+			int position = 0;
+			while (position < bytes.length) {
+				int count = in.read(bytes, position, bytes.length - position);
+				if (count < 0)
+					throw new EOFException("Truncated entry: " + getName(entry));
+				position += count;
+			}
+		}
+		return bytes;
+	}
+
+	private void readCentralDirectory() throws IOException {
+		long length = mappedFile.getLength();
+		long endOffset = findEnd(length);
+		long entries = readShort(endOffset + 10);
+		long directorySize = readInt(endOffset + 12) & ZIP64_MAGIC;
+		long directoryOffset = readInt(endOffset + 16) & ZIP64_MAGIC;
+		long locatorOffset = endOffset - ZIP64_LOCATOR_SIZE;
+		long directoryEnd = endOffset;
+		if (locatorOffset >= 0 && readInt(locatorOffset) == ZIP64_LOCATOR_SIGNATURE) {
+			long zip64EndOffset = readLong(locatorOffset + 8);
+			if (zip64EndOffset < 0 || zip64EndOffset >= locatorOffset
+					|| readInt(zip64EndOffset) != ZIP64_END_SIGNATURE)
+				throw new ZipException("Invalid Zip64 end record: " + file);
+			entries = readLong(zip64EndOffset + 32);
+			directorySize = readLong(zip64EndOffset + 40);
+			directoryOffset = readLong(zip64EndOffset + 48);
+			directoryEnd = zip64EndOffset;
+		}
+		// data before the archive (e.g. an executable header) moves all offsets
+		long base = directoryEnd - directorySize - directoryOffset;
+		if (base < 0 || entries < 0 || entries > Integer.MAX_VALUE - 8)
+			throw new ZipException("Invalid central directory: " + file);
+		allocate((int) entries);
+
+		long position = directoryOffset + base;
+		for (int entry = 0; entry < entryCount; entry++) {
+			if (position + CENTRAL_HEADER_SIZE > directoryEnd || readInt(position) != CENTRAL_HEADER_SIGNATURE)
+				throw new ZipException("Invalid central directory entry " + entry + ": " + file);
+			int nameLength = readShort(position + 28);
+			int extraLength = readShort(position + 30);
+			int commentLength = readShort(position + 32);
+			flags[entry] = (short) readShort(position + 8);
+			methods[entry] = (short) readShort(position + 10);
+			dosTimes[entry] = readInt(position + 12);
+			crcs[entry] = readInt(position + 16);
+			compressedSizes[entry] = readInt(position + 20) & ZIP64_MAGIC;
+			sizes[entry] = readInt(position + 24) & ZIP64_MAGIC;
+			offsets[entry] = readInt(position + 42) & ZIP64_MAGIC;
+			nameOffsets[entry] = position + CENTRAL_HEADER_SIZE;
+			nameLengths[entry] = nameLength;
+			readZip64Extra(entry, position + CENTRAL_HEADER_SIZE + nameLength, extraLength);
+			offsets[entry] += base;
+			addToTable(entry);
+			position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+	}
+
+	private long findEnd(long length) throws IOException {
+		long last = Math.max(0, length - END_SIZE - MAX_COMMENT_LENGTH);
+		for (long offset = length - END_SIZE; offset >= last; offset--) {
+			if (readInt(offset) == END_SIGNATURE && offset + END_SIZE + readShort(offset + 20) <= length)
+				return offset;
+		}
+		throw new ZipException("Not a zip file: " + file);
+	}
+
+	// 64 bit values replace the 32 bit ones which are 0xFFFFFFFF, in order
+	private void readZip64Extra(int entry, long offset, int length) {
+		long end = offset + length;
+		while (offset + 4 <= end) {
+			int id = readShort(offset);
+			int size = readShort(offset + 2);
+			long data = offset + 4;
+			if (id == ZIP64_EXTRA_ID) {
+				long dataEnd = Math.min(data + size, end);
+				if (sizes[entry] == ZIP64_MAGIC && data + 8 <= dataEnd) {
+					sizes[entry] = readLong(data);
+					data += 8;
+				}
+				if (compressedSizes[entry] == ZIP64_MAGIC && data + 8 <= dataEnd) {
+					compressedSizes[entry] = readLong(data);
+					data += 8;
+				}
+				if (offsets[entry] == ZIP64_MAGIC && data + 8 <= dataEnd)
+					offsets[entry] = readLong(data);
+				return;
+			}
+			offset = data + size;
+		}
+	}
+
+	private void allocate(int count) {
+		entryCount = count;
+		nameOffsets = new long[count];
+		nameLengths = new int[count];
+		nameHashes = new int[count];
+		offsets = new long[count];
+		sizes = new long[count];
+		compressedSizes = new long[count];
+		crcs = new int[count];
+		dosTimes = new int[count];
+		methods = new short[count];
+		flags = new short[count];
+		// at most half full
+		int tableSize = Integer.highestOneBit(Math.max(count, 1) * 2 + 1) << 1;
+		table = new int[tableSize];
+	}
+
+	// the first of entries with the same name is found
+	private void addToTable(int entry) {
+		int hash = 0;
+		long offset = nameOffsets[entry];
+		for (int i = 0; i < nameLengths[entry]; i++) {
+			hash = 31 * hash + mappedFile.getByte(offset + i);
+		}
+		nameHashes[entry] = hash;
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = entry + 1;
+	}
+
+	private boolean isName(int entry, byte[] bytes) {
+		if (nameLengths[entry] != bytes.length || nameHashes[entry] != hash(bytes, 0, bytes.length))
+			return false;
+		long offset = nameOffsets[entry];
+		for (int i = 0; i < bytes.length; i++) {
+			if (mappedFile.getByte(offset + i) != bytes[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static int hash(byte[] bytes, int offset, int length) {
+		int hash = 0;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+		return hash;
+	}
+
+	private int readShort(long offset) {
+		return (mappedFile.getByte(offset) & 0xFF) | (mappedFile.getByte(offset + 1) & 0xFF) << 8;
+	}
+
+	private int readInt(long offset) {
+		return readShort(offset) | readShort(offset + 2) << 16;
+	}
+
+	private long readLong(long offset) {
+		return (readInt(offset) & ZIP64_MAGIC) | (long) readInt(offset + 4) << 32;
+	}
+
+	/**
+	 * The stored bytes of an entry
+	 */
+	private final class MappedInputStream extends InputStream {
+		private long position;
+		private final long end;
+
+		MappedInputStream(long offset, long length) {
+			this.position = offset;
+			this.end = Math.min(offset + length, mappedFile.getLength());
+		}
+
+		@Override
+		public int read() {
+			if (position >= end)
+				return -1;
+			return mappedFile.getByte(position++) & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			if (position >= end)
+				return -1;
+			int count = mappedFile.getBytes(position, b, off, (int) Math.min(len, end - position));
+			position += count;
+			return count;
+		}
+
+		@Override
+		public long skip(long n) {
+			long count = Math.max(0, Math.min(n, end - position));
+			position += count;
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(end - position, Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * Inflates raw deflate data, which needs a dummy byte after its end
+	 */
+	private static final class EntryInflaterInputStream extends InflaterInputStream {
+		private boolean isEofReached;
+		private boolean isClosed;
+
+		EntryInflaterInputStream(InputStream in) {
+			super(in, new Inflater(true), 8192);
+		}
+
+		@Override
+		protected void fill() throws IOException {
+			if (isEofReached)
+				throw new EOFException("Unexpected end of entry");
+			len = in.read(buf, 0, buf.length);
+			if (len == -1) {
+				buf[0] = 0;
+				len = 1;
+				isEofReached = true;
+			}
+			inf.setInput(buf, 0, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (isClosed)
+				return;
+			isClosed = true;
+			inf.end();
+			super.close();
+		}
+	}
+}